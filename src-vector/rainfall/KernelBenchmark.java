@@ -0,0 +1,120 @@
+package rainfall;
+
+import java.util.Random;
+
+/**
+ * KernelBenchmark times the vector aggregation kernels against the scalar
+ * ones over random rainfall arrays, from the length of one station's
+ * monthly columns up to that of a large collection of stations. Each kernel
+ * is warmed up before it is timed, and the results of every call are folded
+ * into a checksum so that no call can be optimised away.
+ * <pre>
+ * java --add-modules jdk.incubator.vector -cp out rainfall.KernelBenchmark [rounds]
+ * </pre>
+ *
+ * @author Owen Herbert
+ */
+public class KernelBenchmark {
+
+    private static final int[] LENGTHS = {1_500, 100_000, 1_000_000}; // array lengths timed
+    private static final long TOTAL_VALUES = 50_000_000; // values processed per kernel and length
+    private static final int DEFAULT_ROUNDS = 5; // timed rounds, the fastest is reported
+    private static final double THRESHOLD = 50; // threshold of the count kernel
+
+    private static double checksum; // folded results of every call
+
+    private KernelBenchmark() {
+    }
+
+    /**
+     * Runs the benchmark and prints the nanoseconds per value of each kernel.
+     *
+     * @param args optional number of timed rounds
+     */
+    public static void main(String[] args) {
+
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROUNDS;
+        AggregateKernels scalar = new ScalarKernels();
+        AggregateKernels vector = new VectorKernels();
+        Random random = new Random(42);
+
+        System.out.printf("%-12s %10s %12s %12s %8s%n", "kernel", "length", "scalar ns/v", "vector ns/v", "speedup");
+
+        for (int length : LENGTHS) {
+
+            double[] values = new double[length];
+            for (int i = 0; i < length; i++) {
+                values[i] = random.nextDouble() * 100;
+            }
+
+            // every other value is selected for the masked sum
+            long[] words = new long[Selection.wordCount(length)];
+            for (int i = 0; i < length; i += 2) {
+                words[i >>> 6] |= 1L << i;
+            }
+
+            for (String kernel : new String[]{"sum", "min", "max", "countAbove", "maskedSum", "compareMask"}) {
+                double scalarTime = time(scalar, kernel, values, words, rounds);
+                double vectorTime = time(vector, kernel, values, words, rounds);
+                System.out.printf("%-12s %10d %12.3f %12.3f %7.2fx%n",
+                        kernel, length, scalarTime, vectorTime, scalarTime / vectorTime);
+            }
+        }
+
+        System.out.println("checksum " + checksum);
+    }
+
+    /**
+     * Times a kernel, warming it up with one untimed round first.
+     *
+     * @param kernels the kernels
+     * @param kernel name of the kernel
+     * @param values the values
+     * @param words selection words of the masked sum
+     * @param rounds number of timed rounds
+     * @return nanoseconds per value of the fastest round
+     */
+    private static double time(AggregateKernels kernels, String kernel, double[] values, long[] words, int rounds) {
+
+        int calls = (int) Math.max(1, TOTAL_VALUES / values.length);
+        run(kernels, kernel, values, words, calls);
+
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            run(kernels, kernel, values, words, calls);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        return (double) best / ((long) calls * values.length);
+    }
+
+    /**
+     * Calls a kernel over the whole array a number of times.
+     *
+     * @param kernels the kernels
+     * @param kernel name of the kernel
+     * @param values the values
+     * @param words selection words of the masked sum
+     * @param calls number of calls
+     */
+    private static void run(AggregateKernels kernels, String kernel, double[] values, long[] words, int calls) {
+
+        double result = 0;
+        for (int call = 0; call < calls; call++) {
+            switch (kernel) {
+                case "sum" -> result += kernels.sum(values, 0, values.length);
+                case "min" -> result += kernels.min(values, 0, values.length);
+                case "max" -> result += kernels.max(values, 0, values.length);
+                case "countAbove" -> result += kernels.countAbove(values, 0, values.length, THRESHOLD);
+                case "maskedSum" -> result += kernels.maskedSum(values, words);
+                default -> {
+                    kernels.compareMask(values, 0, values.length, Query.Comparison.GREATER_THAN, THRESHOLD, words);
+                    result += words[call % words.length];
+                }
+            }
+        }
+
+        checksum += result;
+    }
+}
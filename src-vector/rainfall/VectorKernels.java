@@ -0,0 +1,342 @@
+package rainfall;
+
+import java.nio.ByteBuffer;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * VectorKernels implement the aggregation kernels with the incubating Vector
+ * API, processing as many values per instruction as the preferred species of
+ * the CPU holds. The remainder of each range is processed one value at a
+ * time. This class lives in the optional src-vector source set, compiled
+ * apart from src with {@code --add-modules jdk.incubator.vector}, and is only
+ * loaded by {@link Aggregates} when the application is run with the module.
+ *
+ * @author Owen Herbert
+ */
+class VectorKernels implements AggregateKernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    private static final VectorSpecies<Long> LONG_SPECIES = VectorSpecies.of(long.class, SPECIES.vectorShape());
+    private static final LongVector LANE_BITS = LongVector.broadcast(LONG_SPECIES, 1)
+            .lanewise(VectorOperators.LSHL, LongVector.zero(LONG_SPECIES).addIndex(1)); // bit of each lane
+    private static final VectorSpecies<Integer> INT_SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final int INT_LANES = INT_SPECIES.length();
+    private static final IntVector INT_LANE_BITS = IntVector.broadcast(INT_SPECIES, 1)
+            .lanewise(VectorOperators.LSHL, IntVector.zero(INT_SPECIES).addIndex(1)); // bit of each int lane
+    private static final ScalarKernels SCALAR = new ScalarKernels(); // kernels for the values left over
+
+    @Override
+    public double sum(double[] values, int from, int to) {
+
+        DoubleVector sums = DoubleVector.zero(SPECIES);
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += LANES) {
+            sums = sums.add(DoubleVector.fromArray(SPECIES, values, i));
+        }
+
+        double sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; i < to; i++) {
+            sum += values[i];
+        }
+
+        return sum;
+    }
+
+    @Override
+    public double min(double[] values, int from, int to) {
+
+        DoubleVector mins = DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY);
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += LANES) {
+            mins = mins.min(DoubleVector.fromArray(SPECIES, values, i));
+        }
+
+        double min = mins.reduceLanes(VectorOperators.MIN);
+        for (; i < to; i++) {
+            min = Math.min(min, values[i]);
+        }
+
+        return min;
+    }
+
+    @Override
+    public double max(double[] values, int from, int to) {
+
+        DoubleVector maxs = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += LANES) {
+            maxs = maxs.max(DoubleVector.fromArray(SPECIES, values, i));
+        }
+
+        double max = maxs.reduceLanes(VectorOperators.MAX);
+        for (; i < to; i++) {
+            max = Math.max(max, values[i]);
+        }
+
+        return max;
+    }
+
+    @Override
+    public int countAbove(double[] values, int from, int to, double threshold) {
+
+        int count = 0;
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += LANES) {
+            count += DoubleVector.fromArray(SPECIES, values, i).compare(VectorOperators.GT, threshold).trueCount();
+        }
+
+        for (; i < to; i++) {
+            count += values[i] > threshold ? 1 : 0;
+        }
+
+        return count;
+    }
+
+    @Override
+    public double maskedSum(double[] values, long[] words) {
+
+        // lanes never straddle a word because the lane count divides 64, so
+        // the selection bits of a lane group are tested against one bit per lane
+        DoubleVector sums = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(values.length); i < bound; i += LANES) {
+            VectorMask<Double> mask = LongVector.broadcast(LONG_SPECIES, words[i >>> 6] >>> i)
+                    .and(LANE_BITS)
+                    .compare(VectorOperators.NE, 0)
+                    .cast(SPECIES);
+            sums = sums.add(DoubleVector.fromArray(SPECIES, values, i), mask);
+        }
+
+        double sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; i < values.length; i++) {
+            sum += ((words[i >>> 6] >>> i) & 1) != 0 ? values[i] : 0;
+        }
+
+        return sum;
+    }
+
+    @Override
+    public double sum(ByteBuffer values, int offset, int count) {
+
+        DoubleVector sums = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(count); i < bound; i += LANES) {
+            sums = sums.add(DoubleVector.fromByteBuffer(SPECIES, values, offset + (i * Double.BYTES), values.order()));
+        }
+
+        double sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; i < count; i++) {
+            sum += values.getDouble(offset + (i * Double.BYTES));
+        }
+
+        return sum;
+    }
+
+    @Override
+    public double max(ByteBuffer values, int offset, int count) {
+
+        DoubleVector maxs = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(count); i < bound; i += LANES) {
+            maxs = maxs.max(DoubleVector.fromByteBuffer(SPECIES, values, offset + (i * Double.BYTES), values.order()));
+        }
+
+        double max = maxs.reduceLanes(VectorOperators.MAX);
+        for (; i < count; i++) {
+            max = Math.max(max, values.getDouble(offset + (i * Double.BYTES)));
+        }
+
+        return max;
+    }
+
+    @Override
+    public int countAbove(ByteBuffer values, int offset, int count, double threshold) {
+
+        int above = 0;
+        int i = 0;
+        for (int bound = SPECIES.loopBound(count); i < bound; i += LANES) {
+            above += DoubleVector.fromByteBuffer(SPECIES, values, offset + (i * Double.BYTES), values.order())
+                    .compare(VectorOperators.GT, threshold).trueCount();
+        }
+
+        for (; i < count; i++) {
+            above += values.getDouble(offset + (i * Double.BYTES)) > threshold ? 1 : 0;
+        }
+
+        return above;
+    }
+
+    @Override
+    public double maskedSum(ByteBuffer values, int offset, int count, long[] words, int firstIndex) {
+
+        // lanes only stay within a word when the run starts on a lane boundary
+        int i = 0;
+        DoubleVector sums = DoubleVector.zero(SPECIES);
+        if (firstIndex % LANES == 0) {
+            for (int bound = SPECIES.loopBound(count); i < bound; i += LANES) {
+                int index = firstIndex + i;
+                VectorMask<Double> mask = LongVector.broadcast(LONG_SPECIES, words[index >>> 6] >>> index)
+                        .and(LANE_BITS)
+                        .compare(VectorOperators.NE, 0)
+                        .cast(SPECIES);
+                sums = sums.add(DoubleVector.fromByteBuffer(SPECIES, values, offset + (i * Double.BYTES),
+                        values.order()), mask);
+            }
+        }
+
+        double sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; i < count; i++) {
+            int index = firstIndex + i;
+            sum += ((words[index >>> 6] >>> index) & 1) != 0 ? values.getDouble(offset + (i * Double.BYTES)) : 0;
+        }
+
+        return sum;
+    }
+
+    @Override
+    public void compareMask(double[] values, int from, int to, Query.Comparison comparison, double threshold,
+                            long[] words) {
+
+        // the operator must be a constant in each loop for the comparison to compile to vector instructions
+        int i = switch (comparison) {
+            case LESS_THAN -> compareMask(values, from, to, VectorOperators.LT, threshold, words);
+            case LESS_OR_EQUAL -> compareMask(values, from, to, VectorOperators.LE, threshold, words);
+            case GREATER_THAN -> compareMask(values, from, to, VectorOperators.GT, threshold, words);
+            case GREATER_OR_EQUAL -> compareMask(values, from, to, VectorOperators.GE, threshold, words);
+        };
+
+        SCALAR.compareMask(values, i, to, comparison, threshold, words);
+    }
+
+    /**
+     * Sets the bits of the whole lane groups of a range that compare to a
+     * threshold. The mask of a lane group only fits within a word when the
+     * group starts on a lane boundary, so nothing is compared otherwise.
+     *
+     * @param values the values
+     * @param from first index, inclusive
+     * @param to last index, exclusive
+     * @param operator the comparison operator
+     * @param threshold the threshold
+     * @param words selection words covering the values
+     * @return the index of the first value left to compare
+     */
+    private static int compareMask(double[] values, int from, int to, VectorOperators.Comparison operator,
+                                   double threshold, long[] words) {
+
+        int i = from;
+        if (from % LANES == 0) {
+            for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += LANES) {
+                VectorMask<Double> mask = DoubleVector.fromArray(SPECIES, values, i).compare(operator, threshold);
+                words[i >>> 6] |= toBits(mask) << i;
+            }
+        }
+
+        return i;
+    }
+
+    @Override
+    public void clearZeroMask(int[] values, int from, int to, long[] words) {
+
+        int i = from;
+        if (from % INT_LANES == 0) {
+            for (int bound = from + INT_SPECIES.loopBound(to - from); i < bound; i += INT_LANES) {
+                VectorMask<Integer> mask = IntVector.fromArray(INT_SPECIES, values, i).compare(VectorOperators.EQ, 0);
+                words[i >>> 6] &= ~(toIntBits(mask) << i);
+            }
+        }
+
+        SCALAR.clearZeroMask(values, i, to, words);
+    }
+
+    @Override
+    public void compareMask(ByteBuffer values, int offset, int count, Query.Comparison comparison, double threshold,
+                            long[] words, int firstIndex) {
+
+        int i = switch (comparison) {
+            case LESS_THAN -> compareMask(values, offset, count, VectorOperators.LT, threshold, words, firstIndex);
+            case LESS_OR_EQUAL -> compareMask(values, offset, count, VectorOperators.LE, threshold, words, firstIndex);
+            case GREATER_THAN -> compareMask(values, offset, count, VectorOperators.GT, threshold, words, firstIndex);
+            case GREATER_OR_EQUAL ->
+                    compareMask(values, offset, count, VectorOperators.GE, threshold, words, firstIndex);
+        };
+
+        SCALAR.compareMask(values, offset + (i * Double.BYTES), count - i, comparison, threshold, words,
+                firstIndex + i);
+    }
+
+    @Override
+    public void clearZeroMask(ByteBuffer values, int offset, int count, long[] words, int firstIndex) {
+
+        int i = 0;
+        if (firstIndex % INT_LANES == 0) {
+            for (int bound = INT_SPECIES.loopBound(count); i < bound; i += INT_LANES) {
+                int index = firstIndex + i;
+                VectorMask<Integer> mask = IntVector.fromByteBuffer(INT_SPECIES, values, offset + (i * Integer.BYTES),
+                        values.order()).compare(VectorOperators.EQ, 0);
+                words[index >>> 6] &= ~(toIntBits(mask) << index);
+            }
+        }
+
+        SCALAR.clearZeroMask(values, offset + (i * Integer.BYTES), count - i, words, firstIndex + i);
+    }
+
+    /**
+     * Sets the bits of the whole lane groups of a run read in place from a
+     * buffer that compare to a threshold, if the run starts on a lane
+     * boundary.
+     *
+     * @param values the buffer, read in its byte order
+     * @param offset byte offset of the first value
+     * @param count number of values
+     * @param operator the comparison operator
+     * @param threshold the threshold
+     * @param words selection words covering the values
+     * @param firstIndex index in the words of the first value
+     * @return the number of values compared
+     */
+    private static int compareMask(ByteBuffer values, int offset, int count, VectorOperators.Comparison operator,
+                                   double threshold, long[] words, int firstIndex) {
+
+        int i = 0;
+        if (firstIndex % LANES == 0) {
+            for (int bound = SPECIES.loopBound(count); i < bound; i += LANES) {
+                int index = firstIndex + i;
+                VectorMask<Double> mask = DoubleVector.fromByteBuffer(SPECIES, values, offset + (i * Double.BYTES),
+                        values.order()).compare(operator, threshold);
+                words[index >>> 6] |= toBits(mask) << index;
+            }
+        }
+
+        return i;
+    }
+
+    /**
+     * Returns the lanes set in a mask as the low bits of a long. This is a
+     * blend and a reduction rather than {@link VectorMask#toLong}, which is
+     * not compiled to vector instructions on every JDK the kernels run on.
+     *
+     * @param mask the mask
+     * @return bit i set if lane i is set
+     */
+    private static long toBits(VectorMask<Double> mask) {
+        return LongVector.zero(LONG_SPECIES).blend(LANE_BITS, mask.cast(LONG_SPECIES)).reduceLanes(VectorOperators.OR);
+    }
+
+    /**
+     * Returns the lanes set in an int mask as the low bits of a long.
+     *
+     * @param mask the mask
+     * @return bit i set if lane i is set
+     */
+    private static long toIntBits(VectorMask<Integer> mask) {
+        return IntVector.zero(INT_SPECIES).blend(INT_LANE_BITS, mask).reduceLanes(VectorOperators.OR) & 0xFFFFFFFFL;
+    }
+}
@@ -0,0 +1,460 @@
+import rainfall.Loader;
+import rainfall.RecordCursor;
+import rainfall.Station;
+import rainfall.StationSnapshot;
+
+import javax.imageio.ImageIO;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * The ChartExporter class renders the chart of each station to a PNG file
+ * without showing a window, so it can run on a headless machine. The chart
+ * is drawn with Java2D in the same layout {@link RainfallChart} uses for a
+ * whole station history. Stations are loaded and rendered in parallel by a
+ * fixed pool of workers; the chart chrome that does not depend on a station
+ * is drawn once and copied into every image, and each worker reuses its own
+ * image buffer.
+ * <p>
+ * Usage: {@code ChartExporter [--width=n] [--height=n] [--threads=n]
+ * [--duplicates=latest_file|quality_flag] <directory> <output directory>
+ * [station ...]}. Every station in the directory is exported when no
+ * stations are named. A station named as {@code name=file,file...} is merged
+ * from several raw extracts in the directory, oldest first, with duplicate
+ * days resolved by the {@link Loader.DuplicatePolicy} given.
+ *
+ * @author Owen Herbert
+ */
+public class ChartExporter {
+
+    // utility constants, the chart layout matches RainfallChart
+    private static final int MONTHS_IN_YEAR = 12;
+    private static final int CHART_PADDING = 75; // padding in pixels of the chart area
+    private static final int CHART_AXIS_WEIGHT = 4; // width in pixels of axis lines
+    private static final int CHART_GUIDE_WEIGHT = 1; // height and width in pixels of chart guides
+    private static final int TICK_STEP_SIZE = 10; // step size for y axis ticks
+    private static final int TICK_MARGIN = 35; // margin in pixels for y axis ticks
+    private static final double CHART_SCALE_ACCURACY = 0.01; // accuracy for chart data scaling
+    private static final String X_AXIS_TEXT = "Year:"; // text for x axis
+    private static final String Y_AXIS_TEXT = "Rainfall (mm):"; // text for y axis
+    private static final int DEFAULT_WIDTH = 1200; // default image width in pixels
+    private static final int DEFAULT_HEIGHT = 600; // default image height in pixels
+    private static final String ANALYSED_SUFFIX = "_analysed.csv"; // suffix of analysed csv files
+    private static final String MERGE_SEPARATOR = "="; // separates a merged station name from its raw files
+
+    // web colours, awt equivalents of the RainfallChart colours
+    private static final Color COLOUR_DARK_BLUE = Color.decode("#004c6d");
+    private static final Color COLOUR_BLUE = Color.decode("#008fb1");
+    private static final Color COLOUR_LIGHT_BLUE = Color.decode("#b1ffff");
+    private static final Color COLOUR_WHITE_BLUE = Color.decode("#d8ffff");
+    private static final Color COLOUR_GREY = Color.decode("#dcdcdc");
+    private static final Color COLOUR_NO_DATA = new Color(0x80, 0x80, 0x80, 89);
+
+    // fonts
+    private static final Font FONT_CHART_TITLE = new Font("Consolas", Font.PLAIN, 35);
+    private static final Font FONT_INTERFACE_NORMAL = new Font("Consolas", Font.PLAIN, 11);
+
+    private final int width; // image width in pixels
+    private final int height; // image height in pixels
+    private final BufferedImage chrome; // axis lines, titles and tick indicators shared by every image
+    private final ThreadLocal<BufferedImage> canvases; // image buffer reused by each worker
+    private final Loader.DuplicatePolicy duplicatePolicy; // resolves duplicate days of merged stations
+
+    /**
+     * Sets the image size and draws the shared chart chrome upon
+     * construction. Duplicate days of merged stations go to the latest file.
+     *
+     * @param width image width in pixels
+     * @param height image height in pixels
+     */
+    public ChartExporter(int width, int height) {
+        this(width, height, Loader.DuplicatePolicy.LATEST_FILE);
+    }
+
+    /**
+     * Sets the image size and duplicate policy and draws the shared chart
+     * chrome upon construction.
+     *
+     * @param width image width in pixels
+     * @param height image height in pixels
+     * @param duplicatePolicy how duplicate days of merged stations are resolved
+     */
+    public ChartExporter(int width, int height, Loader.DuplicatePolicy duplicatePolicy) {
+
+        if (width <= CHART_PADDING * 2 || height <= CHART_PADDING * 2) {
+            throw new IllegalArgumentException("image must be larger than the chart padding!");
+        }
+
+        this.width = width;
+        this.height = height;
+        this.chrome = drawChrome();
+        this.canvases = ThreadLocal.withInitial(() -> new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+        this.duplicatePolicy = duplicatePolicy;
+    }
+
+    /**
+     * Loads and exports each station to a PNG file named after the station.
+     * Stations that fail are reported and do not stop the others.
+     *
+     * @param directoryName name of the directory the stations are loaded from
+     * @param stationNames names of the stations to export, or merged stations as {@code name=file,file...}
+     * @param outputPath directory the images are written to
+     * @param threads number of worker threads
+     * @return number of stations that could not be exported
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    public int export(String directoryName, List<String> stationNames, Path outputPath, int threads)
+            throws InterruptedException {
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+
+            List<Future<Path>> exports = new ArrayList<>(stationNames.size());
+            for (String stationName : stationNames) {
+                exports.add(workers.submit(() -> exportStation(directoryName, stationName, outputPath)));
+            }
+
+            // report in submission order so output is stable however the workers interleave
+            int failures = 0;
+            for (int i = 0; i < exports.size(); i++) {
+                try {
+                    System.out.println("exported " + exports.get(i).get());
+                } catch (ExecutionException err) {
+                    System.err.println("failed " + stationNames.get(i) + ": " + err.getCause().getMessage());
+                    failures++;
+                }
+            }
+
+            return failures;
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Loads, renders and writes the image of a single station.
+     *
+     * @param directoryName name of the directory the station is loaded from
+     * @param stationName name of the station, or a merged station as {@code name=file,file...}
+     * @param outputPath directory the image is written to
+     * @return path of the written image
+     * @throws Loader.LoaderException if the station cannot be loaded
+     * @throws IOException if the image cannot be written
+     */
+    private Path exportStation(String directoryName, String stationName, Path outputPath)
+            throws Loader.LoaderException, IOException {
+
+        Station station = loadStation(directoryName, stationName);
+
+        try {
+
+            RenderPhaseEvent exportEvent = RenderPhaseEvent.begin("export", station.getName());
+            BufferedImage image = render(station, canvases.get());
+
+            Path imagePath = outputPath.resolve(station.getName() + ".png");
+            ImageIO.write(image, "png", imagePath.toFile());
+            exportEvent.complete(station.size(), 0);
+
+            return imagePath;
+        } finally {
+            // the station is not kept, free any off heap storage now
+            station.release();
+        }
+    }
+
+    /**
+     * Loads a station, merging it from the raw files listed after its name
+     * if there are any.
+     *
+     * @param directoryName name of the directory the station is loaded from
+     * @param stationName name of the station, or a merged station as {@code name=file,file...}
+     * @return the station
+     * @throws Loader.LoaderException if the station cannot be loaded
+     */
+    private Station loadStation(String directoryName, String stationName) throws Loader.LoaderException {
+
+        int separatorIndex = stationName.indexOf(MERGE_SEPARATOR);
+        if (separatorIndex == -1) {
+            return Loader.load(directoryName, stationName);
+        }
+
+        List<String> rawFileNames = List.of(stationName.substring(separatorIndex + 1).split(","));
+        return Loader.loadMerged(directoryName, stationName.substring(0, separatorIndex), rawFileNames,
+                duplicatePolicy);
+    }
+
+    /**
+     * Renders the chart of a station over its whole history.
+     *
+     * @param station the station
+     * @param canvas image to draw into, must match the exporter size
+     * @return the canvas
+     */
+    public BufferedImage render(Station station, BufferedImage canvas) {
+
+        Graphics2D graphics = canvas.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+
+        double chartLeft = CHART_PADDING;
+        double chartTop = CHART_PADDING;
+        double chartWidth = width - (CHART_PADDING * 2);
+        double chartHeight = height - (CHART_PADDING * 2);
+        double chartBottom = chartTop + chartHeight;
+
+        StationSnapshot snapshot = station.getSnapshot();
+        ArrayList<Integer> years = snapshot.getDistinctYears();
+
+        double pixelsPerMonth = chartWidth / (years.size() * MONTHS_IN_YEAR);
+        double pixelsPerYear = pixelsPerMonth * MONTHS_IN_YEAR;
+
+        double rainfallMax = snapshot.getRainfallTotalsQuery().max(0, snapshot.size());
+        if (Double.isNaN(rainfallMax)) {
+            rainfallMax = 0;
+        }
+
+        graphics.setColor(COLOUR_GREY);
+        graphics.fillRect(0, 0, width, height);
+
+        // station title
+        graphics.setColor(Color.BLACK);
+        graphics.setFont(FONT_CHART_TITLE);
+        graphics.drawString(station.getName(), (float) chartLeft, (float) (chartTop - 30));
+
+        // distinct year backgrounds and x axis ticks
+        graphics.setFont(FONT_INTERFACE_NORMAL);
+        for (int i = 0; i < years.size(); i++) {
+
+            double yearXPos = chartLeft + (i * pixelsPerYear);
+
+            graphics.setColor(i % 2 == 0 ? COLOUR_LIGHT_BLUE : COLOUR_WHITE_BLUE);
+            fillRect(graphics, yearXPos, chartTop, pixelsPerYear, chartHeight);
+
+            // conditional year ticks, adjust text in accordance to amount of records
+            if (pixelsPerYear >= 30 || i % 3 == 0) {
+                double tickXPos = yearXPos + (pixelsPerYear / 2);
+                graphics.setColor(COLOUR_DARK_BLUE);
+                fillRect(graphics, tickXPos, chartBottom, 1, 10);
+                drawRotatedString(graphics, String.valueOf(years.get(i)), tickXPos, chartBottom + 25, 45);
+            }
+        }
+
+        // y axis ticks and dotted guide lines
+        graphics.setStroke(new BasicStroke(CHART_GUIDE_WEIGHT, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 10,
+                new float[]{CHART_GUIDE_WEIGHT, CHART_GUIDE_WEIGHT}, 0));
+        for (int i = 0; i <= 100 / TICK_STEP_SIZE; i++) {
+
+            int tickPercent = i * TICK_STEP_SIZE;
+            int tickInteger = (int) Math.round((rainfallMax / 100) * tickPercent);
+            double tickYPos = chartBottom - ((chartHeight / 100) * tickPercent);
+
+            graphics.setColor(COLOUR_DARK_BLUE);
+            graphics.drawString(String.valueOf(tickInteger), (float) (chartLeft - TICK_MARGIN), (float) tickYPos);
+
+            if (tickInteger != 0) {
+                graphics.setColor(Color.BLACK);
+                int guideYPos = (int) Math.round(tickYPos + (CHART_GUIDE_WEIGHT / 2.0));
+                graphics.drawLine((int) chartLeft, guideYPos, (int) (chartLeft + chartWidth), guideYPos);
+            }
+        }
+
+        // apply scaling division to contain data within the chart
+        double applyScalingDivision = Math.max(CHART_SCALE_ACCURACY,
+                Math.ceil(rainfallMax / chartHeight / CHART_SCALE_ACCURACY) * CHART_SCALE_ACCURACY);
+
+        // rainfall bars, months without data shade the whole chart
+        int firstYear = Integer.MAX_VALUE, lastYear = Integer.MIN_VALUE;
+        for (int year : years) {
+            firstYear = Math.min(firstYear, year);
+            lastYear = Math.max(lastYear, year);
+        }
+
+        int[] yearIndexes = new int[years.isEmpty() ? 0 : lastYear - firstYear + 1];
+        for (int i = 0; i < years.size(); i++) {
+            yearIndexes[years.get(i) - firstYear] = i;
+        }
+
+        RecordCursor cursor = snapshot.cursor();
+        while (cursor.next()) {
+
+            int slot = (yearIndexes[cursor.getYear() - firstYear] * MONTHS_IN_YEAR) + (cursor.getMonth() - 1);
+            double barHeight = cursor.hasData() ? cursor.getRainfallTotal() / applyScalingDivision : chartHeight;
+
+            graphics.setColor(cursor.hasData() ? COLOUR_BLUE : COLOUR_NO_DATA);
+            fillRect(graphics, chartLeft + (slot * pixelsPerMonth), chartBottom - barHeight, pixelsPerMonth,
+                    barHeight);
+        }
+
+        graphics.drawImage(chrome, 0, 0, null);
+        graphics.dispose();
+
+        return canvas;
+    }
+
+    /**
+     * Draws the parts of the chart that are the same for every station on a
+     * transparent image: the axis lines, axis titles and y axis tick
+     * indicators.
+     *
+     * @return the chrome image
+     */
+    private BufferedImage drawChrome() {
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+
+        double chartWidth = width - (CHART_PADDING * 2);
+        double chartHeight = height - (CHART_PADDING * 2);
+        double chartBottom = CHART_PADDING + chartHeight;
+
+        graphics.setColor(COLOUR_DARK_BLUE);
+        graphics.setFont(FONT_INTERFACE_NORMAL);
+
+        // axis titles
+        graphics.drawString(X_AXIS_TEXT, (float) (CHART_PADDING + (chartWidth / 2)), (float) (chartBottom + 46));
+        drawRotatedString(graphics, Y_AXIS_TEXT, CHART_PADDING - 90 + (textWidth(graphics, Y_AXIS_TEXT) / 2.0),
+                chartBottom - (chartHeight / 2), 270);
+
+        // axis lines
+        fillRect(graphics, CHART_PADDING - CHART_AXIS_WEIGHT, CHART_PADDING, CHART_AXIS_WEIGHT, chartHeight);
+        fillRect(graphics, CHART_PADDING, chartBottom, chartWidth, CHART_AXIS_WEIGHT);
+
+        // y axis tick indicators
+        for (int i = 0; i <= 100 / TICK_STEP_SIZE; i++) {
+            double tickYPos = chartBottom - ((chartHeight / 100) * i * TICK_STEP_SIZE);
+            fillRect(graphics, CHART_PADDING - 6, tickYPos, 6, 1);
+        }
+
+        graphics.dispose();
+
+        return image;
+    }
+
+    /**
+     * Fills a rectangle with double co-ordinates snapped to whole pixels.
+     *
+     * @param graphics the graphics to draw with
+     * @param x left edge
+     * @param y top edge
+     * @param width width of the rectangle
+     * @param height height of the rectangle
+     */
+    private static void fillRect(Graphics2D graphics, double x, double y, double width, double height) {
+        int left = (int) Math.round(x);
+        int top = (int) Math.round(y);
+        graphics.fillRect(left, top, (int) Math.round(x + width) - left, (int) Math.round(y + height) - top);
+    }
+
+    /**
+     * Draws a string rotated around its centre, as a rotated JavaFX Text is.
+     *
+     * @param graphics the graphics to draw with
+     * @param text the string
+     * @param centreX x co-ordinate of the centre of the unrotated string
+     * @param baselineY y co-ordinate of the baseline of the unrotated string
+     * @param degrees clockwise rotation in degrees
+     */
+    private static void drawRotatedString(Graphics2D graphics, String text, double centreX, double baselineY,
+                                          double degrees) {
+
+        FontMetrics metrics = graphics.getFontMetrics();
+        double centreY = baselineY - ((metrics.getAscent() - metrics.getDescent()) / 2.0);
+
+        AffineTransform transform = graphics.getTransform();
+        graphics.rotate(Math.toRadians(degrees), centreX, centreY);
+        graphics.drawString(text, (float) (centreX - (metrics.stringWidth(text) / 2.0)), (float) baselineY);
+        graphics.setTransform(transform);
+    }
+
+    /**
+     * @param graphics the graphics to measure with
+     * @param text the string
+     * @return width in pixels of the string in the current font
+     */
+    private static int textWidth(Graphics2D graphics, String text) {
+        return graphics.getFontMetrics().stringWidth(text);
+    }
+
+    /**
+     * Returns the names of every station in a directory, from its raw and
+     * analysed csv files.
+     *
+     * @param directoryName name of the directory
+     * @return station names in file name order
+     * @throws IOException if the directory cannot be listed
+     */
+    private static List<String> findStationNames(String directoryName) throws IOException {
+
+        LinkedHashSet<String> stationNames = new LinkedHashSet<>();
+        try (Stream<Path> files = Files.list(Paths.get(directoryName))) {
+            files.map(path -> path.getFileName().toString()).filter(name -> name.endsWith(".csv")).sorted()
+                    .forEach(name -> stationNames.add(name.endsWith(ANALYSED_SUFFIX) ?
+                            name.substring(0, name.length() - ANALYSED_SUFFIX.length()) :
+                            name.substring(0, name.length() - ".csv".length())));
+        }
+
+        return new ArrayList<>(stationNames);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        // no display is needed to draw into images
+        System.setProperty("java.awt.headless", "true");
+
+        int width = DEFAULT_WIDTH;
+        int height = DEFAULT_HEIGHT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        Loader.DuplicatePolicy duplicatePolicy = Loader.DuplicatePolicy.LATEST_FILE;
+        List<String> arguments = new ArrayList<>();
+
+        for (String arg : args) {
+            if (arg.startsWith("--width=")) {
+                width = Integer.parseInt(arg.substring("--width=".length()));
+            } else if (arg.startsWith("--height=")) {
+                height = Integer.parseInt(arg.substring("--height=".length()));
+            } else if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if (arg.startsWith("--duplicates=")) {
+                duplicatePolicy = Loader.DuplicatePolicy.valueOf(arg.substring("--duplicates=".length()).toUpperCase());
+            } else {
+                arguments.add(arg);
+            }
+        }
+
+        if (arguments.size() < 2) {
+            System.err.println("usage: ChartExporter [--width=n] [--height=n] [--threads=n] "
+                    + "[--duplicates=latest_file|quality_flag] <directory> <output directory> [station ...]");
+            System.exit(2);
+        }
+
+        String directoryName = arguments.get(0);
+        Path outputPath = Paths.get(arguments.get(1));
+        List<String> stationNames = arguments.size() > 2 ?
+                arguments.subList(2, arguments.size()) : findStationNames(directoryName);
+
+        Files.createDirectories(outputPath);
+
+        ChartExporter exporter = new ChartExporter(width, height, duplicatePolicy);
+        int failures = exporter.export(directoryName, stationNames, outputPath, Math.max(1, threads));
+
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
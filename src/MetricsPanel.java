@@ -0,0 +1,311 @@
+import javafx.animation.AnimationTimer;
+import javafx.geometry.Insets;
+import javafx.scene.Node;
+import javafx.scene.Parent;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.VBox;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+import rainfall.Station;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+
+/**
+ * The MetricsPanel class displays the load, memory and rendering metrics of
+ * the visualiser from the default {@link MetricsRegistry}. While the panel is
+ * shown an animation timer records the time between frames, and the labels
+ * are refreshed a few times a second rather than every frame.
+ *
+ * @author Owen Herbert
+ */
+public class MetricsPanel extends VBox {
+
+    // metric names
+    public static final String METRIC_LOAD_COUNT = "load.count";
+    public static final String METRIC_LOAD_TIME = "load.time.ms";
+    public static final String METRIC_LOAD_ROWS_PER_SECOND = "load.rows.per.second";
+    public static final String METRIC_LOAD_BYTES_PER_SECOND = "load.bytes.per.second";
+    public static final String METRIC_STATION_HEAP_PREFIX = "station.heap.bytes.";
+    public static final String METRIC_STATION_OFF_HEAP_PREFIX = "station.offheap.bytes.";
+    public static final String METRIC_SCENE_NODES = "scene.nodes";
+    public static final String METRIC_FRAME_TIME = "chart.frame.ms";
+    public static final String METRIC_LAYOUT_TIME = "chart.layout.ms";
+    public static final String METRIC_HEATMAP_DRAW_TIME = "heatmap.draw.ms";
+
+    // utility constants
+    private static final int PANEL_WIDTH = 220; // width in pixels of the panel
+    private static final int HISTOGRAM_BAR_WIDTH = 110; // width in pixels of a full histogram bar
+    private static final int HISTOGRAM_BAR_HEIGHT = 9; // height in pixels of a histogram bar
+    private static final long REFRESH_INTERVAL_NANOS = 250_000_000L; // time between label refreshes
+    private static final DateTimeFormatter DUMP_FILE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    // web colours
+    private static final Color COLOUR_HISTOGRAM_BAR = Color.web("#3399cc");
+
+    private final MetricsRegistry registry = MetricsRegistry.getDefault();
+    private final Histogram frameTimes = registry.histogram(METRIC_FRAME_TIME, Histogram.MILLISECOND_BOUNDS);
+    private final Histogram layoutTimes = registry.histogram(METRIC_LAYOUT_TIME, Histogram.MILLISECOND_BOUNDS);
+    private final Histogram heatmapDrawTimes = registry.histogram(METRIC_HEATMAP_DRAW_TIME,
+            Histogram.MILLISECOND_BOUNDS);
+
+    // javafx components
+    private final Label loadLabel = createLabel(); // last load time and throughput
+    private final Label heapLabel = createLabel(); // estimated heap of each loaded station
+    private final Label sceneLabel = createLabel(); // scene graph node count, layout and heatmap draw times
+    private final Label dumpLabel = createLabel(); // result of the last json dump
+    private final Rectangle[] frameTimeBars = new Rectangle[frameTimes.getBucketCount()];
+    private final Label[] frameTimeCounts = new Label[frameTimes.getBucketCount()];
+
+    private final AnimationTimer frameTimer = new AnimationTimer() {
+
+        private long lastFrame; // time of the previous frame, 0 before the first frame
+        private long lastRefresh; // time the labels were last refreshed
+
+        @Override
+        public void handle(long now) {
+
+            if (lastFrame != 0) {
+                frameTimes.record((now - lastFrame) / 1e6);
+            }
+            lastFrame = now;
+
+            if (now - lastRefresh >= REFRESH_INTERVAL_NANOS) {
+                lastRefresh = now;
+                refresh();
+            }
+        }
+
+        @Override
+        public void stop() {
+            super.stop();
+            lastFrame = 0;
+        }
+    };
+
+    private final Collection<Station> stations; // loaded stations to estimate the heap of
+
+    /**
+     * Creates the panel components upon construction.
+     *
+     * @param stations the loaded stations, read whenever the panel refreshes
+     */
+    public MetricsPanel(Collection<Station> stations) {
+
+        super(8);
+        this.stations = stations;
+
+        setPadding(new Insets(6));
+        setPrefWidth(PANEL_WIDTH);
+
+        // frame time histogram, one row per bucket
+        GridPane frameTimeGrid = new GridPane();
+        frameTimeGrid.setHgap(4);
+        for (int i = 0; i < frameTimeBars.length; i++) {
+
+            double bound = frameTimes.getBucketBound(i);
+            Label boundLabel = createLabel();
+            boundLabel.setText(Double.isInfinite(bound) ? "> " + frameTimes.getBucketBound(i - 1) : "<= " + bound);
+
+            frameTimeBars[i] = new Rectangle(0, HISTOGRAM_BAR_HEIGHT, COLOUR_HISTOGRAM_BAR);
+            frameTimeCounts[i] = createLabel();
+
+            frameTimeGrid.addRow(i, boundLabel, frameTimeBars[i], frameTimeCounts[i]);
+        }
+
+        Button resetButton = new Button("Reset Frames");
+        resetButton.setFont(RainfallVisualiser.FONT_INTERFACE_NORMAL);
+        resetButton.setOnAction(action -> {
+            frameTimes.reset();
+            refresh();
+        });
+
+        Button dumpButton = new Button("Dump JSON");
+        dumpButton.setFont(RainfallVisualiser.FONT_INTERFACE_NORMAL);
+        dumpButton.setOnAction(action -> dumpJson());
+
+        getChildren().addAll(createHeading("Last Load"), loadLabel, createHeading("Station Heap (est.)"), heapLabel,
+                createHeading("Scene"), sceneLabel, createHeading("Frame Time (ms)"), frameTimeGrid, resetButton,
+                dumpButton, dumpLabel);
+
+        // only time frames while the panel is shown
+        visibleProperty().addListener((observable, wasVisible, isVisible) -> {
+            if (isVisible) {
+                frameTimer.start();
+            } else {
+                frameTimer.stop();
+            }
+        });
+
+        refresh();
+    }
+
+    /**
+     * Records the metrics of a completed station load.
+     *
+     * @param station the loaded station
+     * @param loadNanos time in nanoseconds taken to load the station
+     */
+    public void recordLoad(Station station, long loadNanos) {
+
+        double loadSeconds = Math.max(loadNanos, 1) / 1e9;
+
+        registry.increment(METRIC_LOAD_COUNT, 1);
+        registry.setGauge(METRIC_LOAD_TIME, loadNanos / 1e6);
+        registry.setGauge(METRIC_LOAD_ROWS_PER_SECOND, station.getSourceRows() / loadSeconds);
+        registry.setGauge(METRIC_LOAD_BYTES_PER_SECOND, station.getSourceBytes() / loadSeconds);
+
+        refresh();
+    }
+
+    /**
+     * Removes the gauges of a station that is no longer loaded, such as one
+     * evicted by a new load of the same station. A station loaded under the
+     * same name is gauged again on the next refresh.
+     *
+     * @param station the station
+     */
+    public void removeStation(Station station) {
+        registry.removeGauge(METRIC_STATION_HEAP_PREFIX + station.getName());
+        registry.removeGauge(METRIC_STATION_OFF_HEAP_PREFIX + station.getName());
+    }
+
+    /**
+     * Writes every metric as JSON to a timestamped file in the working
+     * directory.
+     */
+    private void dumpJson() {
+
+        refresh();
+
+        Path dumpPath = Paths.get("metrics-" + LocalDateTime.now().format(DUMP_FILE_FORMAT) + ".json");
+        try {
+            Files.writeString(dumpPath, registry.toJson());
+            dumpLabel.setText("wrote " + dumpPath);
+        } catch (IOException err) {
+            dumpLabel.setText("dump failed: " + err.getMessage());
+        }
+    }
+
+    /**
+     * Updates the gauges that are sampled rather than recorded, and the
+     * labels and histogram bars from the registry.
+     */
+    private void refresh() {
+
+        // sample station heap and scene graph size
+        StringBuilder heapText = new StringBuilder();
+        long totalHeapBytes = 0;
+        for (Station station : stations) {
+            long heapBytes = station.estimateHeapBytes();
+            long offHeapBytes = station.getOffHeapBytes();
+            registry.setGauge(METRIC_STATION_HEAP_PREFIX + station.getName(), heapBytes);
+            registry.setGauge(METRIC_STATION_OFF_HEAP_PREFIX + station.getName(), offHeapBytes);
+            heapText.append(String.format("%s: %s", station.getName(), formatBytes(heapBytes)));
+            heapText.append(offHeapBytes == 0 ? String.format("%n") :
+                    String.format(" (+%s off heap)%n", formatBytes(offHeapBytes)));
+            totalHeapBytes += heapBytes;
+        }
+        heapText.append(String.format("total: %s", formatBytes(totalHeapBytes)));
+        heapLabel.setText(heapText.toString());
+
+        if (getScene() != null) {
+            registry.setGauge(METRIC_SCENE_NODES, countNodes(getScene().getRoot()));
+        }
+
+        loadLabel.setText(String.format("time: %1.1f ms%nrows: %1.0f /s%nbytes: %s/s%nloads: %d",
+                orZero(registry.getGauge(METRIC_LOAD_TIME)),
+                orZero(registry.getGauge(METRIC_LOAD_ROWS_PER_SECOND)),
+                formatBytes((long) orZero(registry.getGauge(METRIC_LOAD_BYTES_PER_SECOND))),
+                registry.getCounter(METRIC_LOAD_COUNT)));
+
+        sceneLabel.setText(String.format(
+                "nodes: %1.0f%nlayouts: %d, mean %1.2f ms%nheatmap draws: %d, mean %1.3f ms",
+                orZero(registry.getGauge(METRIC_SCENE_NODES)), layoutTimes.getCount(),
+                orZero(layoutTimes.getMean()), heatmapDrawTimes.getCount(), orZero(heatmapDrawTimes.getMean())));
+
+        // scale histogram bars to the fullest bucket
+        long maxCount = 1;
+        for (int i = 0; i < frameTimeBars.length; i++) {
+            maxCount = Math.max(maxCount, frameTimes.getBucketCount(i));
+        }
+
+        for (int i = 0; i < frameTimeBars.length; i++) {
+            long count = frameTimes.getBucketCount(i);
+            frameTimeBars[i].setWidth(HISTOGRAM_BAR_WIDTH * (double) count / maxCount);
+            frameTimeCounts[i].setText(String.valueOf(count));
+        }
+    }
+
+    /**
+     * Counts a node and all of its descendants.
+     *
+     * @param node the node
+     * @return number of nodes in the subtree
+     */
+    private static int countNodes(Node node) {
+
+        int count = 1;
+        if (node instanceof Parent) {
+            for (Node child : ((Parent) node).getChildrenUnmodifiable()) {
+                count += countNodes(child);
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Formats a number of bytes with a binary unit.
+     *
+     * @param bytes number of bytes
+     * @return formatted size
+     */
+    private static String formatBytes(long bytes) {
+
+        if (bytes < 1024) {
+            return bytes + " B";
+        } else if (bytes < 1024 * 1024) {
+            return String.format("%1.1f KiB", bytes / 1024.0);
+        }
+
+        return String.format("%1.1f MiB", bytes / (1024.0 * 1024.0));
+    }
+
+    /**
+     * @param value a gauge value
+     * @return the value, or 0 if it is NaN
+     */
+    private static double orZero(double value) {
+        return Double.isNaN(value) ? 0 : value;
+    }
+
+    /**
+     * @return a label in the interface font
+     */
+    private static Label createLabel() {
+        Label label = new Label();
+        label.setFont(RainfallVisualiser.FONT_INTERFACE_NORMAL);
+        return label;
+    }
+
+    /**
+     * @param text heading text
+     * @return a heading label
+     */
+    private static Label createHeading(String text) {
+        Label heading = createLabel();
+        heading.setText(text);
+        heading.setUnderline(true);
+        return heading;
+    }
+}
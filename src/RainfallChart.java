@@ -0,0 +1,818 @@
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Line;
+import javafx.scene.shape.LineTo;
+import javafx.scene.shape.MoveTo;
+import javafx.scene.shape.Path;
+import javafx.scene.shape.PathElement;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.text.Text;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+import rainfall.Climatology;
+import rainfall.RecordCursor;
+import rainfall.RollingStatistics;
+import rainfall.Station;
+import rainfall.StationSnapshot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * The RainfallChart class is a pane that charts the monthly total rainfall of
+ * a station and follows the size of the pane. The chart is laid out in
+ * {@link #layoutChildren()}, so resizes and viewport changes are coalesced by
+ * JavaFX into a single layout per pulse, and its nodes are pooled and
+ * repositioned rather than rebuilt. The chart draws from the snapshot of the
+ * station taken when it is set, so a station changed on another thread never
+ * shows torn data.
+ *
+ * @author Owen Herbert
+ */
+public class RainfallChart extends Pane {
+
+    // utility constants
+    private static final int MONTHS_IN_YEAR = 12;
+    private static final int CHART_PADDING = 75; // padding in pixels of the chart area
+    private static final int CHART_AXIS_WEIGHT = 4; // width in pixels of axis lines
+    private static final int CHART_GUIDE_WEIGHT = 1; // height and width in pixels of chart guides
+    private static final int TICK_STEP_SIZE = 10; // step size for y axis ticks
+    private static final int TICK_MARGIN = 35; // margin in pixels for y axis ticks
+    private static final double CHART_SCALE_ACCURACY = 0.01; // accuracy for chart data scaling
+    private static final double CHART_ZOOM_FACTOR = 0.8; // view span multiplier for each zoom in step
+    private static final int CHART_MIN_VIEW_MONTHS = 12; // smallest number of months the chart can zoom to
+    private static final double LOADING_AXIS_HEADROOM = 1.25; // y axis room left above the max while loading
+    private static final String X_AXIS_TEXT = "Year:"; // text for x axis
+    private static final String Y_AXIS_TEXT = "Rainfall (mm):"; // text for y axis
+
+    // web colours
+    private static final Color COLOUR_DARK_BLUE = Color.web("#004c6d");
+    private static final Color COLOUR_BLUE = Color.web("#008fb1");
+    private static final Color COLOUR_LIGHT_BLUE = Color.web("#b1ffff");
+    private static final Color COLOUR_WHITE_BLUE = Color.web("#d8ffff");
+    private static final Color COLOUR_GREY = Color.web("#dcdcdc");
+    private static final Color COLOUR_NO_DATA = Color.web("#808080", 0.35);
+    private static final Color[] COLOURS_MOVING_AVERAGE = {
+            Color.web("#cc3300"), Color.web("#ff9900"), Color.web("#6633cc")
+    };
+
+    // static chart components
+    private final Rectangle background = new Rectangle();
+    private final Text stationText = new Text();
+    private final Text xAxisText = new Text(X_AXIS_TEXT);
+    private final Text yAxisText = new Text(Y_AXIS_TEXT);
+    private final Rectangle xAxisLine = new Rectangle();
+    private final Rectangle yAxisLine = new Rectangle();
+    private final Text[] yTickTexts = new Text[(100 / TICK_STEP_SIZE) + 1];
+    private final Rectangle[] yTickIndicators = new Rectangle[yTickTexts.length];
+    private final Line[] guideLines = new Line[yTickTexts.length];
+
+    // pooled chart components, plotted components are clipped to the chart area
+    private final Rectangle plotClip = new Rectangle();
+    private final Group plotGroup = new Group();
+    private final Group yearGroup = new Group();
+    private final Group guideGroup = new Group();
+    private final Group barGroup = new Group();
+    private final Group xTickGroup = new Group();
+    private final Group overlayGroup = new Group();
+    private final Path climatologyLine = new Path();
+    private final Path[] movingAverageLines = new Path[RollingStatistics.DEFAULT_WINDOW_SIZES.length];
+    private final ArrayList<Rectangle> yearRectangles = new ArrayList<>();
+    private final ArrayList<Rectangle> bars = new ArrayList<>();
+    private final ArrayList<Text> xTickTexts = new ArrayList<>();
+    private final ArrayList<Rectangle> xTickIndicators = new ArrayList<>();
+    private final RecordCursor cursor = new RecordCursor(); // reads station records without creating objects
+    private int[] barRecordIndexes = new int[0]; // record index of each pooled bar at the last layout
+    private double[] overlayPoints = new double[0]; // x and y of each overlay point, reused between layouts
+    private final int[] yTickValues = new int[yTickTexts.length]; // rainfall value each y axis tick text shows
+
+    // time taken by each layout of the chart
+    private final Histogram layoutTimes = MetricsRegistry.getDefault()
+            .histogram(MetricsPanel.METRIC_LAYOUT_TIME, Histogram.MILLISECOND_BOUNDS);
+
+    // chart viewport
+    private Station station; // station displayed on the chart, null if the chart is clear
+    private StationSnapshot snapshot; // version of the station's records the chart is drawn from
+    private ArrayList<Integer> years; // distinct years of the station
+    private String[] yearLabels; // x axis tick text of each distinct year
+    private int[] slots; // month slot of each station record, in record order
+    private double viewStart; // first month slot visible on the chart
+    private double viewSpan; // number of month slots visible on the chart
+    private double dragOriginX; // x co-ordinate where the current pan started
+    private double dragOriginViewStart; // view start when the current pan started
+    private boolean isLayoutStale = true; // if the chart must be laid out on the next pulse
+    private double laidOutWidth; // width of the pane at the last layout
+    private double laidOutHeight; // height of the pane at the last layout
+    private StatisticsBox hoveredStatBox; // statistics box of the hovered bar, if any
+    private boolean isLoading; // if the station is still loading and grows with each refresh
+    private double loadingAxisMax; // y axis maximum kept while loading, 0 until the first layout
+
+    /**
+     * Creates the static and pooled chart components upon construction.
+     */
+    public RainfallChart() {
+
+        background.setFill(COLOUR_GREY);
+        stationText.setFont(RainfallVisualiser.FONT_CHART_TITLE);
+
+        xAxisText.setFill(COLOUR_DARK_BLUE);
+        xAxisText.setFont(RainfallVisualiser.FONT_INTERFACE_NORMAL);
+
+        yAxisText.setFont(RainfallVisualiser.FONT_INTERFACE_NORMAL);
+        yAxisText.setFill(COLOUR_DARK_BLUE);
+        yAxisText.setRotate(270);
+
+        xAxisLine.setFill(COLOUR_DARK_BLUE);
+        yAxisLine.setFill(COLOUR_DARK_BLUE);
+
+        Group yTickGroup = new Group();
+        for (int i = 0; i < yTickTexts.length; i++) {
+
+            yTickTexts[i] = new Text();
+            yTickValues[i] = -1;
+            yTickTexts[i].setFill(COLOUR_DARK_BLUE);
+            yTickTexts[i].setFont(RainfallVisualiser.FONT_INTERFACE_NORMAL);
+
+            yTickIndicators[i] = new Rectangle(6, 1);
+            yTickIndicators[i].setFill(COLOUR_DARK_BLUE);
+
+            guideLines[i] = new Line();
+            guideLines[i].setStrokeWidth(CHART_GUIDE_WEIGHT);
+            guideLines[i].getStrokeDashArray().addAll((double) CHART_GUIDE_WEIGHT, (double) CHART_GUIDE_WEIGHT);
+
+            yTickGroup.getChildren().addAll(yTickTexts[i], yTickIndicators[i]);
+            guideGroup.getChildren().add(guideLines[i]);
+        }
+
+        // overlays are hidden until they are enabled
+        climatologyLine.setStroke(COLOUR_DARK_BLUE);
+        climatologyLine.setStrokeWidth(2);
+        climatologyLine.getStrokeDashArray().addAll(4.0, 4.0);
+        climatologyLine.setVisible(false);
+        overlayGroup.getChildren().add(climatologyLine);
+
+        for (int i = 0; i < movingAverageLines.length; i++) {
+            movingAverageLines[i] = new Path();
+            movingAverageLines[i].setStroke(COLOURS_MOVING_AVERAGE[i % COLOURS_MOVING_AVERAGE.length]);
+            movingAverageLines[i].setStrokeWidth(2);
+            movingAverageLines[i].setVisible(false);
+            overlayGroup.getChildren().add(movingAverageLines[i]);
+        }
+
+        // overlays must not block the bars from being hovered
+        overlayGroup.setMouseTransparent(true);
+
+        plotGroup.setClip(plotClip);
+        plotGroup.getChildren().addAll(yearGroup, guideGroup, barGroup, overlayGroup);
+
+        getChildren().addAll(background, stationText, xAxisText, yAxisText, xTickGroup, plotGroup,
+                xAxisLine, yAxisLine, yTickGroup);
+
+        // chart components are positioned by the chart, not by the pane
+        for (Node child : getChildren()) {
+            child.setManaged(false);
+        }
+
+        setOnScroll(scrollEvent -> zoom(scrollEvent.getDeltaY(), scrollEvent.getX()));
+        setOnMousePressed(mouseEvent -> {
+            dragOriginX = mouseEvent.getX();
+            dragOriginViewStart = viewStart;
+        });
+        setOnMouseDragged(mouseEvent -> pan(mouseEvent.getX()));
+
+        setStation(null);
+    }
+
+    /**
+     * Sets the station displayed on the chart and shows its whole history.
+     *
+     * @param station the station to display, or null to clear the chart
+     */
+    public void setStation(Station station) {
+
+        hideStatisticsBox();
+
+        this.station = station;
+        this.snapshot = station == null ? null : station.getSnapshot();
+
+        for (Node child : getChildren()) {
+            child.setVisible(station != null);
+        }
+
+        if (station != null) {
+
+            readSnapshot();
+            stationText.setText(station.getName());
+
+            viewStart = 0;
+            viewSpan = years.size() * MONTHS_IN_YEAR;
+        }
+
+        invalidateLayout();
+    }
+
+    /**
+     * Redraws the chart from the latest snapshot of its station, such as one
+     * published by a load in progress. The whole history stays in view if it
+     * was in view, otherwise the viewport is kept.
+     */
+    public void refresh() {
+
+        if (station == null || station.getSnapshot() == snapshot) {
+            return;
+        }
+
+        boolean isShowingAll = viewStart == 0 && viewSpan == years.size() * MONTHS_IN_YEAR;
+
+        hideStatisticsBox();
+        snapshot = station.getSnapshot();
+        readSnapshot();
+
+        if (isShowingAll) {
+            viewSpan = years.size() * MONTHS_IN_YEAR;
+        }
+
+        invalidateLayout();
+    }
+
+    /**
+     * Sets if the station is still loading. While it loads, the y axis is
+     * only rescaled when the largest visible record outgrows it or falls well
+     * below it, so the axis does not change with every refresh. Once loading
+     * ends the axis fits the largest visible record again, exactly as if the
+     * station had been set fully loaded.
+     *
+     * @param isLoading if the station is still loading
+     */
+    public void setLoading(boolean isLoading) {
+        this.isLoading = isLoading;
+        this.loadingAxisMax = 0;
+        invalidateLayout();
+    }
+
+    /**
+     * Reads the distinct years and the month slot of each record from the
+     * snapshot.
+     */
+    private void readSnapshot() {
+
+        RenderPhaseEvent stationEvent = RenderPhaseEvent.begin("station", station.getName());
+
+        years = snapshot.getDistinctYears();
+
+        // map each record to its month slot, slots are ordered by distinct year then month
+        HashMap<Integer, Integer> yearIndexes = new HashMap<>();
+        yearLabels = new String[years.size()];
+        for (int i = 0; i < years.size(); i++) {
+            yearIndexes.put(years.get(i), i);
+            yearLabels[i] = String.valueOf(years.get(i));
+        }
+
+        cursor.reset(snapshot.getMonthlyColumns());
+        slots = new int[snapshot.size()];
+        while (cursor.next()) {
+            slots[cursor.getIndex()] = (yearIndexes.get(cursor.getYear()) * MONTHS_IN_YEAR) +
+                    (cursor.getMonth() - 1);
+        }
+
+        stationEvent.complete(slots.length, 0);
+    }
+
+    /**
+     * Shows or hides the moving average overlay of a rolling window.
+     *
+     * @param window index of the window in {@link RollingStatistics#DEFAULT_WINDOW_SIZES}
+     * @param isVisible if the overlay is shown
+     */
+    public void setMovingAverageVisible(int window, boolean isVisible) {
+        movingAverageLines[window].setVisible(isVisible);
+        invalidateLayout();
+    }
+
+    /**
+     * Shows or hides the overlay of the long-term mean of each calendar month.
+     *
+     * @param isVisible if the overlay is shown
+     */
+    public void setClimatologyVisible(boolean isVisible) {
+        climatologyLine.setVisible(isVisible);
+        invalidateLayout();
+    }
+
+    /**
+     * @return the station displayed on the chart, or null if the chart is clear
+     */
+    public Station getStation() {
+        return station;
+    }
+
+    /**
+     * Positions the chart components for the current size and viewport. Only
+     * the years and records inside the viewport are laid out, and pooled
+     * nodes beyond those are hidden.
+     */
+    @Override
+    protected void layoutChildren() {
+
+        double paneWidth = getWidth();
+        double paneHeight = getHeight();
+
+        // skip layouts that would not change anything, such as those caused by the statistics box
+        if (!isLayoutStale && paneWidth == laidOutWidth && paneHeight == laidOutHeight) {
+            return;
+        }
+
+        isLayoutStale = false;
+        laidOutWidth = paneWidth;
+        laidOutHeight = paneHeight;
+
+        // edges of the chart area
+        double chartLeft = CHART_PADDING;
+        double chartRight = paneWidth - CHART_PADDING;
+        double chartTop = CHART_PADDING;
+        double chartBottom = paneHeight - CHART_PADDING;
+
+        double chartWidth = chartRight - chartLeft; // the width of the chart
+        double chartHeight = chartBottom - chartTop; // the height of the chart
+
+        if (station == null || chartWidth <= 0 || chartHeight <= 0) {
+            return;
+        }
+
+        RenderPhaseEvent layoutEvent = RenderPhaseEvent.begin("layout", station.getName());
+        long layoutStart = System.nanoTime();
+        int pooledNodes = getPooledNodeCount();
+
+        double pixelsPerMonth = chartWidth / viewSpan; // how wide a month should be in the chart area
+        double pixelsPerYear = pixelsPerMonth * MONTHS_IN_YEAR; // how wide a year should be in the chart area
+        double viewEnd = viewStart + viewSpan;
+
+        // visible range of distinct years and records
+        int firstYearIndex = (int) Math.floor(viewStart / MONTHS_IN_YEAR);
+        int lastYearIndex = Math.min(years.size() - 1, (int) Math.ceil(viewEnd / MONTHS_IN_YEAR) - 1);
+        int firstRecordIndex = findFirstSlotIndex((int) Math.floor(viewStart));
+        int lastRecordIndex = findFirstSlotIndex((int) Math.ceil(viewEnd));
+
+        // rescale the y axis to the largest visible record
+        double visibleRainfallMax = snapshot.getRainfallTotalsQuery().max(firstRecordIndex, lastRecordIndex);
+        if (Double.isNaN(visibleRainfallMax)) {
+            visibleRainfallMax = 0;
+        }
+
+        // while loading, keep the axis until the visible max leaves the band below it
+        if (isLoading) {
+            boolean isOutgrown = visibleRainfallMax > loadingAxisMax;
+            boolean isTooLow = visibleRainfallMax < loadingAxisMax / (LOADING_AXIS_HEADROOM * LOADING_AXIS_HEADROOM);
+            if (isOutgrown || isTooLow) {
+                loadingAxisMax = visibleRainfallMax * LOADING_AXIS_HEADROOM;
+            }
+            visibleRainfallMax = loadingAxisMax;
+        }
+
+        background.setWidth(paneWidth);
+        background.setHeight(paneHeight);
+
+        plotClip.setX(chartLeft);
+        plotClip.setY(chartTop);
+        plotClip.setWidth(chartWidth);
+        plotClip.setHeight(chartHeight);
+
+        // position station title
+        stationText.setX(chartLeft);
+        stationText.setY(chartTop - 30);
+
+        // position axis titles
+        xAxisText.setX(chartLeft + (chartWidth / 2));
+        xAxisText.setY(chartBottom + 46);
+
+        yAxisText.setX(chartLeft - 90);
+        yAxisText.setY(chartBottom - (chartHeight / 2));
+
+        // position visible distinct year backgrounds and X Axis titles on the chart
+        int yearCount = 0;
+        int xTickCount = 0;
+        for (int i = firstYearIndex; i <= lastYearIndex; i++) {
+
+            double yearXPos = chartLeft + (((i * MONTHS_IN_YEAR) - viewStart) * pixelsPerMonth);
+
+            Rectangle distinctYearRectangle = acquire(yearRectangles, yearGroup, yearCount++, Rectangle::new);
+            distinctYearRectangle.setX(yearXPos);
+            distinctYearRectangle.setY(chartTop);
+            distinctYearRectangle.setWidth(pixelsPerYear);
+            distinctYearRectangle.setHeight(chartHeight);
+            distinctYearRectangle.setFill(i % 2 == 0 ? COLOUR_LIGHT_BLUE : COLOUR_WHITE_BLUE);
+
+            // skip year ticks whose centre is scrolled outside the chart area
+            double tickXPos = yearXPos + (pixelsPerYear / 2);
+            if (tickXPos < chartLeft || tickXPos > chartRight) {
+                continue;
+            }
+
+            // conditional year ticks, adjust text in accordance to amount of records
+            if (pixelsPerYear >= 30 || i % 3 == 0) {
+
+                Rectangle tickIndicator = acquire(xTickIndicators, xTickGroup, xTickCount, this::createXTickIndicator);
+                tickIndicator.setX(tickXPos);
+                tickIndicator.setY(chartBottom);
+
+                Text tickText = acquire(xTickTexts, xTickGroup, xTickCount, this::createXTickText);
+                tickText.setText(yearLabels[i]);
+                tickText.setX(tickXPos);
+                tickText.setY(chartBottom + 25);
+
+                xTickCount++;
+            }
+        }
+
+        hideFrom(yearRectangles, yearCount);
+        hideFrom(xTickIndicators, xTickCount);
+        hideFrom(xTickTexts, xTickCount);
+
+        // position chart axis lines
+        yAxisLine.setX(chartLeft - CHART_AXIS_WEIGHT);
+        yAxisLine.setY(chartTop);
+        yAxisLine.setWidth(CHART_AXIS_WEIGHT);
+        yAxisLine.setHeight(chartHeight);
+
+        xAxisLine.setX(chartLeft);
+        xAxisLine.setY(chartBottom);
+        xAxisLine.setWidth(chartWidth);
+        xAxisLine.setHeight(CHART_AXIS_WEIGHT);
+
+        // give the chart Y axis titles
+        for (int i = 0; i < yTickTexts.length; i++) {
+
+            int tickPercent = i * TICK_STEP_SIZE;
+
+            // rainfall value to be displayed on the axis
+            int tickInteger = (int) Math.round((visibleRainfallMax / 100) * tickPercent);
+
+            double tickYPos = chartBottom - ((chartHeight / 100) * tickPercent);
+
+            yTickIndicators[i].setX(chartLeft - 6);
+            yTickIndicators[i].setY(tickYPos);
+
+            // only create a new tick text when the value it shows changes
+            if (yTickValues[i] != tickInteger) {
+                yTickValues[i] = tickInteger;
+                yTickTexts[i].setText(String.valueOf(tickInteger));
+            }
+            yTickTexts[i].setX(chartLeft - TICK_MARGIN);
+            yTickTexts[i].setY(tickYPos);
+
+            // position a dotted guide line across the chart
+            double guideYPos = tickYPos + (CHART_GUIDE_WEIGHT / 2.0);
+            guideLines[i].setStartX(chartLeft);
+            guideLines[i].setStartY(guideYPos);
+            guideLines[i].setEndX(chartRight);
+            guideLines[i].setEndY(guideYPos);
+            guideLines[i].setVisible(tickInteger != 0);
+        }
+
+        // apply scaling division to contain data within the chart
+        double applyScalingDivision = Math.max(CHART_SCALE_ACCURACY,
+                Math.ceil(visibleRainfallMax / chartHeight / CHART_SCALE_ACCURACY) * CHART_SCALE_ACCURACY);
+
+        // position visible rainfall bars, reading the records through the cursor so no objects are created
+        cursor.reset(snapshot.getMonthlyColumns());
+        if (barRecordIndexes.length < lastRecordIndex - firstRecordIndex) {
+            barRecordIndexes = new int[lastRecordIndex - firstRecordIndex];
+        }
+
+        int barCount = 0;
+        for (int i = firstRecordIndex; i < lastRecordIndex; i++) {
+
+            // apply scaling division to record total rainfall, months without data shade the whole chart
+            cursor.moveTo(i);
+            double recordScaledTotalRain = cursor.hasData() ?
+                    cursor.getRainfallTotal() / applyScalingDivision : chartHeight;
+
+            double barXPos = chartLeft + ((slots[i] - viewStart) * pixelsPerMonth);
+
+            barRecordIndexes[barCount] = i;
+            Rectangle rainfallBar = acquire(bars, barGroup, barCount++, this::createBar);
+            rainfallBar.setX(barXPos);
+            rainfallBar.setY(chartBottom - recordScaledTotalRain);
+            rainfallBar.setWidth(pixelsPerMonth);
+            rainfallBar.setHeight(recordScaledTotalRain);
+            rainfallBar.setFill(getBarFill(cursor.hasData()));
+        }
+
+        hideFrom(bars, barCount);
+
+        layoutOverlays(chartLeft, chartBottom, pixelsPerMonth, applyScalingDivision, firstRecordIndex, lastRecordIndex);
+
+        layoutEvent.complete(barCount, getPooledNodeCount() - pooledNodes);
+        layoutTimes.record((System.nanoTime() - layoutStart) / 1e6);
+    }
+
+    /**
+     * Positions the enabled overlay lines through the centre of the visible
+     * bars. One record either side of the viewport is included so that the
+     * lines run to the edges of the chart area. The points are written to a
+     * reused buffer and then to the line elements of each path, so the lines
+     * are moved without boxing a value for every point.
+     *
+     * @param chartLeft left edge of the chart area
+     * @param chartBottom bottom edge of the chart area
+     * @param pixelsPerMonth how wide a month is in the chart area
+     * @param scalingDivision scaling division applied to rainfall values
+     * @param firstRecordIndex index of the first visible record
+     * @param lastRecordIndex index after the last visible record
+     */
+    private void layoutOverlays(double chartLeft, double chartBottom, double pixelsPerMonth, double scalingDivision,
+                                int firstRecordIndex, int lastRecordIndex) {
+
+        int from = Math.max(0, firstRecordIndex - 1);
+        int to = Math.min(slots.length, lastRecordIndex + 1);
+
+        RollingStatistics statistics = snapshot.getRollingStatistics();
+        if (overlayPoints.length < (to - from) * 2) {
+            overlayPoints = new double[(to - from) * 2];
+        }
+
+        for (int window = 0; window < movingAverageLines.length; window++) {
+
+            if (!movingAverageLines[window].isVisible()) {
+                continue;
+            }
+
+            int pointCount = 0;
+            for (int i = from; i < to; i++) {
+
+                double mean = statistics.getMean(window, i);
+                if (!Double.isNaN(mean)) {
+                    overlayPoints[pointCount * 2] = chartLeft + ((slots[i] + 0.5 - viewStart) * pixelsPerMonth);
+                    overlayPoints[(pointCount * 2) + 1] = chartBottom - (mean / scalingDivision);
+                    pointCount++;
+                }
+            }
+            setPathPoints(movingAverageLines[window], overlayPoints, pointCount);
+        }
+
+        if (climatologyLine.isVisible()) {
+
+            Climatology climatology = statistics.getClimatology();
+            cursor.reset(snapshot.getMonthlyColumns());
+
+            int pointCount = 0;
+            for (int i = from; i < to; i++) {
+                double mean = climatology.getMean(cursor.moveTo(i).getMonth());
+                overlayPoints[pointCount * 2] = chartLeft + ((slots[i] + 0.5 - viewStart) * pixelsPerMonth);
+                overlayPoints[(pointCount * 2) + 1] = chartBottom - (mean / scalingDivision);
+                pointCount++;
+            }
+            setPathPoints(climatologyLine, overlayPoints, pointCount);
+        }
+    }
+
+    /**
+     * Moves a path through the given points, reusing its line elements and
+     * only creating new ones when the path grows.
+     *
+     * @param path the path
+     * @param points x and y of each point
+     * @param pointCount number of points
+     */
+    private static void setPathPoints(Path path, double[] points, int pointCount) {
+
+        List<PathElement> elements = path.getElements();
+        if (elements.size() > pointCount) {
+            elements.subList(pointCount, elements.size()).clear();
+        }
+
+        for (int i = 0; i < pointCount; i++) {
+
+            double x = points[i * 2];
+            double y = points[(i * 2) + 1];
+
+            if (i == elements.size()) {
+                elements.add(i == 0 ? new MoveTo(x, y) : new LineTo(x, y));
+            } else if (i == 0) {
+                ((MoveTo) elements.get(i)).setX(x);
+                ((MoveTo) elements.get(i)).setY(y);
+            } else {
+                ((LineTo) elements.get(i)).setX(x);
+                ((LineTo) elements.get(i)).setY(y);
+            }
+        }
+    }
+
+    /**
+     * Zooms the chart in or out around the month slot under the mouse.
+     *
+     * @param delta the scroll delta, positive to zoom in
+     * @param x the x co-ordinate of the mouse
+     */
+    private void zoom(double delta, double x) {
+
+        if (station == null || delta == 0) {
+            return;
+        }
+
+        double chartWidth = getWidth() - (CHART_PADDING * 2);
+        double totalSlots = years.size() * MONTHS_IN_YEAR;
+        double anchorOffset = Math.max(0, Math.min(chartWidth, x - CHART_PADDING)) / chartWidth;
+        double anchorSlot = viewStart + (anchorOffset * viewSpan);
+
+        double newSpan = delta > 0 ? viewSpan * CHART_ZOOM_FACTOR : viewSpan / CHART_ZOOM_FACTOR;
+        newSpan = Math.max(Math.min(CHART_MIN_VIEW_MONTHS, totalSlots), Math.min(totalSlots, newSpan));
+
+        if (newSpan != viewSpan) {
+            viewSpan = newSpan;
+            viewStart = clampViewStart(anchorSlot - (anchorOffset * viewSpan));
+            invalidateLayout();
+        }
+    }
+
+    /**
+     * Pans the chart so that the month slot under the mouse when the drag
+     * started follows the mouse.
+     *
+     * @param x the x co-ordinate of the mouse
+     */
+    private void pan(double x) {
+
+        if (station == null) {
+            return;
+        }
+
+        double pixelsPerMonth = (getWidth() - (CHART_PADDING * 2)) / viewSpan;
+        double newStart = clampViewStart(dragOriginViewStart - ((x - dragOriginX) / pixelsPerMonth));
+
+        if (newStart != viewStart) {
+            viewStart = newStart;
+            invalidateLayout();
+        }
+    }
+
+    /**
+     * Clamps a view start so that the viewport stays within the history of
+     * the station.
+     *
+     * @param start the desired view start
+     * @return the clamped view start
+     */
+    private double clampViewStart(double start) {
+        double totalSlots = years.size() * MONTHS_IN_YEAR;
+        return Math.max(0, Math.min(totalSlots - viewSpan, start));
+    }
+
+    /**
+     * Marks the chart as stale so that it is laid out once on the next pulse,
+     * however many times this is called before then.
+     */
+    private void invalidateLayout() {
+        isLayoutStale = true;
+        requestLayout();
+    }
+
+    /**
+     * Returns the index of the first record whose month slot is at least the
+     * provided slot, or the number of records if there is none. Records are
+     * in chronological order, so the slots are sorted.
+     *
+     * @param slot the month slot
+     * @return index of the first record at or after the slot
+     */
+    private int findFirstSlotIndex(int slot) {
+
+        int low = 0;
+        int high = slots.length;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (slots[mid] < slot) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * @return the number of nodes created for the pools so far
+     */
+    private int getPooledNodeCount() {
+        return yearRectangles.size() + bars.size() + xTickTexts.size() + xTickIndicators.size();
+    }
+
+    /**
+     * Returns the pooled node at the given index and makes it visible,
+     * creating it and adding it to the group if the pool is too small.
+     *
+     * @param pool the node pool
+     * @param group the group the pooled nodes belong to
+     * @param index the index of the node in the pool
+     * @param factory creates a new node for the pool
+     * @return the pooled node
+     */
+    private static <T extends Node> T acquire(ArrayList<T> pool, Group group, int index, Supplier<T> factory) {
+
+        if (index == pool.size()) {
+            T node = factory.get();
+            pool.add(node);
+            group.getChildren().add(node);
+        }
+
+        T node = pool.get(index);
+        node.setVisible(true);
+        return node;
+    }
+
+    /**
+     * Hides the pooled nodes from the given index onwards.
+     *
+     * @param pool the node pool
+     * @param index the index of the first unused node
+     */
+    private static void hideFrom(ArrayList<? extends Node> pool, int index) {
+        for (int i = index; i < pool.size(); i++) {
+            pool.get(i).setVisible(false);
+        }
+    }
+
+    /**
+     * @return a new x axis tick indicator
+     */
+    private Rectangle createXTickIndicator() {
+        Rectangle tickIndicator = new Rectangle(1, 10);
+        tickIndicator.setFill(COLOUR_DARK_BLUE);
+        return tickIndicator;
+    }
+
+    /**
+     * @return a new x axis tick text
+     */
+    private Text createXTickText() {
+        Text tickText = new Text();
+        tickText.setFill(COLOUR_DARK_BLUE);
+        tickText.setFont(RainfallVisualiser.FONT_INTERFACE_NORMAL);
+        tickText.setRotate(45);
+        return tickText;
+    }
+
+    /**
+     * Creates a new rainfall bar that shows the statistics of the record
+     * it is laid out for while it is hovered.
+     *
+     * @return a new rainfall bar
+     */
+    private Rectangle createBar() {
+
+        Rectangle rainfallBar = new Rectangle();
+        rainfallBar.setFill(COLOUR_BLUE);
+
+        // bars are created as the pool grows, so the pool index of this bar is the current pool size
+        int barIndex = bars.size();
+
+        rainfallBar.setOnMouseEntered(mouseEvent -> {
+
+            hideStatisticsBox();
+
+            int recordIndex = barRecordIndexes[barIndex];
+            double anomaly = snapshot.getRollingStatistics().getAnomaly(recordIndex);
+
+            rainfallBar.setFill(COLOUR_DARK_BLUE);
+            hoveredStatBox = new StatisticsBox(this, snapshot.getRecordList().get(recordIndex), anomaly);
+            hoveredStatBox.show(mouseEvent.getX(), mouseEvent.getY());
+        });
+
+        rainfallBar.setOnMouseExited(mouseEvent -> {
+
+            hideStatisticsBox();
+            rainfallBar.setFill(getBarFill(cursor.reset(snapshot.getMonthlyColumns())
+                    .moveTo(barRecordIndexes[barIndex]).hasData()));
+        });
+
+        return rainfallBar;
+    }
+
+    /**
+     * Returns the fill of a bar that is not hovered, which tells dry months
+     * apart from months without data.
+     *
+     * @param hasData if the record of the bar has data
+     * @return the bar fill
+     */
+    private static Color getBarFill(boolean hasData) {
+        return hasData ? COLOUR_BLUE : COLOUR_NO_DATA;
+    }
+
+    /**
+     * Hides the statistics box of the hovered bar, if any.
+     */
+    private void hideStatisticsBox() {
+
+        if (hoveredStatBox != null) {
+            hoveredStatBox.hide();
+            hoveredStatBox = null;
+        }
+    }
+}
@@ -0,0 +1,432 @@
+import javafx.scene.Node;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.text.Text;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+import rainfall.MonthlyColumns;
+import rainfall.Station;
+import rainfall.StationSnapshot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The RainfallHeatmap class is a pane that shows the monthly total rainfall
+ * of a station as a grid of years by calendar months, so that seasonal
+ * patterns across the whole history can be seen at once.
+ * <p>
+ * The grid is written straight into a {@link WritableImage} with one pixel
+ * per cell, coloured through a precomputed lookup table in a single pass over
+ * the monthly columns, and scaled to the pane without smoothing. There is a
+ * node for the image rather than one per cell, so the cell under the mouse is
+ * found by arithmetic. Like {@link RainfallChart}, the heatmap draws from the
+ * snapshot of the station taken when it is set.
+ *
+ * @author Owen Herbert
+ */
+public class RainfallHeatmap extends Pane {
+
+    // utility constants
+    private static final int MONTHS_IN_YEAR = 12;
+    private static final int CHART_PADDING = 75; // padding in pixels of the heatmap area
+    private static final int YEAR_TICK_STEP = 10; // years between x axis ticks
+    private static final int COLOUR_TABLE_SIZE = 256; // number of colours in the lookup table
+    private static final int LEGEND_WIDTH = 160; // width in pixels of the colour legend
+    private static final int LEGEND_HEIGHT = 10; // height in pixels of the colour legend
+    private static final String[] MONTH_TEXTS = {
+            "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"
+    };
+
+    // web colours
+    private static final Color COLOUR_DARK_BLUE = Color.web("#004c6d");
+    private static final Color COLOUR_BLUE = Color.web("#008fb1");
+    private static final Color COLOUR_WHITE_BLUE = Color.web("#d8ffff");
+    private static final Color COLOUR_GREY = Color.web("#dcdcdc");
+    private static final int ARGB_NO_DATA = toArgb(Color.web("#a8a8a8")); // cells without readings
+
+    // colour of each step of monthly rainfall, from dry to the wettest month of the station
+    private static final int[] COLOUR_TABLE = createColourTable();
+
+    // heatmap components
+    private final Rectangle background = new Rectangle();
+    private final Text stationText = new Text();
+    private final ImageView gridView = new ImageView();
+    private final ImageView legendView = new ImageView(createLegendImage());
+    private final Text legendMinText = createAxisText("0 mm");
+    private final Text legendMaxText = createAxisText("");
+    private final Text[] monthTexts = new Text[MONTHS_IN_YEAR];
+    private final ArrayList<Text> yearTexts = new ArrayList<>(); // pooled x axis tick texts
+    private final Rectangle hoveredCell = new Rectangle(); // outline of the hovered cell
+
+    // time taken by each draw of the grid
+    private final Histogram drawTimes = MetricsRegistry.getDefault()
+            .histogram(MetricsPanel.METRIC_HEATMAP_DRAW_TIME, Histogram.MILLISECOND_BOUNDS);
+
+    // heatmap state
+    private Station station; // station displayed on the heatmap, null if the heatmap is clear
+    private StationSnapshot snapshot; // version of the station's records the heatmap is drawn from
+    private WritableImage gridImage; // one pixel per cell, null until a station is drawn
+    private int[] pixels = new int[0]; // argb of each cell, row by row, reused between draws
+    private int[] cellRecordIndexes = new int[0]; // record index of each cell, -1 if there is none
+    private int firstYear; // year of the first column
+    private int yearSpan; // number of columns, one per year from the first to the last
+    private int hoveredIndex = -1; // index of the hovered cell, -1 if none
+    private boolean isLayoutStale = true; // if the heatmap must be laid out on the next pulse
+    private double laidOutWidth; // width of the pane at the last layout
+    private double laidOutHeight; // height of the pane at the last layout
+    private StatisticsBox hoveredStatBox; // statistics box of the hovered cell, if any
+
+    /**
+     * Creates the heatmap components upon construction.
+     */
+    public RainfallHeatmap() {
+
+        background.setFill(COLOUR_GREY);
+        stationText.setFont(RainfallVisualiser.FONT_CHART_TITLE);
+
+        // cells are scaled up without blending into their neighbours
+        gridView.setSmooth(false);
+        gridView.setPreserveRatio(false);
+        legendView.setSmooth(false);
+        legendView.setPreserveRatio(false);
+        legendView.setFitWidth(LEGEND_WIDTH);
+        legendView.setFitHeight(LEGEND_HEIGHT);
+
+        for (int i = 0; i < monthTexts.length; i++) {
+            monthTexts[i] = createAxisText(MONTH_TEXTS[i]);
+        }
+
+        hoveredCell.setFill(null);
+        hoveredCell.setStroke(Color.TOMATO);
+        hoveredCell.setMouseTransparent(true);
+        hoveredCell.setVisible(false);
+
+        getChildren().addAll(background, stationText, gridView, legendView, legendMinText, legendMaxText,
+                hoveredCell);
+        getChildren().addAll(monthTexts);
+
+        // heatmap components are positioned by the heatmap, not by the pane
+        for (Node child : getChildren()) {
+            child.setManaged(false);
+        }
+
+        setOnMouseMoved(mouseEvent -> hover(mouseEvent.getX(), mouseEvent.getY()));
+        setOnMouseExited(mouseEvent -> hideHoveredCell());
+
+        setStation(null);
+    }
+
+    /**
+     * Sets the station displayed on the heatmap.
+     *
+     * @param station the station to display, or null to clear the heatmap
+     */
+    public void setStation(Station station) {
+
+        hideHoveredCell();
+
+        this.station = station;
+        this.snapshot = station == null ? null : station.getSnapshot();
+
+        for (Node child : getChildren()) {
+            child.setVisible(station != null && child != hoveredCell);
+        }
+
+        if (station != null) {
+            stationText.setText(station.getName());
+            draw();
+        }
+
+        invalidateLayout();
+    }
+
+    /**
+     * Redraws the heatmap from the latest snapshot of its station, such as
+     * one published by a load in progress.
+     */
+    public void refresh() {
+
+        if (station == null || station.getSnapshot() == snapshot) {
+            return;
+        }
+
+        hideHoveredCell();
+        snapshot = station.getSnapshot();
+        draw();
+        invalidateLayout();
+    }
+
+    /**
+     * Writes every cell of the grid into the image in one pass over the
+     * monthly columns. Records are in chronological order, so the first and
+     * last records give the span of years without a separate pass.
+     */
+    private void draw() {
+
+        RenderPhaseEvent drawEvent = RenderPhaseEvent.begin("heatmap", station.getName());
+        long drawStart = System.nanoTime();
+
+        MonthlyColumns columns = snapshot.getMonthlyColumns();
+        int size = columns.size();
+
+        firstYear = size == 0 ? 0 : columns.getYear(0);
+        yearSpan = size == 0 ? 0 : columns.getYear(size - 1) - firstYear + 1;
+        int cellCount = yearSpan * MONTHS_IN_YEAR;
+
+        if (pixels.length < cellCount) {
+            pixels = new int[cellCount];
+            cellRecordIndexes = new int[cellCount];
+        }
+        Arrays.fill(pixels, 0, cellCount, ARGB_NO_DATA);
+        Arrays.fill(cellRecordIndexes, 0, cellCount, -1);
+
+        // scale totals onto the colour table so the wettest month takes the last colour
+        double rainfallMax = snapshot.getRainfallMax();
+        double colourScale = rainfallMax > 0 ? (COLOUR_TABLE_SIZE - 1) / rainfallMax : 0;
+
+        for (int i = 0; i < size; i++) {
+
+            // records out of chronological order have no column and are left out
+            int column = columns.getYear(i) - firstYear;
+            if (column < 0 || column >= yearSpan) {
+                continue;
+            }
+
+            int cell = ((columns.getMonth(i) - 1) * yearSpan) + column;
+            cellRecordIndexes[cell] = i;
+
+            if (columns.getObservedDays(i) != 0) {
+                int colourIndex = (int) (columns.getTotal(i) * colourScale);
+                pixels[cell] = COLOUR_TABLE[Math.max(0, Math.min(COLOUR_TABLE_SIZE - 1, colourIndex))];
+            }
+        }
+
+        if (yearSpan == 0) {
+            gridImage = null;
+        } else {
+
+            if (gridImage == null || gridImage.getWidth() != yearSpan) {
+                gridImage = new WritableImage(yearSpan, MONTHS_IN_YEAR);
+            }
+            gridImage.getPixelWriter().setPixels(0, 0, yearSpan, MONTHS_IN_YEAR,
+                    PixelFormat.getIntArgbInstance(), pixels, 0, yearSpan);
+        }
+
+        gridView.setImage(gridImage);
+        legendMaxText.setText(String.format("%1.0f mm", Math.max(rainfallMax, 0)));
+
+        drawTimes.record((System.nanoTime() - drawStart) / 1e6);
+        drawEvent.complete(size, 0);
+    }
+
+    /**
+     * Positions the heatmap components for the current size. The grid image
+     * is scaled rather than redrawn.
+     */
+    @Override
+    protected void layoutChildren() {
+
+        double paneWidth = getWidth();
+        double paneHeight = getHeight();
+        double gridWidth = paneWidth - (CHART_PADDING * 2);
+        double gridHeight = paneHeight - (CHART_PADDING * 2);
+
+        // skip layouts that would not change anything, such as those caused by the statistics box
+        if (!isLayoutStale && paneWidth == laidOutWidth && paneHeight == laidOutHeight) {
+            return;
+        }
+
+        isLayoutStale = false;
+        laidOutWidth = paneWidth;
+        laidOutHeight = paneHeight;
+        hideHoveredCell();
+
+        background.setWidth(paneWidth);
+        background.setHeight(paneHeight);
+
+        if (station == null || gridWidth <= 0 || gridHeight <= 0) {
+            return;
+        }
+
+        stationText.setX(CHART_PADDING);
+        stationText.setY(CHART_PADDING - 30);
+
+        // position the colour legend above the top right corner of the grid
+        double legendX = paneWidth - CHART_PADDING - LEGEND_WIDTH;
+        legendView.setX(legendX);
+        legendView.setY(CHART_PADDING - 24);
+        legendMinText.setX(legendX - legendMinText.getLayoutBounds().getWidth() - 6);
+        legendMinText.setY(CHART_PADDING - 15);
+        legendMaxText.setX(legendX + LEGEND_WIDTH + 6);
+        legendMaxText.setY(CHART_PADDING - 15);
+
+        gridView.setX(CHART_PADDING);
+        gridView.setY(CHART_PADDING);
+        gridView.setFitWidth(gridWidth);
+        gridView.setFitHeight(gridHeight);
+
+        // month titles centred on each row
+        double cellHeight = gridHeight / MONTHS_IN_YEAR;
+        for (int i = 0; i < monthTexts.length; i++) {
+            monthTexts[i].setX(CHART_PADDING - 35);
+            monthTexts[i].setY(CHART_PADDING + (cellHeight * (i + 0.5)) + 4);
+        }
+
+        // year ticks on each whole step of years, centred on their column
+        int yearTextCount = 0;
+        if (yearSpan > 0) {
+
+            double cellWidth = gridWidth / yearSpan;
+            int firstTickYear = Math.floorDiv(firstYear + YEAR_TICK_STEP - 1, YEAR_TICK_STEP) * YEAR_TICK_STEP;
+
+            for (int year = firstTickYear; year < firstYear + yearSpan; year += YEAR_TICK_STEP) {
+
+                if (yearTextCount == yearTexts.size()) {
+                    Text yearText = createAxisText("");
+                    yearTexts.add(yearText);
+                    getChildren().add(yearText);
+                }
+
+                Text yearText = yearTexts.get(yearTextCount++);
+                yearText.setText(String.valueOf(year));
+                yearText.setX(CHART_PADDING + (cellWidth * (year - firstYear + 0.5)) -
+                        (yearText.getLayoutBounds().getWidth() / 2));
+                yearText.setY(paneHeight - CHART_PADDING + 20);
+                yearText.setVisible(true);
+            }
+        }
+
+        for (int i = yearTextCount; i < yearTexts.size(); i++) {
+            yearTexts.get(i).setVisible(false);
+        }
+    }
+
+    /**
+     * Marks the heatmap as stale so that it is laid out once on the next
+     * pulse.
+     */
+    private void invalidateLayout() {
+        isLayoutStale = true;
+        requestLayout();
+    }
+
+    /**
+     * Outlines the cell under the mouse and shows the statistics of its
+     * record. The cell is found from the position alone.
+     *
+     * @param x the x co-ordinate of the mouse
+     * @param y the y co-ordinate of the mouse
+     */
+    private void hover(double x, double y) {
+
+        double gridWidth = getWidth() - (CHART_PADDING * 2);
+        double gridHeight = getHeight() - (CHART_PADDING * 2);
+
+        if (station == null || yearSpan == 0 || gridWidth <= 0 || gridHeight <= 0) {
+            return;
+        }
+
+        double cellWidth = gridWidth / yearSpan;
+        double cellHeight = gridHeight / MONTHS_IN_YEAR;
+        int column = (int) Math.floor((x - CHART_PADDING) / cellWidth);
+        int row = (int) Math.floor((y - CHART_PADDING) / cellHeight);
+
+        int cell = column >= 0 && column < yearSpan && row >= 0 && row < MONTHS_IN_YEAR ?
+                (row * yearSpan) + column : -1;
+
+        if (cell == hoveredIndex) {
+            return;
+        }
+
+        hideHoveredCell();
+        if (cell == -1 || cellRecordIndexes[cell] == -1) {
+            return;
+        }
+
+        hoveredIndex = cell;
+        hoveredCell.setX(CHART_PADDING + (column * cellWidth));
+        hoveredCell.setY(CHART_PADDING + (row * cellHeight));
+        hoveredCell.setWidth(cellWidth);
+        hoveredCell.setHeight(cellHeight);
+        hoveredCell.setVisible(true);
+
+        int recordIndex = cellRecordIndexes[cell];
+        double anomaly = snapshot.getRollingStatistics().getAnomaly(recordIndex);
+
+        hoveredStatBox = new StatisticsBox(this, snapshot.getRecordList().get(recordIndex), anomaly);
+        hoveredStatBox.show(x, y);
+    }
+
+    /**
+     * Hides the outline and statistics box of the hovered cell, if any.
+     */
+    private void hideHoveredCell() {
+
+        hoveredIndex = -1;
+        hoveredCell.setVisible(false);
+
+        if (hoveredStatBox != null) {
+            hoveredStatBox.hide();
+            hoveredStatBox = null;
+        }
+    }
+
+    /**
+     * @param text the text
+     * @return a new axis text
+     */
+    private static Text createAxisText(String text) {
+        Text axisText = new Text(text);
+        axisText.setFill(COLOUR_DARK_BLUE);
+        axisText.setFont(RainfallVisualiser.FONT_INTERFACE_NORMAL);
+        axisText.setManaged(false);
+        return axisText;
+    }
+
+    /**
+     * Creates the colour lookup table, running from white blue for dry
+     * months through blue to dark blue for the wettest.
+     *
+     * @return argb of each colour step
+     */
+    private static int[] createColourTable() {
+
+        int[] table = new int[COLOUR_TABLE_SIZE];
+        int middle = (COLOUR_TABLE_SIZE - 1) / 2;
+
+        for (int i = 0; i < table.length; i++) {
+            Color colour = i <= middle ?
+                    COLOUR_WHITE_BLUE.interpolate(COLOUR_BLUE, (double) i / middle) :
+                    COLOUR_BLUE.interpolate(COLOUR_DARK_BLUE, (double) (i - middle) / (table.length - 1 - middle));
+            table[i] = toArgb(colour);
+        }
+
+        return table;
+    }
+
+    /**
+     * @return an image of the colour lookup table, one pixel per colour
+     */
+    private static WritableImage createLegendImage() {
+        WritableImage legendImage = new WritableImage(COLOUR_TABLE_SIZE, 1);
+        legendImage.getPixelWriter().setPixels(0, 0, COLOUR_TABLE_SIZE, 1,
+                PixelFormat.getIntArgbInstance(), COLOUR_TABLE, 0, COLOUR_TABLE_SIZE);
+        return legendImage;
+    }
+
+    /**
+     * @param colour the colour
+     * @return the colour packed as argb
+     */
+    private static int toArgb(Color colour) {
+        return ((int) Math.round(colour.getOpacity() * 255) << 24) |
+                ((int) Math.round(colour.getRed() * 255) << 16) |
+                ((int) Math.round(colour.getGreen() * 255) << 8) |
+                (int) Math.round(colour.getBlue() * 255);
+    }
+}
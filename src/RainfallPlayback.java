@@ -0,0 +1,340 @@
+import javafx.animation.AnimationTimer;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.text.TextAlignment;
+import rainfall.MonthlyColumns;
+import rainfall.Station;
+import rainfall.StationSnapshot;
+
+import java.util.Arrays;
+
+/**
+ * The RainfallPlayback class is a pane that animates the history of a station
+ * year by year for presentations. Each year its 12 monthly bars grow from the
+ * previous year's, and a bar beneath them accumulates the running total.
+ * <p>
+ * Everything a frame shows, including its text, is computed once when the
+ * station is set, so that an {@link AnimationTimer} can draw every frame
+ * without allocating. Frames are drawn into the hidden one of two canvases,
+ * which is then swapped with the shown one, so a frame is never seen half
+ * drawn.
+ *
+ * @author Owen Herbert
+ */
+public class RainfallPlayback extends Pane {
+
+    // utility constants
+    private static final int MONTHS_IN_YEAR = 12;
+    private static final int CHART_PADDING = 75; // padding in pixels of the playback area
+    private static final int TOTAL_BAR_HEIGHT = 14; // height in pixels of the running total bar
+    private static final int TICK_COUNT = 5; // number of y axis ticks above zero
+    private static final long YEAR_NANOS = 600_000_000L; // time each year is shown for
+    private static final double TRANSITION_SHARE = 0.5; // share of each year spent growing the bars
+    private static final String[] MONTH_TEXTS = {
+            "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"
+    };
+
+    // web colours
+    private static final Color COLOUR_DARK_BLUE = Color.web("#004c6d");
+    private static final Color COLOUR_BLUE = Color.web("#008fb1");
+    private static final Color COLOUR_LIGHT_BLUE = Color.web("#b1ffff");
+    private static final Color COLOUR_GREY = Color.web("#dcdcdc");
+    private static final Color COLOUR_NO_DATA = Color.web("#808080", 0.35);
+
+    // double buffered canvases, frames are drawn into the back canvas and then swapped to the front
+    private Canvas frontCanvas = new Canvas();
+    private Canvas backCanvas = new Canvas();
+
+    // frame data, computed when the station is set
+    private Station station; // station being played, null if the playback is clear
+    private int firstYear; // first year of the playback
+    private int yearSpan; // number of years, one per year from the first to the last
+    private double[] monthTotals = new double[0]; // total of each month, year by year, NaN without data
+    private double[] runningTotals = new double[0]; // running total at the end of each year
+    private String[] yearTexts = new String[0]; // title of each year
+    private String[] runningTotalTexts = new String[0]; // running total text at the end of each year
+    private final String[] tickTexts = new String[TICK_COUNT + 1]; // y axis tick texts
+    private String stationText = ""; // name of the station
+    private double rainfallMax; // largest monthly total, the top of the y axis
+    private double rainfallTotal; // total of every month, the end of the running total bar
+
+    // playback state
+    private long playStart; // time the playback started, 0 until the first frame
+    private double drawnPosition = -1; // playback position of the frame on the front canvas, -1 if none
+
+    private final AnimationTimer timer = new AnimationTimer() {
+
+        @Override
+        public void handle(long now) {
+
+            if (playStart == 0) {
+                playStart = now;
+            }
+
+            // hold the last year once the playback reaches the end
+            double position = (double) (now - playStart) / YEAR_NANOS;
+            if (position >= yearSpan) {
+                position = yearSpan;
+                stop();
+            }
+
+            drawFrame(position);
+        }
+    };
+
+    /**
+     * Adds the canvases to the pane upon construction.
+     */
+    public RainfallPlayback() {
+
+        frontCanvas.setManaged(false);
+        backCanvas.setManaged(false);
+        backCanvas.setVisible(false);
+        getChildren().addAll(backCanvas, frontCanvas);
+
+        // playback restarts when clicked
+        setOnMouseClicked(mouseEvent -> play());
+    }
+
+    /**
+     * Sets the station to play and computes the data of every frame. A
+     * playback in progress is stopped.
+     *
+     * @param station the station to play, or null to clear the playback
+     */
+    public void setStation(Station station) {
+
+        stop();
+        this.station = station;
+
+        yearSpan = 0;
+        if (station != null) {
+            prepareFrames(station.getSnapshot());
+        }
+
+        drawnPosition = -1;
+        drawFrame(0);
+    }
+
+    /**
+     * Plays the station from its first year.
+     */
+    public void play() {
+
+        if (station == null || yearSpan == 0) {
+            return;
+        }
+
+        timer.stop();
+        playStart = 0;
+        timer.start();
+    }
+
+    /**
+     * Stops the playback, leaving the current frame shown.
+     */
+    public void stop() {
+        timer.stop();
+    }
+
+    /**
+     * Computes the monthly totals, running totals and texts of every year in
+     * one pass over the monthly columns.
+     *
+     * @param snapshot the snapshot of the station
+     */
+    private void prepareFrames(StationSnapshot snapshot) {
+
+        MonthlyColumns columns = snapshot.getMonthlyColumns();
+        int size = columns.size();
+        if (size == 0) {
+            return;
+        }
+
+        firstYear = columns.getYear(0);
+        yearSpan = columns.getYear(size - 1) - firstYear + 1;
+
+        monthTotals = new double[yearSpan * MONTHS_IN_YEAR];
+        Arrays.fill(monthTotals, Double.NaN);
+
+        for (int i = 0; i < size; i++) {
+
+            // records out of chronological order have no year in the playback and are left out
+            int yearIndex = columns.getYear(i) - firstYear;
+            if (yearIndex >= 0 && yearIndex < yearSpan && columns.getObservedDays(i) != 0) {
+                monthTotals[(yearIndex * MONTHS_IN_YEAR) + columns.getMonth(i) - 1] = columns.getTotal(i);
+            }
+        }
+
+        runningTotals = new double[yearSpan];
+        yearTexts = new String[yearSpan];
+        runningTotalTexts = new String[yearSpan];
+        rainfallMax = 0;
+
+        double runningTotal = 0;
+        for (int i = 0; i < yearSpan; i++) {
+
+            for (int month = 0; month < MONTHS_IN_YEAR; month++) {
+                double total = monthTotals[(i * MONTHS_IN_YEAR) + month];
+                if (!Double.isNaN(total)) {
+                    runningTotal += total;
+                    rainfallMax = Math.max(rainfallMax, total);
+                }
+            }
+
+            runningTotals[i] = runningTotal;
+            yearTexts[i] = String.valueOf(firstYear + i);
+            runningTotalTexts[i] = String.format("Total %d - %d: %1.0f mm", firstYear, firstYear + i, runningTotal);
+        }
+
+        rainfallTotal = runningTotal;
+        stationText = station.getName();
+
+        for (int i = 0; i < tickTexts.length; i++) {
+            tickTexts[i] = String.valueOf(Math.round(rainfallMax * i / TICK_COUNT));
+        }
+    }
+
+    /**
+     * Sizes the canvases to the pane and redraws the current frame.
+     */
+    @Override
+    protected void layoutChildren() {
+
+        if (frontCanvas.getWidth() == getWidth() && frontCanvas.getHeight() == getHeight()) {
+            return;
+        }
+
+        frontCanvas.setWidth(getWidth());
+        frontCanvas.setHeight(getHeight());
+        backCanvas.setWidth(getWidth());
+        backCanvas.setHeight(getHeight());
+
+        double position = Math.max(drawnPosition, 0);
+        drawnPosition = -1;
+        drawFrame(position);
+    }
+
+    /**
+     * Draws the frame at a playback position into the back canvas and swaps
+     * it to the front. Frames that would not change, such as while a year is
+     * held, are skipped.
+     *
+     * @param position playback position in years from the first year
+     */
+    private void drawFrame(double position) {
+
+        // frames only change while the bars are growing
+        int yearIndex = Math.min(Math.max(yearSpan - 1, 0), (int) position);
+        double transition = Math.min(1, (position - yearIndex) / TRANSITION_SHARE);
+        double framePosition = yearIndex + transition;
+
+        if (framePosition == drawnPosition) {
+            return;
+        }
+        drawnPosition = framePosition;
+
+        double width = backCanvas.getWidth();
+        double height = backCanvas.getHeight();
+        double chartWidth = width - (CHART_PADDING * 2);
+        double chartHeight = height - (CHART_PADDING * 2) - (TOTAL_BAR_HEIGHT * 3);
+
+        GraphicsContext graphics = backCanvas.getGraphicsContext2D();
+        graphics.setFill(COLOUR_GREY);
+        graphics.fillRect(0, 0, width, height);
+
+        if (station != null && yearSpan > 0 && chartWidth > 0 && chartHeight > 0) {
+            drawYear(graphics, yearIndex, transition, chartWidth, chartHeight);
+        }
+
+        // swap the finished frame to the front
+        Canvas shownCanvas = backCanvas;
+        backCanvas = frontCanvas;
+        frontCanvas = shownCanvas;
+        frontCanvas.setVisible(true);
+        backCanvas.setVisible(false);
+    }
+
+    /**
+     * Draws the bars of a year part way through growing from the previous
+     * year, and the running total up to that point.
+     *
+     * @param graphics graphics of the back canvas
+     * @param yearIndex index of the year from the first year
+     * @param transition how far the bars have grown from the previous year, 0 to 1
+     * @param chartWidth width of the chart area
+     * @param chartHeight height of the chart area
+     */
+    private void drawYear(GraphicsContext graphics, int yearIndex, double transition,
+                          double chartWidth, double chartHeight) {
+
+        double chartBottom = CHART_PADDING + chartHeight;
+        double barWidth = chartWidth / MONTHS_IN_YEAR;
+        double scale = rainfallMax > 0 ? chartHeight / rainfallMax : 0;
+
+        graphics.setFont(RainfallVisualiser.FONT_CHART_TITLE);
+        graphics.setTextAlign(TextAlignment.LEFT);
+        graphics.setFill(COLOUR_DARK_BLUE);
+        graphics.fillText(stationText, CHART_PADDING, CHART_PADDING - 30);
+
+        graphics.setTextAlign(TextAlignment.RIGHT);
+        graphics.fillText(yearTexts[yearIndex], CHART_PADDING + chartWidth, CHART_PADDING - 30);
+
+        // y axis ticks and guides
+        graphics.setFont(RainfallVisualiser.FONT_INTERFACE_NORMAL);
+        graphics.setStroke(COLOUR_LIGHT_BLUE);
+        graphics.setLineWidth(1);
+        for (int i = 0; i < tickTexts.length; i++) {
+            double tickY = chartBottom - (chartHeight * i / TICK_COUNT);
+            graphics.fillText(tickTexts[i], CHART_PADDING - 10, tickY + 4);
+            graphics.strokeLine(CHART_PADDING, tickY, CHART_PADDING + chartWidth, tickY);
+        }
+
+        // monthly bars, growing from the previous year's heights
+        graphics.setTextAlign(TextAlignment.CENTER);
+        for (int month = 0; month < MONTHS_IN_YEAR; month++) {
+
+            double total = monthTotals[(yearIndex * MONTHS_IN_YEAR) + month];
+            double previousTotal = yearIndex == 0 ? 0 : monthTotals[((yearIndex - 1) * MONTHS_IN_YEAR) + month];
+            double from = Double.isNaN(previousTotal) ? 0 : previousTotal * scale;
+            double to = Double.isNaN(total) ? 0 : total * scale;
+            double barHeight = from + ((to - from) * transition);
+            double barX = CHART_PADDING + (month * barWidth);
+
+            // months without data shade the whole chart once the year is shown
+            if (Double.isNaN(total) && transition == 1) {
+                graphics.setFill(COLOUR_NO_DATA);
+                graphics.fillRect(barX, CHART_PADDING, barWidth, chartHeight);
+            }
+
+            graphics.setFill(COLOUR_BLUE);
+            graphics.fillRect(barX + 1, chartBottom - barHeight, barWidth - 2, barHeight);
+
+            graphics.setFill(COLOUR_DARK_BLUE);
+            graphics.fillText(MONTH_TEXTS[month], barX + (barWidth / 2), chartBottom + 16);
+        }
+
+        graphics.fillRect(CHART_PADDING, chartBottom, chartWidth, 2);
+
+        // running total bar, growing with the bars of the year
+        double previousRunningTotal = yearIndex == 0 ? 0 : runningTotals[yearIndex - 1];
+        double runningTotal = previousRunningTotal + ((runningTotals[yearIndex] - previousRunningTotal) * transition);
+        double totalBarY = chartBottom + (TOTAL_BAR_HEIGHT * 2);
+
+        graphics.setFill(COLOUR_LIGHT_BLUE);
+        graphics.fillRect(CHART_PADDING, totalBarY, chartWidth, TOTAL_BAR_HEIGHT);
+        graphics.setFill(COLOUR_DARK_BLUE);
+        graphics.fillRect(CHART_PADDING, totalBarY,
+                rainfallTotal > 0 ? chartWidth * runningTotal / rainfallTotal : 0, TOTAL_BAR_HEIGHT);
+
+        // the running total text shows the last year whose bars have finished growing
+        int totalYearIndex = transition == 1 ? yearIndex : yearIndex - 1;
+        if (totalYearIndex >= 0) {
+            graphics.setTextAlign(TextAlignment.LEFT);
+            graphics.fillText(runningTotalTexts[totalYearIndex], CHART_PADDING,
+                    totalBarY + TOTAL_BAR_HEIGHT + 16);
+        }
+    }
+}
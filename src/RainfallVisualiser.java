@@ -1,51 +1,47 @@
+import javafx.animation.PauseTransition;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
-import javafx.geometry.Point2D;
+import javafx.geometry.Side;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.effect.BlendMode;
 import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Circle;
-import javafx.scene.shape.Rectangle;
 import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
-import javafx.scene.text.Text;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 import rainfall.Loader;
 import rainfall.Record;
+import rainfall.RollingStatistics;
 import rainfall.Station;
+import rainfall.StationCatalog;
+import rainfall.StationNameIndex;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class RainfallVisualiser extends Application {
 
     // utility constants
     private static final int GUI_WIDTH = 1200;
     private static final int GUI_HEIGHT = 600;
-    private static final int CHART_WIDTH = 1000; // width in pixels of the chart
-    private static final int CHART_HEIGHT = 500; // height in pixels of the chart
     private static final int RECORD_LIST_WIDTH = 180; // width in pixels of the record list view
-    private static final int MONTHS_IN_YEAR = 12; 
-    private static final int CHART_PADDING = 75; // padding in pixels of the chart area
-    private static final int CHART_AXIS_WEIGHT = 4; // width in pixels of axis lines
-    private static final int CHART_GUIDE_WEIGHT = 1; // height and width in pixels of chart guides
-    private static final int TICK_STEP_SIZE = 10; // step size for y axis ticks
-    private static final int TICK_MARGIN = 35; // margin in pixels for y axis ticks
-    private static final double CHART_SCALE_ACCURACY = 0.01; // accuracy for chart data scaling
     private static final String STATUS_PREFIX = "Status: "; // prefix for status label messages
-    private static final String X_AXIS_TEXT = "Year:"; // text for x axis
-    private static final String Y_AXIS_TEXT = "Rainfall (mm):"; // text for y axis
+    private static final String HTTP_PORT_ARGUMENT = "--http-port="; // argument that enables the station server
+    private static final int MAX_SUGGESTIONS = 10; // most station names suggested at once
+    private static final Duration CATALOG_SCAN_DELAY = Duration.millis(300); // typing pause before a directory scan
 
     // web colours
-    private static final Color COLOUR_DARK_BLUE = Color.web("#004c6d");
-    private static final Color COLOUR_BLUE = Color.web("#008fb1");
-    private static final Color COLOUR_LIGHT_BLUE = Color.web("#b1ffff");
-    private static final Color COLOUR_WHITE_BLUE = Color.web("#d8ffff");
-    private static final Color COLOUR_GREY = Color.web("#dcdcdc");
     private static final Color COLOUR_GREEN = Color.web("#99cc00");
     private static final Color COLOUR_RED = Color.web("#cc3300");
 
@@ -54,13 +50,17 @@ public class RainfallVisualiser extends Application {
     public static final Font FONT_INTERFACE_NORMAL = Font.font("Consolas", FontWeight.NORMAL, 11);
 
     // javafx components
-    private Pane chartPane; // node for adding chart elements
+    private RainfallChart chart; // chart of the loaded station
+    private RainfallHeatmap heatmap; // year by month heatmap of the loaded station, shown instead of the chart
+    private RainfallPlayback playback; // year by year playback of the loaded station, shown instead of the chart
+    private MetricsPanel metricsPanel; // optional panel of load and render metrics
     private Label statusLabel; // label to display interface status
     private Menu stationMenu; // menu to display stations
     private Circle statusCircle; // visual aid to display interface status
     private TextField directoryTextField; // directory user input text field
     private TextField stationTextField; // station user input text field
     private ListView<String> recordsListView; // list for for displaying station records
+    private ContextMenu suggestionsMenu; // station name suggestions below the station text field
 
     // chart themes
     private final HashMap<String, BlendMode> chartThemes = new HashMap<>() {{
@@ -68,7 +68,26 @@ public class RainfallVisualiser extends Application {
        put("Light", BlendMode.MULTIPLY);
     }};
 
-    private static final HashMap<String, Station> loadedStations = new HashMap<>(); // loaded stations
+    // loaded stations, read concurrently by the station server
+    private static final ConcurrentHashMap<String, Station> loadedStations = new ConcurrentHashMap<>();
+
+    private final Session session = Session.load(); // stations to restore and save
+    private final ExecutorService loaderExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "station-loader");
+        thread.setDaemon(true);
+        return thread;
+    }); // loads stations off the javafx thread, session stations first with the visible station leading
+    private final AtomicBoolean isPartialRefreshPending = new AtomicBoolean(); // if a partial station is queued
+    private Station loadingStation; // station shown on the chart while it loads, null if none
+    private final ExecutorService catalogExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "station-catalog");
+        thread.setDaemon(true);
+        return thread;
+    }); // scans directories for station names off the javafx thread
+    private PauseTransition catalogScanDelay; // scans the directory once typing in it pauses
+    private StationNameIndex stationNameIndex; // stations of the directory, null until it is scanned
+    private boolean isApplyingSuggestion; // if the station text is being set from a suggestion
+    private StationServer stationServer; // serves loaded stations as json, null unless enabled
 
     @Override
     public void start(Stage stage) {
@@ -77,7 +96,9 @@ public class RainfallVisualiser extends Application {
         Scene scene = new Scene(root);
 
         // BorderPane center components
-        chartPane = new Pane();
+        chart = new RainfallChart();
+        heatmap = new RainfallHeatmap();
+        playback = new RainfallPlayback();
 
         // BorderPane bottom components
         HBox statusBox = new HBox();
@@ -97,6 +118,8 @@ public class RainfallVisualiser extends Application {
         Menu fileMenu = new Menu("File");
         stationMenu = new Menu("Loaded Stations");
         Menu themeMenu = new Menu("Themes");
+        Menu overlayMenu = new Menu("Overlays");
+        Menu viewMenu = new Menu("View");
 
         MenuItem quitMenuItem = new MenuItem("Quit");
         quitMenuItem.setOnAction(action -> Platform.exit());
@@ -109,11 +132,48 @@ public class RainfallVisualiser extends Application {
         // add menu item for each theme
         for (Map.Entry<String, BlendMode> theme : chartThemes.entrySet()) {
             MenuItem themeMenuItem = new MenuItem(theme.getKey());
-            themeMenuItem.setOnAction(action -> chartPane.setBlendMode(theme.getValue()));
+            themeMenuItem.setOnAction(action -> {
+                chart.setBlendMode(theme.getValue());
+                heatmap.setBlendMode(theme.getValue());
+                playback.setBlendMode(theme.getValue());
+            });
             themeMenu.getItems().add(themeMenuItem);
         }
 
-        menuBar.getMenus().addAll(fileMenu, themeMenu, stationMenu);
+        // add check menu item for each moving average and the climatology
+        for (int i = 0; i < RollingStatistics.DEFAULT_WINDOW_SIZES.length; i++) {
+            int window = i;
+            CheckMenuItem movingAverageMenuItem = new CheckMenuItem(
+                    RollingStatistics.DEFAULT_WINDOW_SIZES[i] + " Month Average");
+            movingAverageMenuItem.setOnAction(action ->
+                    chart.setMovingAverageVisible(window, movingAverageMenuItem.isSelected()));
+            overlayMenu.getItems().add(movingAverageMenuItem);
+        }
+
+        CheckMenuItem climatologyMenuItem = new CheckMenuItem("Long-Term Monthly Mean");
+        climatologyMenuItem.setOnAction(action -> chart.setClimatologyVisible(climatologyMenuItem.isSelected()));
+        overlayMenu.getItems().add(climatologyMenuItem);
+
+        // metrics panel is hidden until toggled on
+        metricsPanel = new MetricsPanel(loadedStations.values());
+        metricsPanel.setVisible(false);
+
+        CheckMenuItem metricsMenuItem = new CheckMenuItem("Metrics Panel");
+        metricsMenuItem.setOnAction(action -> {
+            metricsPanel.setVisible(metricsMenuItem.isSelected());
+            root.setLeft(metricsMenuItem.isSelected() ? metricsPanel : null);
+        });
+
+        CheckMenuItem heatmapMenuItem = new CheckMenuItem("Year by Month Heatmap");
+        CheckMenuItem playbackMenuItem = new CheckMenuItem("Year by Year Playback");
+        heatmapMenuItem.setOnAction(action ->
+                showStationView(root, heatmapMenuItem.isSelected(), playbackMenuItem.isSelected()));
+        playbackMenuItem.setOnAction(action ->
+                showStationView(root, heatmapMenuItem.isSelected(), playbackMenuItem.isSelected()));
+
+        viewMenu.getItems().addAll(metricsMenuItem, heatmapMenuItem, playbackMenuItem);
+
+        menuBar.getMenus().addAll(fileMenu, themeMenu, overlayMenu, viewMenu, stationMenu);
 
         // station loader HBox
         HBox stationLoaderHBox = new HBox(20);
@@ -125,6 +185,18 @@ public class RainfallVisualiser extends Application {
         stationTextField = new TextField();
         stationTextField.setPromptText("Station");
 
+        // suggest stations of the directory as a station name is typed
+        suggestionsMenu = new ContextMenu();
+        catalogScanDelay = new PauseTransition(CATALOG_SCAN_DELAY);
+        catalogScanDelay.setOnFinished(event -> scanDirectory(directoryTextField.getText()));
+
+        directoryTextField.textProperty().addListener((observable, oldText, newText) -> {
+            stationNameIndex = null;
+            suggestionsMenu.hide();
+            catalogScanDelay.playFromStart();
+        });
+        stationTextField.textProperty().addListener((observable, oldText, newText) -> showSuggestions(newText));
+
         Button loadButton = new Button("Load");
         loadButton.setOnMouseClicked(mouseEvent -> loadStation());
 
@@ -142,226 +214,377 @@ public class RainfallVisualiser extends Application {
         root.setTop(topPanelVBox);
         root.setBottom(statusBox);
         root.setRight(recordsListView);
-        root.setCenter(chartPane);
+        root.setCenter(chart);
 
         stage.setScene(scene);
         stage.setTitle("Rainfall Visualiser");
         stage.setWidth(GUI_WIDTH);
         stage.setHeight(GUI_HEIGHT);
-        stage.setResizable(false);
         stage.show();
 
         updateStatus("ready...", true);
+        startStationServer();
+        restoreSession();
+    }
+
+    @Override
+    public void stop() {
+
+        loaderExecutor.shutdownNow();
+        catalogExecutor.shutdownNow();
+
+        if (stationServer != null) {
+            stationServer.stop();
+        }
+
+        for (Station station : loadedStations.values()) {
+            station.release();
+        }
+
+        try {
+            session.save();
+        } catch (IOException err) {
+            System.err.println("session could not be saved: " + err.getMessage());
+        }
     }
 
     /**
-     * Attempts to load a station from the information provided in
-     * the interface text fields.
+     * Shows the view of the loaded station chosen in the view menu in the
+     * centre of the window. The playback takes precedence over the heatmap,
+     * and plays from the first year whenever it is shown.
+     *
+     * @param root the root pane of the window
+     * @param isHeatmap if the heatmap is chosen
+     * @param isPlayback if the playback is chosen
      */
-    private void loadStation() {
-        String directoryName = directoryTextField.getText();
-        String stationName = stationTextField.getText();
+    private void showStationView(BorderPane root, boolean isHeatmap, boolean isPlayback) {
 
-        try {
+        if (isPlayback) {
+            root.setCenter(playback);
+            playback.play();
+            return;
+        }
+
+        playback.stop();
+        root.setCenter(isHeatmap ? heatmap : chart);
+    }
 
-            // attempt to load the station data
-            Station station = Loader.load(directoryName, stationName);
+    /**
+     * Starts the station server if a port was provided with the
+     * {@value #HTTP_PORT_ARGUMENT} argument.
+     */
+    private void startStationServer() {
 
-            // add station to library
-            loadedStations.put(station.getName().toLowerCase(), station);
+        for (String argument : getParameters().getRaw()) {
 
-            refreshStationsMenu();
-            drawLoadedInterface(station);
-        } catch (Loader.LoaderException err) {
-            updateStatus(err.getMessage(), false);
+            if (!argument.startsWith(HTTP_PORT_ARGUMENT)) {
+                continue;
+            }
+
+            try {
+                stationServer = new StationServer(loadedStations,
+                        Integer.parseInt(argument.substring(HTTP_PORT_ARGUMENT.length())));
+                stationServer.start();
+                updateStatus("serving stations on port " + stationServer.getPort() + "...", true);
+            } catch (NumberFormatException | IOException err) {
+                updateStatus("station server could not be started!", false);
+            }
         }
     }
 
     /**
-     * Refreshes the station menu.
+     * Restores the stations of the previous session. Stations are hydrated
+     * one at a time in the background, starting with the station that was on
+     * screen, and each is added to the interface as soon as it is loaded so
+     * the window never waits on the whole session.
      */
-    private void refreshStationsMenu() {
+    private void restoreSession() {
 
-        // clear existing menu items
-        stationMenu.getItems().clear();
+        Session.Entry visibleEntry = session.getVisibleEntry();
+        if (visibleEntry != null) {
+            directoryTextField.setText(visibleEntry.getDirectoryName());
+            stationTextField.setText(visibleEntry.getStationName());
+            updateStatus("restoring " + visibleEntry.getStationName() + "...", true);
+        }
 
-        // add stations to menu
-        for (Station station : loadedStations.values()) {
+        for (Session.Entry entry : session.getRestoreOrder()) {
+            loaderExecutor.submit(() -> hydrateStation(entry, entry == visibleEntry));
+        }
+    }
 
-            MenuItem stationMenuItem = new MenuItem(station.getName());
-            stationMenuItem.setOnAction(event -> drawLoadedInterface(station));
+    /**
+     * Loads a station of the previous session on the loader thread and
+     * hands it to the javafx thread. A station loaded by the user in the
+     * meantime is not replaced.
+     *
+     * @param entry the session station
+     * @param isVisible if the station was on screen in the previous session
+     */
+    private void hydrateStation(Session.Entry entry, boolean isVisible) {
 
-            stationMenu.getItems().add(stationMenuItem);
+        try {
+
+            long loadStart = System.nanoTime();
+            Station station = Loader.load(entry.getDirectoryName(), entry.getStationName());
+            long loadNanos = System.nanoTime() - loadStart;
+
+            Platform.runLater(() -> {
+                String stationKey = station.getName().toLowerCase();
+                if (loadedStations.putIfAbsent(stationKey, station) == null) {
+                    metricsPanel.recordLoad(station, loadNanos);
+                    refreshStationsMenu();
+                } else {
+                    // the user loaded the station while it was restored, keep theirs
+                    station.release();
+                }
+
+                // only draw the restored station if the user has not drawn another
+                if (isVisible && chart.getStation() == null) {
+                    drawLoadedInterface(loadedStations.get(stationKey));
+                }
+            });
+        } catch (Loader.LoaderException err) {
+            Platform.runLater(() -> failRestoringStation(entry, err.getMessage()));
+        } catch (RuntimeException err) {
+            // the executor's future would swallow the exception and keep the entry in the session
+            Platform.runLater(() -> failRestoringStation(entry, "station could not be loaded!"));
         }
     }
 
     /**
-     * Draws and adds the interactive components of the loaded
-     * interface.
+     * Removes a session station that failed to restore from the session, so
+     * it is not tried again on the next start, and shows why.
      *
-     * @param station the station to draw
+     * @param entry the session station
+     * @param message the reason the station could not be restored
      */
-    private void drawLoadedInterface(Station station) {
+    private void failRestoringStation(Session.Entry entry, String message) {
+        session.remove(entry.getStationName());
+        updateStatus("could not restore " + entry.getStationName() + ": " + message, false);
+    }
 
-        // clear loaded interface to remove existing charts
-        clearLoadedInterface();
+    /**
+     * Attempts to load a station from the information provided in
+     * the interface text fields. The station is loaded off the javafx
+     * thread, and the months read so far are charted while a large file
+     * loads.
+     */
+    private void loadStation() {
+        String directoryName = directoryTextField.getText();
+        String stationName = stationTextField.getText();
+
+        updateStatus("loading " + stationName + "...", true);
+
+        loaderExecutor.submit(() -> {
+            try {
+
+                // attempt to load the station data
+                long loadStart = System.nanoTime();
+                Station station = Loader.load(directoryName, stationName, this::showPartialStation);
+                long loadNanos = System.nanoTime() - loadStart;
 
-        Point2D chartTopLeft = new Point2D(CHART_PADDING, CHART_PADDING);
-        Point2D chartTopRight = new Point2D(CHART_WIDTH - CHART_PADDING, CHART_PADDING);
-        Point2D chartBtmLeft = new Point2D(CHART_PADDING, CHART_HEIGHT - CHART_PADDING);
-        //Point2D chartBtmRight = new Point2D(CHART_WIDTH - CHART_PADDING, CHART_HEIGHT - CHART_PADDING);
-
-        double pixelsPerYear; // how wide a year should be in the chart area
-        double pixelsPerMonth; // how wide a month should be in the chart area
-        double chartWidth = chartTopRight.getX() - chartTopLeft.getX(); // the width of the chart
-        double chartHeight = chartBtmLeft.getY() - chartTopLeft.getY(); // the height of the chart
-
-        ArrayList<Integer> distinctYears = station.getDistinctYears();
-
-        pixelsPerYear = chartWidth / distinctYears.size();
-        pixelsPerMonth = pixelsPerYear / MONTHS_IN_YEAR;
-
-        Rectangle background = new Rectangle(0, 0, chartPane.getWidth(), chartPane.getHeight());
-        background.setFill(COLOUR_GREY);
-
-        // draw station title
-        Text stationText = new Text(station.getName());
-        stationText.setFont(FONT_CHART_TITLE);
-        stationText.setX(chartTopLeft.getX());
-        stationText.setY(chartTopLeft.getY() - 30);
-
-        // draw axis titles
-        Text xAxisText = new Text(X_AXIS_TEXT);
-        xAxisText.setFill(COLOUR_DARK_BLUE);
-        xAxisText.setFont(FONT_INTERFACE_NORMAL);
-        xAxisText.setX(chartBtmLeft.getX() + (chartWidth / 2));
-        xAxisText.setY(chartBtmLeft.getY() + 46);
-
-        Text yAxisText = new Text(Y_AXIS_TEXT);
-        yAxisText.setFont(FONT_INTERFACE_NORMAL);
-        yAxisText.setFill(COLOUR_DARK_BLUE);
-        yAxisText.setRotate(270);
-        yAxisText.setX(chartBtmLeft.getX() - 90);
-        yAxisText.setY(chartBtmLeft.getY() - (chartHeight / 2));
-
-        chartPane.getChildren().addAll(background, stationText, xAxisText, yAxisText);
-
-        // draw distinct year backgrounds and X Axis titles on the chart
-        for (int i = 0; i < distinctYears.size(); i++) {
-
-            Point2D xAxisPos = new Point2D(chartBtmLeft.getX() + (pixelsPerYear * i), chartBtmLeft.getY() + 20);
-
-            Color switchColour = i % 2 == 0 ? COLOUR_LIGHT_BLUE : COLOUR_WHITE_BLUE;
-            Rectangle distinctYearRectangle = new Rectangle(xAxisPos.getX(),
-                    chartTopLeft.getY(), pixelsPerYear, chartHeight);
-            distinctYearRectangle.setFill(switchColour);
-
-            Rectangle tickIndicator = new Rectangle(xAxisPos.getX() + (pixelsPerYear / 2), chartBtmLeft.getY(),
-                    1, 10);
-            tickIndicator.setFill(COLOUR_DARK_BLUE);
-
-            // conditional year ticks, adjust text in accordance to amount of records
-            Text tickText = new Text(String.valueOf(distinctYears.get(i)));
-            tickText.setFill(COLOUR_DARK_BLUE);
-            tickText.setFont(FONT_INTERFACE_NORMAL);
-            tickText.setRotate(45);
-            tickText.setX(xAxisPos.getX() + (pixelsPerYear / 2));
-            tickText.setY(xAxisPos.getY() + 5);
-
-            if (pixelsPerYear >= 30) {
-                chartPane.getChildren().addAll(tickText, tickIndicator);
-            } else if (pixelsPerYear < 30 && i % 3 == 0) {
-                chartPane.getChildren().addAll(tickText, tickIndicator);
+                Platform.runLater(() -> finishLoadingStation(directoryName, station, loadNanos));
+            } catch (Loader.LoaderException err) {
+                Platform.runLater(() -> failLoadingStation(err.getMessage()));
+            } catch (RuntimeException err) {
+                // the executor's future would swallow the exception and leave the station loading
+                Platform.runLater(() -> failLoadingStation("station could not be loaded!"));
             }
+        });
+    }
+
+    /**
+     * Clears a station that failed to load from the interface and shows why.
+     *
+     * @param message the reason the station could not be loaded
+     */
+    private void failLoadingStation(String message) {
 
-            chartPane.getChildren().add(distinctYearRectangle);
+        if (loadingStation != null) {
+            loadingStation = null;
+            chart.setLoading(false);
+            clearLoadedInterface();
         }
 
-        // draw chart axis lines
-        Rectangle yAxisLine = new Rectangle(chartTopLeft.getX() - CHART_AXIS_WEIGHT,
-                chartTopLeft.getY(), CHART_AXIS_WEIGHT, chartHeight);
-        yAxisLine.setFill(COLOUR_DARK_BLUE);
+        updateStatus(message, false);
+    }
 
-        Rectangle xAxisLine = new Rectangle(chartBtmLeft.getX(), chartBtmLeft.getY(), chartWidth, CHART_AXIS_WEIGHT);
-        xAxisLine.setFill(COLOUR_DARK_BLUE);
+    /**
+     * Charts a station that is still loading. Called on the loader thread
+     * each time more months are published; refreshes are coalesced so that
+     * at most one is queued on the javafx thread.
+     *
+     * @param station the partially loaded station
+     */
+    private void showPartialStation(Station station) {
 
-        chartPane.getChildren().addAll(xAxisLine, yAxisLine);
+        if (!isPartialRefreshPending.compareAndSet(false, true)) {
+            return;
+        }
 
-        // give the chart Y axis titles
-        for (int i = 0; i <= 100; i += TICK_STEP_SIZE) {
+        Platform.runLater(() -> {
 
-            // rainfall value to be displayed on the axis
-            int tickInteger = (int) Math.round((station.getRainfallMax() / 100) * i);
-            String tickValue = String.valueOf(tickInteger);
+            isPartialRefreshPending.set(false);
 
-            Point2D tickPos = new Point2D(chartTopLeft.getX() - TICK_MARGIN,
-                    chartBtmLeft.getY() - ((chartHeight / 100) * i));
+            if (loadingStation == station) {
+                chart.refresh();
+                heatmap.refresh();
+                return;
+            }
 
-            Rectangle tickIndicator = new Rectangle(chartTopLeft.getX() - 6, tickPos.getY(),6, 1);
-            tickIndicator.setFill(COLOUR_DARK_BLUE);
+            clearLoadedInterface();
+            loadingStation = station;
+            chart.setStation(station);
+            chart.setLoading(true);
+            heatmap.setStation(station);
+        });
+    }
 
-            Text tickText = new Text(tickValue);
-            tickText.setFill(COLOUR_DARK_BLUE);
-            tickText.setFont(FONT_INTERFACE_NORMAL);
-            tickText.setX(tickPos.getX());
-            tickText.setY(tickPos.getY());
+    /**
+     * Adds a station that has finished loading to the library and session
+     * and draws it, replacing the partial chart if one was shown.
+     *
+     * @param directoryName name of the directory the station was loaded from
+     * @param station the loaded station
+     * @param loadNanos time taken to load the station
+     */
+    private void finishLoadingStation(String directoryName, Station station, long loadNanos) {
+
+        loadingStation = null;
+        chart.setLoading(false);
+        metricsPanel.recordLoad(station, loadNanos);
 
-            chartPane.getChildren().addAll(tickText, tickIndicator);
+        // add station to library and session, evicting a previous load of it
+        Station evictedStation = loadedStations.put(station.getName().toLowerCase(), station);
+        session.add(directoryName, station.getName());
 
-            // draw guide lines across the chart
-            if (tickInteger != 0) {
-                for (int j = 0; j < chartWidth; j++) {
-                    if (j % 2 == 0) {
-                        Point2D guidePosition = new Point2D(chartBtmLeft.getX() + j, tickPos.getY());
+        refreshStationsMenu();
+        drawLoadedInterface(station);
+
+        if (evictedStation != null) {
+            metricsPanel.removeStation(evictedStation);
+            evictedStation.release();
+        }
+
+        try {
+            session.save();
+        } catch (IOException err) {
+            updateStatus("loaded, but session could not be saved!", false);
+        }
+    }
 
-                        Rectangle guideRectangle = new Rectangle(guidePosition.getX(), guidePosition.getY(),
-                                CHART_GUIDE_WEIGHT, CHART_GUIDE_WEIGHT);
-                        chartPane.getChildren().add(guideRectangle);
+    /**
+     * Scans a directory for station files on the catalog thread and indexes
+     * their names for suggestions. The index is dropped if another directory
+     * has been typed by the time the scan completes.
+     *
+     * @param directoryName name of the directory
+     */
+    private void scanDirectory(String directoryName) {
+
+        if (directoryName.isEmpty()) {
+            return;
+        }
+
+        catalogExecutor.submit(() -> {
+            try {
+                StationNameIndex index = new StationNameIndex(StationCatalog.scan(directoryName));
+                Platform.runLater(() -> {
+                    if (directoryName.equals(directoryTextField.getText())) {
+                        stationNameIndex = index;
                     }
-                }
+                });
+            } catch (IOException err) {
+                // a directory that cannot be scanned has no suggestions
             }
+        });
+    }
+
+    /**
+     * Shows the stations of the directory that match the station name typed
+     * so far below the station text field, or hides them if there are none.
+     *
+     * @param stationName the station name typed so far
+     */
+    private void showSuggestions(String stationName) {
+
+        if (stationNameIndex == null || isApplyingSuggestion || stationName.isEmpty() ||
+                !stationTextField.isFocused()) {
+            suggestionsMenu.hide();
+            return;
         }
 
-        // apply scaling division to contain data within the chart
-        double applyScalingDivision = 0;
-        while ((station.getRainfallMax() / applyScalingDivision) > chartHeight) {
-            applyScalingDivision += CHART_SCALE_ACCURACY;
+        List<StationCatalog.Entry> suggestions = stationNameIndex.suggest(stationName, MAX_SUGGESTIONS);
+        if (suggestions.isEmpty()) {
+            suggestionsMenu.hide();
+            return;
         }
 
-        // draw rainfall bars and add records to list view
-        for (Record record : station.values()) {
+        ArrayList<MenuItem> suggestionMenuItems = new ArrayList<>(suggestions.size());
+        for (StationCatalog.Entry entry : suggestions) {
 
-            recordsListView.getItems().add(record.getCSVString()); // add record to list view
+            String years = entry.getFirstYear() + "-" +
+                    (entry.getLastYear() == StationCatalog.YEAR_UNKNOWN ? "" : entry.getLastYear());
 
-            int yearIndex = distinctYears.indexOf(record.getYear());
+            MenuItem suggestionMenuItem = new MenuItem(entry.getStationName() + " (" + years + ")");
+            suggestionMenuItem.setOnAction(action -> {
+                isApplyingSuggestion = true;
+                stationTextField.setText(entry.getStationName());
+                stationTextField.positionCaret(entry.getStationName().length());
+                isApplyingSuggestion = false;
+            });
 
-            // apply scaling division to record total rainfall
-            double recordScaledTotalRain = record.getRainfallTotal() / applyScalingDivision;
+            suggestionMenuItems.add(suggestionMenuItem);
+        }
 
-            double barXPos = chartBtmLeft.getX() + (pixelsPerYear * yearIndex) +
-                    (pixelsPerMonth * (record.getMonth() - 1));
+        suggestionsMenu.getItems().setAll(suggestionMenuItems);
+        if (!suggestionsMenu.isShowing()) {
+            suggestionsMenu.show(stationTextField, Side.BOTTOM, 0, 0);
+        }
+    }
 
-            Point2D barPos = new Point2D(barXPos, chartBtmLeft.getY() - recordScaledTotalRain);
+    /**
+     * Refreshes the station menu.
+     */
+    private void refreshStationsMenu() {
 
-            Rectangle rainfallBar = new Rectangle(barPos.getX(), barPos.getY(), pixelsPerMonth, recordScaledTotalRain);
-            rainfallBar.setFill(COLOUR_BLUE);
+        // clear existing menu items
+        stationMenu.getItems().clear();
+
+        // add stations to menu
+        for (Station station : loadedStations.values()) {
 
-            StatisticsBox recordStatBox = new StatisticsBox(chartPane, record);
+            MenuItem stationMenuItem = new MenuItem(station.getName());
+            stationMenuItem.setOnAction(event -> drawLoadedInterface(station));
 
-            rainfallBar.setOnMouseEntered(mouseEvent -> {
+            stationMenu.getItems().add(stationMenuItem);
+        }
+    }
 
-                rainfallBar.setFill(COLOUR_DARK_BLUE);
-                recordStatBox.show(mouseEvent.getX(), mouseEvent.getY());
-            });
+    /**
+     * Draws and adds the interactive components of the loaded
+     * interface.
+     *
+     * @param station the station to draw
+     */
+    private void drawLoadedInterface(Station station) {
 
-            rainfallBar.setOnMouseExited(mouseEvent -> {
+        // clear loaded interface to remove existing charts
+        clearLoadedInterface();
 
-                recordStatBox.hide();
-                rainfallBar.setFill(COLOUR_BLUE);
-            });
+        chart.setStation(station);
+        heatmap.setStation(station);
+        playback.setStation(station);
+        session.setVisibleStation(station.getName());
 
-            chartPane.getChildren().add(rainfallBar);
+        // add records to list view
+        RenderPhaseEvent recordsListEvent = RenderPhaseEvent.begin("records list", station.getName());
+        ArrayList<String> recordStrings = new ArrayList<>(station.size());
+        for (Record record : station.getRecordList()) {
+            recordStrings.add(record.getCSVString());
         }
+        recordsListView.getItems().setAll(recordStrings);
+        recordsListEvent.complete(recordStrings.size(), 0);
 
         updateStatus("loaded!", true);
     }
@@ -371,7 +594,10 @@ public class RainfallVisualiser extends Application {
      */
     private void clearLoadedInterface() {
 
-        chartPane.getChildren().clear();
+        chart.setStation(null);
+        heatmap.setStation(null);
+        playback.setStation(null);
+        session.setVisibleStation(null);
         recordsListView.getItems().clear();
     }
 
@@ -392,6 +618,6 @@ public class RainfallVisualiser extends Application {
     }
 
     public static void main(String[] args) {
-        launch();
+        launch(args);
     }
 }
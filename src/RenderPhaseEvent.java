@@ -0,0 +1,66 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A RenderPhaseEvent is a Java Flight Recorder event that times one phase of
+ * drawing a station: preparing the chart for the station, laying out the
+ * chart, or filling the records list. When no recording has the event
+ * enabled, beginning and completing it costs a couple of branches.
+ *
+ * @author Owen Herbert
+ */
+@Name("rainfall.RenderPhase")
+@Label("Render Phase")
+@Category({"Rainfall", "Render"})
+@Description("A phase of drawing a rainfall station")
+@StackTrace(false)
+public class RenderPhaseEvent extends Event {
+
+    @Label("Phase")
+    private String phase;
+
+    @Label("Station")
+    private String station;
+
+    @Label("Records")
+    private long records;
+
+    @Label("Nodes Created")
+    private long nodesCreated;
+
+    /**
+     * Creates and begins timing an event for a phase.
+     *
+     * @param phase name of the phase
+     * @param station name of the station
+     * @return the started event
+     */
+    static RenderPhaseEvent begin(String phase, String station) {
+
+        RenderPhaseEvent event = new RenderPhaseEvent();
+        event.phase = phase;
+        event.station = station;
+        event.begin();
+
+        return event;
+    }
+
+    /**
+     * Stops timing the phase and commits the event if it is being recorded.
+     *
+     * @param records number of records handled in the phase
+     * @param nodesCreated number of scene graph nodes created in the phase
+     */
+    void complete(long records, long nodesCreated) {
+
+        if (shouldCommit()) {
+            this.records = records;
+            this.nodesCreated = nodesCreated;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The Session class remembers the stations loaded in the visualiser and the
+ * station on screen, so they can be restored the next time it starts. The
+ * session is stored as a properties file in the user's home directory.
+ *
+ * @author Owen Herbert
+ */
+public class Session {
+
+    private static final String SESSION_FILE_NAME = ".rainfall-visualiser-session.properties";
+    private static final String KEY_STATION_COUNT = "station.count";
+    private static final String KEY_STATION_DIRECTORY = "station.%d.directory";
+    private static final String KEY_STATION_NAME = "station.%d.name";
+    private static final String KEY_VISIBLE_STATION = "visible";
+
+    private final Path sessionPath; // location of the session file
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(); // stations by lower case name
+    private String visibleKey; // lower case name of the station on screen, null if none
+
+    /**
+     * Sets the session file location upon construction.
+     *
+     * @param sessionPath location of the session file
+     */
+    private Session(Path sessionPath) {
+        this.sessionPath = sessionPath;
+    }
+
+    /**
+     * Reads the session saved in the user's home directory. A missing or
+     * unreadable session file gives an empty session.
+     *
+     * @return the saved session
+     */
+    public static Session load() {
+
+        Session session = new Session(Paths.get(System.getProperty("user.home"), SESSION_FILE_NAME));
+        if (!Files.exists(session.sessionPath)) {
+            return session;
+        }
+
+        Properties properties = new Properties();
+        try (Reader reader = new FileReader(session.sessionPath.toFile())) {
+            properties.load(reader);
+
+            int stationCount = Integer.parseInt(properties.getProperty(KEY_STATION_COUNT, "0"));
+            for (int i = 0; i < stationCount; i++) {
+
+                String directoryName = properties.getProperty(String.format(KEY_STATION_DIRECTORY, i));
+                String stationName = properties.getProperty(String.format(KEY_STATION_NAME, i));
+                if (directoryName != null && stationName != null) {
+                    session.add(directoryName, stationName);
+                }
+            }
+
+            session.setVisibleStation(properties.getProperty(KEY_VISIBLE_STATION));
+        } catch (IOException | NumberFormatException err) {
+            session.entries.clear();
+            session.visibleKey = null;
+        }
+
+        return session;
+    }
+
+    /**
+     * Writes the session to the user's home directory.
+     *
+     * @throws IOException if the session file cannot be written
+     */
+    public void save() throws IOException {
+
+        Properties properties = new Properties();
+        properties.setProperty(KEY_STATION_COUNT, String.valueOf(entries.size()));
+
+        int i = 0;
+        for (Entry entry : entries.values()) {
+            properties.setProperty(String.format(KEY_STATION_DIRECTORY, i), entry.getDirectoryName());
+            properties.setProperty(String.format(KEY_STATION_NAME, i), entry.getStationName());
+            i++;
+        }
+
+        if (visibleKey != null) {
+            properties.setProperty(KEY_VISIBLE_STATION, visibleKey);
+        }
+
+        try (Writer writer = new FileWriter(sessionPath.toFile())) {
+            properties.store(writer, "Rainfall Visualiser session");
+        }
+    }
+
+    /**
+     * Adds a loaded station to the session, replacing any station of the same
+     * name.
+     *
+     * @param directoryName directory the station was loaded from
+     * @param stationName name of the station
+     */
+    public void add(String directoryName, String stationName) {
+        entries.put(stationName.toLowerCase(), new Entry(directoryName, stationName));
+    }
+
+    /**
+     * Removes a station from the session, such as one that can no longer be
+     * loaded.
+     *
+     * @param stationName name of the station
+     */
+    public void remove(String stationName) {
+
+        String key = stationName.toLowerCase();
+        entries.remove(key);
+
+        if (key.equals(visibleKey)) {
+            visibleKey = null;
+        }
+    }
+
+    /**
+     * Sets the station on screen.
+     *
+     * @param stationName name of the station, or null if the chart is clear
+     */
+    public void setVisibleStation(String stationName) {
+        visibleKey = stationName == null ? null : stationName.toLowerCase();
+    }
+
+    /**
+     * Returns the stations of the session with the station on screen first,
+     * which is the order they should be restored in.
+     *
+     * @return stations in restore order
+     */
+    public List<Entry> getRestoreOrder() {
+
+        List<Entry> restoreOrder = new ArrayList<>(entries.size());
+
+        Entry visibleEntry = getVisibleEntry();
+        if (visibleEntry != null) {
+            restoreOrder.add(visibleEntry);
+        }
+
+        for (Entry entry : entries.values()) {
+            if (entry != visibleEntry) {
+                restoreOrder.add(entry);
+            }
+        }
+
+        return restoreOrder;
+    }
+
+    /**
+     * @return the station on screen, or null if none
+     */
+    public Entry getVisibleEntry() {
+        return visibleKey == null ? null : entries.get(visibleKey);
+    }
+
+    /**
+     * An Entry is a station that was loaded in the session.
+     */
+    public static class Entry {
+
+        private final String directoryName; // directory the station was loaded from
+        private final String stationName; // name of the station
+
+        Entry(String directoryName, String stationName) {
+            this.directoryName = directoryName;
+            this.stationName = stationName;
+        }
+
+        /**
+         * @return the directory the station was loaded from
+         */
+        public String getDirectoryName() {
+            return directoryName;
+        }
+
+        /**
+         * @return the name of the station
+         */
+        public String getStationName() {
+            return stationName;
+        }
+    }
+}
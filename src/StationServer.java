@@ -0,0 +1,482 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import rainfall.MonthlyColumns;
+import rainfall.Query;
+import rainfall.Record;
+import rainfall.Selection;
+import rainfall.Station;
+import rainfall.StationSnapshot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The StationServer class serves the loaded stations as JSON over HTTP, so
+ * other tools can read the monthly records and aggregates without parsing the
+ * analysed csv files. Responses are encoded straight from the Station objects
+ * and cached against the version of the station they were encoded from, and
+ * every response carries an ETag so that clients polling with If-None-Match
+ * are answered with an empty 304 until the station changes.
+ * <p>
+ * Routes:
+ * <ul>
+ * <li>{@code GET /stations} lists the loaded stations</li>
+ * <li>{@code GET /stations/{name}/records} lists the monthly records of a station</li>
+ * <li>{@code GET /stations/{name}/aggregate?from=y&to=y&month=m} aggregates the
+ * monthly totals of a range of years, optionally of a single calendar month</li>
+ * </ul>
+ *
+ * @author Owen Herbert
+ */
+public class StationServer {
+
+    private static final String CONTEXT_PATH = "/stations";
+    private static final int MAX_CACHED_RESPONSES = 256; // responses kept before the least recent is evicted
+    private static final int GZIP_MIN_BYTES = 1024; // responses smaller than this are not compressed
+
+    private final Map<String, Station> stations; // loaded stations by lower case name, read concurrently
+    private final HttpServer httpServer;
+    private final ExecutorService executor;
+
+    // encoded responses by request, least recently used first
+    private final LinkedHashMap<String, CachedResponse> responseCache =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+                    return size() > MAX_CACHED_RESPONSES;
+                }
+            };
+
+    /**
+     * Binds the server to a port upon construction. The server does not
+     * accept requests until it is started.
+     *
+     * @param stations loaded stations by lower case name, must be safe to read concurrently
+     * @param port the port to listen on
+     * @throws IOException if the port cannot be bound
+     */
+    public StationServer(Map<String, Station> stations, int port) throws IOException {
+
+        this.stations = stations;
+        this.executor = createExecutor();
+        this.httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+        this.httpServer.setExecutor(executor);
+        this.httpServer.createContext(CONTEXT_PATH, this::handle);
+    }
+
+    /**
+     * Starts accepting requests.
+     */
+    public void start() {
+        httpServer.start();
+    }
+
+    /**
+     * Stops accepting requests and releases the port.
+     */
+    public void stop() {
+        httpServer.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the port the server is listening on
+     */
+    public int getPort() {
+        return httpServer.getAddress().getPort();
+    }
+
+    /**
+     * Returns an executor that runs each request on a virtual thread when the
+     * runtime supports them, or on a cached pool of platform threads.
+     *
+     * @return the request executor
+     */
+    private static ExecutorService createExecutor() {
+
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException err) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "station-server");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Routes a request and writes its response.
+     *
+     * @param exchange the request and response
+     * @throws IOException if the response cannot be written
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+
+        try {
+
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "method not allowed!");
+                return;
+            }
+
+            URI uri = exchange.getRequestURI();
+            String[] segments = uri.getPath().substring(CONTEXT_PATH.length()).split("/");
+            String cacheKey = uri.getPath() + "?" + (uri.getRawQuery() == null ? "" : uri.getRawQuery());
+
+            // list of stations
+            if (segments.length == 0 || (segments.length == 1 && segments[0].isEmpty())) {
+                sendCached(exchange, cacheKey, getStationsVersion(), this::encodeStations);
+                return;
+            }
+
+            if (segments.length != 3) {
+                sendError(exchange, 404, "not found!");
+                return;
+            }
+
+            Station station = stations.get(segments[1].toLowerCase());
+            if (station == null) {
+                sendError(exchange, 404, "station not loaded!");
+                return;
+            }
+
+            // encode from one snapshot so the body always matches the version it is cached under
+            StationSnapshot snapshot = station.getSnapshot();
+            String stationVersion = String.valueOf(snapshot.getVersion());
+            if ("records".equals(segments[2])) {
+                sendCached(exchange, cacheKey, stationVersion, () -> encodeRecords(station.getName(), snapshot));
+            } else if ("aggregate".equals(segments[2])) {
+                Map<String, String> parameters = parseQuery(uri.getRawQuery());
+                sendCached(exchange, cacheKey, stationVersion,
+                        () -> encodeAggregate(station.getName(), snapshot, parameters));
+            } else {
+                sendError(exchange, 404, "not found!");
+            }
+        } catch (IllegalArgumentException err) {
+            sendError(exchange, 400, err.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Sends the cached response of a request if it was encoded from the
+     * current version, or encodes and caches a new response. Requests whose
+     * If-None-Match header holds the current ETag are answered with 304.
+     *
+     * @param exchange the request and response
+     * @param cacheKey key of the request in the response cache
+     * @param version version of the data the response is encoded from
+     * @param encoder encodes the response body
+     * @throws IOException if the response cannot be written
+     */
+    private void sendCached(HttpExchange exchange, String cacheKey, String version, Encoder encoder)
+            throws IOException {
+
+        CachedResponse response;
+        synchronized (responseCache) {
+            response = responseCache.get(cacheKey);
+        }
+
+        if (response == null || !response.version.equals(version)) {
+
+            // encode outside the lock, concurrent misses encode the same body and the last one is kept
+            response = new CachedResponse(version, cacheKey, encoder.encode());
+            synchronized (responseCache) {
+                responseCache.put(cacheKey, response);
+            }
+        }
+
+        exchange.getResponseHeaders().set("ETag", response.etag);
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch != null && (ifNoneMatch.contains(response.etag) || ifNoneMatch.trim().equals("*"))) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        boolean isGzip = response.gzipBody != null && acceptEncoding != null && acceptEncoding.contains("gzip");
+
+        byte[] body = isGzip ? response.gzipBody : response.body;
+        if (isGzip) {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(body);
+        }
+    }
+
+    /**
+     * Sends an uncached JSON error.
+     *
+     * @param exchange the request and response
+     * @param status the HTTP status
+     * @param message the error message
+     * @throws IOException if the response cannot be written
+     */
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+
+        byte[] body = ("{\"error\": " + quote(message) + "}\n").getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(body);
+        }
+    }
+
+    /**
+     * Returns a version of the set of loaded stations. Station versions are
+     * unique and only increase, so the count, sum and maximum of the versions
+     * change whenever a station is loaded, replaced or changed.
+     *
+     * @return the version of the station list
+     */
+    private String getStationsVersion() {
+
+        long count = 0, sum = 0, max = 0;
+        for (Station station : stations.values()) {
+            long version = station.getVersion();
+            count++;
+            sum += version;
+            max = Math.max(max, version);
+        }
+
+        return count + "." + sum + "." + max;
+    }
+
+    /**
+     * @return the station list as JSON
+     */
+    private String encodeStations() {
+
+        List<Station> sortedStations = new ArrayList<>(stations.values());
+        sortedStations.sort((a, b) -> a.getName().compareToIgnoreCase(b.getName()));
+
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < sortedStations.size(); i++) {
+
+            Station station = sortedStations.get(i);
+            StationSnapshot snapshot = station.getSnapshot();
+            List<Record> records = snapshot.getRecordList();
+
+            json.append(i == 0 ? "\n  " : ",\n  ").append("{\"name\": ").append(quote(station.getName()))
+                    .append(", \"version\": ").append(snapshot.getVersion())
+                    .append(", \"records\": ").append(records.size());
+
+            if (!records.isEmpty()) {
+                json.append(", \"firstYear\": ").append(records.get(0).getYear())
+                        .append(", \"lastYear\": ").append(records.get(records.size() - 1).getYear());
+            }
+
+            json.append("}");
+        }
+
+        return json.append("\n]\n").toString();
+    }
+
+    /**
+     * @param name name of the station
+     * @param snapshot snapshot of the station
+     * @return the monthly records of the station as JSON
+     */
+    private static String encodeRecords(String name, StationSnapshot snapshot) {
+
+        MonthlyColumns columns = snapshot.getMonthlyColumns();
+
+        StringBuilder json = new StringBuilder(64 + (columns.size() * 96));
+        json.append("{\"name\": ").append(quote(name)).append(", \"records\": [");
+
+        for (int i = 0; i < columns.size(); i++) {
+            json.append(i == 0 ? "\n  " : ",\n  ")
+                    .append("{\"year\": ").append(columns.getYear(i))
+                    .append(", \"month\": ").append(columns.getMonth(i))
+                    .append(", \"total\": ").append(formatNumber(columns.getTotal(i)))
+                    .append(", \"min\": ").append(formatNumber(columns.getMin(i)))
+                    .append(", \"max\": ").append(formatNumber(columns.getMax(i)))
+                    .append(", \"observed\": ").append(columns.getObservedDays(i))
+                    .append(", \"missing\": ").append(columns.getMissingDays(i)).append("}");
+        }
+
+        return json.append("\n]}\n").toString();
+    }
+
+    /**
+     * Aggregates the monthly totals of a range of years. Months without data
+     * are counted but do not contribute to the minimum, maximum or mean.
+     *
+     * @param name name of the station
+     * @param snapshot snapshot of the station
+     * @param parameters the query parameters
+     * @return the aggregate as JSON
+     */
+    private static String encodeAggregate(String name, StationSnapshot snapshot, Map<String, String> parameters) {
+
+        int fromYear = parseInt(parameters, "from", Integer.MIN_VALUE);
+        int toYear = parseInt(parameters, "to", Integer.MAX_VALUE);
+        int month = parseInt(parameters, "month", 0);
+
+        if (month < 0 || month > 12) {
+            throw new IllegalArgumentException("month must be between 1 and 12!");
+        }
+
+        // a missing bound leaves the years open on that side, with no year predicate if both are missing
+        Query query = parameters.containsKey("from") || parameters.containsKey("to") ?
+                Query.yearBetween(fromYear, toYear) : Query.all();
+        if (month != 0) {
+            query = query.and(Query.monthIn(month));
+        }
+
+        Selection selection = snapshot.select(query);
+        MonthlyColumns columns = snapshot.getMonthlyColumns();
+
+        int withData = 0;
+        double min = Double.NaN, max = Double.NaN;
+        for (int i = selection.nextSelected(0); i >= 0; i = selection.nextSelected(i + 1)) {
+            if (columns.getObservedDays(i) != 0) {
+                double total = columns.getTotal(i);
+                min = withData == 0 ? total : Math.min(min, total);
+                max = withData == 0 ? total : Math.max(max, total);
+                withData++;
+            }
+        }
+
+        double total = snapshot.getRainfallTotal(selection);
+
+        return "{\"name\": " + quote(name)
+                + ", \"from\": " + (fromYear == Integer.MIN_VALUE ? "null" : fromYear)
+                + ", \"to\": " + (toYear == Integer.MAX_VALUE ? "null" : toYear)
+                + ", \"month\": " + (month == 0 ? "null" : month)
+                + ", \"records\": " + selection.count()
+                + ", \"recordsWithData\": " + withData
+                + ", \"total\": " + formatNumber(total)
+                + ", \"mean\": " + formatNumber(withData == 0 ? Double.NaN : total / withData)
+                + ", \"min\": " + formatNumber(min)
+                + ", \"max\": " + formatNumber(max) + "}\n";
+    }
+
+    /**
+     * Parses a raw URL query string into parameters.
+     *
+     * @param rawQuery the raw query, or null
+     * @return parameters by name
+     */
+    private static Map<String, String> parseQuery(String rawQuery) {
+
+        HashMap<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+
+        for (String pair : rawQuery.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                parameters.put(pair.substring(0, separator), pair.substring(separator + 1));
+            }
+        }
+
+        return parameters;
+    }
+
+    /**
+     * @param parameters the query parameters
+     * @param name name of the parameter
+     * @param defaultValue value if the parameter is absent
+     * @return the integer value of the parameter
+     */
+    private static int parseInt(Map<String, String> parameters, String name, int defaultValue) {
+
+        String value = parameters.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException err) {
+            throw new IllegalArgumentException(name + " must be a whole number!");
+        }
+    }
+
+    /**
+     * Formats a number for JSON, which has no NaN or infinity.
+     *
+     * @param value the number
+     * @return the JSON number, or null
+     */
+    private static String formatNumber(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : String.valueOf(value);
+    }
+
+    /**
+     * Quotes and escapes a string for JSON.
+     *
+     * @param value the string
+     * @return the JSON string
+     */
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * An Encoder encodes the body of a response.
+     */
+    private interface Encoder {
+        String encode();
+    }
+
+    /**
+     * A CachedResponse is an encoded response body and the version of the
+     * data it was encoded from.
+     */
+    private static class CachedResponse {
+
+        private final String version; // version of the data the body was encoded from
+        private final String etag; // entity tag of the body
+        private final byte[] body; // encoded body
+        private final byte[] gzipBody; // gzip compressed body, null if the body is small
+
+        CachedResponse(String version, String cacheKey, String json) {
+
+            this.version = version;
+            this.etag = "\"" + version + "-" + Integer.toHexString(cacheKey.hashCode()) + "\"";
+            this.body = json.getBytes(StandardCharsets.UTF_8);
+            this.gzipBody = body.length < GZIP_MIN_BYTES ? null : gzip(body);
+        }
+
+        /**
+         * @param bytes bytes to compress
+         * @return the gzip compressed bytes
+         */
+        private static byte[] gzip(byte[] bytes) {
+
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(bytes);
+            } catch (IOException err) {
+                throw new IllegalStateException("in memory compression failed!", err);
+            }
+
+            return compressed.toByteArray();
+        }
+    }
+}
@@ -13,17 +13,20 @@ import javafx.geometry.Point2D;
  */
 public class StatisticsBox {
     private static final int STAT_BOX_WIDTH = 130; // width in pixels of the statistics box
-    private static final int STAT_BOX_HEIGHT = 60; // height in pixels of the statistics box
+    private static final int STAT_BOX_HEIGHT = 82; // height in pixels of the statistics box
     private static final int MOUSE_MARGIN_LEFT = 10; // pixels between mouse origin and statistics box
 
     private final Pane chartPane;
     private final Record record;
+    private final double anomaly;
     private Rectangle backgroundRectangle;
     private Rectangle monthTextRectangle;
     private Text monthText;
     private Text totalRainfallText;
     private Text minRainfallText;
     private Text maxRainfallText;
+    private Text anomalyText;
+    private Text coverageText;
 
     /**
      * Sets the required chartPane node and record object to use
@@ -31,11 +34,13 @@ public class StatisticsBox {
      *
      * @param chartPane the chart pane
      * @param record the data record object
+     * @param anomaly departure of the record from the long-term mean of its month
      */
-    public StatisticsBox(Pane chartPane, Record record) {
+    public StatisticsBox(Pane chartPane, Record record, double anomaly) {
 
         this.chartPane = chartPane;
         this.record = record;
+        this.anomaly = anomaly;
     }
 
     /**
@@ -66,9 +71,10 @@ public class StatisticsBox {
         monthTextRectangle.setFill(Color.WHITE);
         monthTextRectangle.setOpacity(.40);
 
-        // total rainfall text
+        // total rainfall text, months without any readings have no data rather than no rainfall
+        String totalRainfall = record.hasData() ? String.valueOf(Math.floor(record.getRainfallTotal())) : "no data";
         totalRainfallText = new Text(topLeftPos.getX() + 8, topLeftPos.getY() + 27,
-                "Rainfall: " + String.valueOf(Math.floor(record.getRainfallTotal())));
+                "Rainfall: " + totalRainfall);
         totalRainfallText.setFill(Color.WHITE);
         totalRainfallText.setFont(RainfallVisualiser.FONT_INTERFACE_NORMAL);
 
@@ -84,9 +90,22 @@ public class StatisticsBox {
         maxRainfallText.setFill(Color.WHITE);
         maxRainfallText.setFont(RainfallVisualiser.FONT_INTERFACE_NORMAL);
 
+        // anomaly text
+        anomalyText = new Text(topLeftPos.getX() + 8, topLeftPos.getY() + 60,
+                String.format("Anomaly: %+1.2f", anomaly));
+        anomalyText.setFill(Color.WHITE);
+        anomalyText.setFont(RainfallVisualiser.FONT_INTERFACE_NORMAL);
+
+        // coverage text
+        String coverage = record.getObservedDays() == Record.COVERAGE_UNKNOWN ? "unknown" :
+                record.getObservedDays() + "/" + (record.getObservedDays() + record.getMissingDays()) + " days";
+        coverageText = new Text(topLeftPos.getX() + 8, topLeftPos.getY() + 71, "Observed: " + coverage);
+        coverageText.setFill(Color.WHITE);
+        coverageText.setFont(RainfallVisualiser.FONT_INTERFACE_NORMAL);
+
         // add components to interface
         chartPane.getChildren().addAll(backgroundRectangle, monthTextRectangle, monthText, totalRainfallText,
-                minRainfallText, maxRainfallText);
+                minRainfallText, maxRainfallText, anomalyText, coverageText);
     }
 
     /**
@@ -96,7 +115,7 @@ public class StatisticsBox {
 
         // remove components from interface
         chartPane.getChildren().removeAll(backgroundRectangle, monthTextRectangle, monthText, totalRainfallText,
-                minRainfallText, maxRainfallText);
+                minRainfallText, maxRainfallText, anomalyText, coverageText);
 
     }
 }
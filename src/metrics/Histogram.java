@@ -0,0 +1,100 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A Histogram counts recorded values into fixed buckets. Recording is lock
+ * free and allocation free, so it can be called on every frame.
+ *
+ * @author Owen Herbert
+ */
+public class Histogram {
+
+    // bucket bounds in milliseconds suited to frame and layout times, around 60 and 30 frames per second
+    public static final double[] MILLISECOND_BOUNDS = {1, 2, 4, 8, 16.7, 33.3, 50, 100};
+
+    private final double[] bounds; // upper bound of each bucket, the last bucket is unbounded
+    private final AtomicLongArray counts; // number of values in each bucket
+    private final LongAdder count = new LongAdder(); // number of values recorded
+    private final DoubleAdder sum = new DoubleAdder(); // sum of values recorded
+
+    /**
+     * Sets the bucket bounds upon construction.
+     *
+     * @param bounds ascending upper bound of each bucket, a final unbounded bucket is added
+     */
+    Histogram(double[] bounds) {
+        this.bounds = bounds.clone();
+        this.counts = new AtomicLongArray(bounds.length + 1);
+    }
+
+    /**
+     * Records a value in the bucket it falls into.
+     *
+     * @param value the value
+     */
+    public void record(double value) {
+
+        int bucket = 0;
+        while (bucket < bounds.length && value > bounds[bucket]) {
+            bucket++;
+        }
+
+        counts.incrementAndGet(bucket);
+        count.increment();
+        sum.add(value);
+    }
+
+    /**
+     * @return the number of buckets, including the unbounded bucket
+     */
+    public int getBucketCount() {
+        return counts.length();
+    }
+
+    /**
+     * @param bucket index of the bucket
+     * @return the upper bound of the bucket, infinity for the last bucket
+     */
+    public double getBucketBound(int bucket) {
+        return bucket < bounds.length ? bounds[bucket] : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @param bucket index of the bucket
+     * @return the number of values in the bucket
+     */
+    public long getBucketCount(int bucket) {
+        return counts.get(bucket);
+    }
+
+    /**
+     * @return the number of values recorded
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return the mean of the values recorded, NaN if there are none
+     */
+    public double getMean() {
+        long values = count.sum();
+        return values == 0 ? Double.NaN : sum.sum() / values;
+    }
+
+    /**
+     * Clears every bucket.
+     */
+    public void reset() {
+
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+
+        count.reset();
+        sum.reset();
+    }
+}
@@ -0,0 +1,157 @@
+package metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The MetricsRegistry holds named gauges, counters and histograms for the
+ * running process. Metrics are created on first use and updated without
+ * locks, so they are cheap enough to update on every load and every frame.
+ * The registry can be dumped as JSON to compare runs without a profiler.
+ *
+ * @author Owen Herbert
+ */
+public class MetricsRegistry {
+
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    private final ConcurrentHashMap<String, AtomicLong> gauges = new ConcurrentHashMap<>(); // double bits
+    private final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * @return the registry shared by the whole process
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Sets the value of a gauge, creating it if needed.
+     *
+     * @param name name of the gauge
+     * @param value the value
+     */
+    public void setGauge(String name, double value) {
+        gauges.computeIfAbsent(name, key -> new AtomicLong()).set(Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * @param name name of the gauge
+     * @return the value of the gauge, NaN if it has not been set
+     */
+    public double getGauge(String name) {
+        AtomicLong gauge = gauges.get(name);
+        return gauge == null ? Double.NaN : Double.longBitsToDouble(gauge.get());
+    }
+
+    /**
+     * Removes a gauge, such as one for a station that is no longer loaded.
+     *
+     * @param name name of the gauge
+     */
+    public void removeGauge(String name) {
+        gauges.remove(name);
+    }
+
+    /**
+     * Adds to a counter, creating it if needed.
+     *
+     * @param name name of the counter
+     * @param amount amount to add
+     */
+    public void increment(String name, long amount) {
+        counters.computeIfAbsent(name, key -> new LongAdder()).add(amount);
+    }
+
+    /**
+     * @param name name of the counter
+     * @return the value of the counter, 0 if it has not been incremented
+     */
+    public long getCounter(String name) {
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * Returns a histogram, creating it with the provided bucket bounds if it
+     * does not exist yet.
+     *
+     * @param name name of the histogram
+     * @param bounds ascending upper bound of each bucket
+     * @return the histogram
+     */
+    public Histogram histogram(String name, double... bounds) {
+        return histograms.computeIfAbsent(name, key -> new Histogram(bounds));
+    }
+
+    /**
+     * Returns every metric as a JSON object with gauges, counters and
+     * histograms sorted by name.
+     *
+     * @return the metrics as JSON
+     */
+    public String toJson() {
+
+        StringBuilder json = new StringBuilder("{\n  \"gauges\": {");
+
+        String separator = "";
+        for (Map.Entry<String, AtomicLong> gauge : new TreeMap<>(gauges).entrySet()) {
+            json.append(separator).append("\n    ").append(quote(gauge.getKey())).append(": ")
+                    .append(formatNumber(Double.longBitsToDouble(gauge.getValue().get())));
+            separator = ",";
+        }
+
+        json.append("\n  },\n  \"counters\": {");
+        separator = "";
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<>(counters).entrySet()) {
+            json.append(separator).append("\n    ").append(quote(counter.getKey())).append(": ")
+                    .append(counter.getValue().sum());
+            separator = ",";
+        }
+
+        json.append("\n  },\n  \"histograms\": {");
+        separator = "";
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(histograms).entrySet()) {
+
+            Histogram histogram = entry.getValue();
+            json.append(separator).append("\n    ").append(quote(entry.getKey())).append(": {\"count\": ")
+                    .append(histogram.getCount()).append(", \"mean\": ").append(formatNumber(histogram.getMean()))
+                    .append(", \"buckets\": [");
+
+            for (int i = 0; i < histogram.getBucketCount(); i++) {
+                json.append(i == 0 ? "" : ", ").append("{\"le\": ")
+                        .append(formatNumber(histogram.getBucketBound(i))).append(", \"count\": ")
+                        .append(histogram.getBucketCount(i)).append("}");
+            }
+
+            json.append("]}");
+            separator = ",";
+        }
+
+        return json.append("\n  }\n}\n").toString();
+    }
+
+    /**
+     * Formats a number for JSON, which has no NaN or infinity.
+     *
+     * @param value the number
+     * @return the JSON number, or null
+     */
+    private static String formatNumber(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : String.valueOf(value);
+    }
+
+    /**
+     * Quotes and escapes a string for JSON.
+     *
+     * @param value the string
+     * @return the JSON string
+     */
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
@@ -0,0 +1,42 @@
+package rainfall;
+
+import java.nio.ByteBuffer;
+
+/**
+ * AggregateKernels are the loops behind {@link Aggregates}. Each kernel
+ * works over a range [from, to) of a primitive column array, or over a run
+ * of values read in place from a buffer in the buffer's byte order. The mask
+ * kernels set or clear the bits of selection words, bit i standing for index
+ * i of an array or for the first index plus i of a run.
+ *
+ * @author Owen Herbert
+ */
+interface AggregateKernels {
+
+    double sum(double[] values, int from, int to);
+
+    double min(double[] values, int from, int to);
+
+    double max(double[] values, int from, int to);
+
+    int countAbove(double[] values, int from, int to, double threshold);
+
+    double maskedSum(double[] values, long[] words);
+
+    double sum(ByteBuffer values, int offset, int count);
+
+    double max(ByteBuffer values, int offset, int count);
+
+    int countAbove(ByteBuffer values, int offset, int count, double threshold);
+
+    double maskedSum(ByteBuffer values, int offset, int count, long[] words, int firstIndex);
+
+    void compareMask(double[] values, int from, int to, Query.Comparison comparison, double threshold, long[] words);
+
+    void clearZeroMask(int[] values, int from, int to, long[] words);
+
+    void compareMask(ByteBuffer values, int offset, int count, Query.Comparison comparison, double threshold,
+                     long[] words, int firstIndex);
+
+    void clearZeroMask(ByteBuffer values, int offset, int count, long[] words, int firstIndex);
+}
@@ -0,0 +1,404 @@
+package rainfall;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Aggregates provides sum, minimum, maximum, threshold count, masked sum and
+ * comparison mask kernels over primitive rainfall arrays, such as the columns of
+ * {@link MonthlyColumns}, or over runs of doubles read in place from a
+ * buffer, such as the columns of a station held off heap. The kernels use the Vector API when the
+ * optional vector kernels of src-vector have been compiled and the
+ * jdk.incubator.vector module is available, and fall back to scalar loops
+ * otherwise. Vector sums add values in a different order to scalar sums, so
+ * the two can differ in the last bits.
+ *
+ * @author Owen Herbert
+ */
+public class Aggregates {
+
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+    private static final int FIRST_VECTOR_JDK = 17; // first JDK the vector kernels are written against
+    private static final int LAST_VECTOR_JDK = 19; // last JDK whose Vector API reads vectors from byte buffers
+    private static final int CHECK_VALUES = 67; // values the kernels are checked over, more than a vector and a tail
+    private static final AggregateKernels KERNELS = loadKernels();
+
+    private Aggregates() {
+    }
+
+    /**
+     * @param values the values
+     * @return the sum of every value
+     */
+    public static double sum(double[] values) {
+        return sum(values, 0, values.length);
+    }
+
+    /**
+     * @param values the values
+     * @param from first index, inclusive
+     * @param to last index, exclusive
+     * @return the sum of the values in the range
+     */
+    public static double sum(double[] values, int from, int to) {
+        checkRange(values, from, to);
+        return KERNELS.sum(values, from, to);
+    }
+
+    /**
+     * @param values the values
+     * @return the smallest value, NaN if there are none
+     */
+    public static double min(double[] values) {
+        return min(values, 0, values.length);
+    }
+
+    /**
+     * @param values the values
+     * @param from first index, inclusive
+     * @param to last index, exclusive
+     * @return the smallest value in the range, NaN if the range is empty
+     */
+    public static double min(double[] values, int from, int to) {
+        checkRange(values, from, to);
+        return from == to ? Double.NaN : KERNELS.min(values, from, to);
+    }
+
+    /**
+     * @param values the values
+     * @return the largest value, NaN if there are none
+     */
+    public static double max(double[] values) {
+        return max(values, 0, values.length);
+    }
+
+    /**
+     * @param values the values
+     * @param from first index, inclusive
+     * @param to last index, exclusive
+     * @return the largest value in the range, NaN if the range is empty
+     */
+    public static double max(double[] values, int from, int to) {
+        checkRange(values, from, to);
+        return from == to ? Double.NaN : KERNELS.max(values, from, to);
+    }
+
+    /**
+     * @param values the values
+     * @param threshold the threshold
+     * @return the number of values greater than the threshold
+     */
+    public static int countAbove(double[] values, double threshold) {
+        return countAbove(values, 0, values.length, threshold);
+    }
+
+    /**
+     * @param values the values
+     * @param from first index, inclusive
+     * @param to last index, exclusive
+     * @param threshold the threshold
+     * @return the number of values in the range greater than the threshold
+     */
+    public static int countAbove(double[] values, int from, int to, double threshold) {
+        checkRange(values, from, to);
+        return KERNELS.countAbove(values, from, to, threshold);
+    }
+
+    /**
+     * @param values the values
+     * @param selection selection of the values to sum, covering every value
+     * @return the sum of the selected values
+     */
+    public static double maskedSum(double[] values, Selection selection) {
+
+        if (selection.size() != values.length) {
+            throw new IllegalArgumentException("selection does not cover the values!");
+        }
+
+        return KERNELS.maskedSum(values, selection.getWords());
+    }
+
+    /**
+     * Sums a run of doubles read in place from a buffer, in the buffer's
+     * byte order.
+     *
+     * @param values the buffer
+     * @param offset byte offset of the first value
+     * @param count number of values
+     * @return the sum of the values
+     */
+    public static double sum(ByteBuffer values, int offset, int count) {
+        checkRange(values, offset, count);
+        return KERNELS.sum(values, offset, count);
+    }
+
+    /**
+     * @param values the buffer, read in its byte order
+     * @param offset byte offset of the first value
+     * @param count number of values
+     * @return the largest value, NaN if there are none
+     */
+    public static double max(ByteBuffer values, int offset, int count) {
+        checkRange(values, offset, count);
+        return count == 0 ? Double.NaN : KERNELS.max(values, offset, count);
+    }
+
+    /**
+     * @param values the buffer, read in its byte order
+     * @param offset byte offset of the first value
+     * @param count number of values
+     * @param threshold the threshold
+     * @return the number of values greater than the threshold
+     */
+    public static int countAbove(ByteBuffer values, int offset, int count, double threshold) {
+        checkRange(values, offset, count);
+        return KERNELS.countAbove(values, offset, count, threshold);
+    }
+
+    /**
+     * Sums the selected values of a run of doubles read in place from a
+     * buffer. The run holds the values of a range of the selection's
+     * indexes, starting at the first index.
+     *
+     * @param values the buffer, read in its byte order
+     * @param offset byte offset of the first value
+     * @param count number of values
+     * @param selection selection of the values to sum
+     * @param firstIndex index in the selection of the first value
+     * @return the sum of the selected values
+     */
+    public static double maskedSum(ByteBuffer values, int offset, int count, Selection selection, int firstIndex) {
+
+        checkRange(values, offset, count);
+        if (firstIndex < 0 || firstIndex + count > selection.size()) {
+            throw new IllegalArgumentException("selection does not cover the values!");
+        }
+
+        return KERNELS.maskedSum(values, offset, count, selection.getWords(), firstIndex);
+    }
+
+    /**
+     * Sets the bit of each value in a range that compares to a threshold.
+     * Bit i of the words stands for index i of the values.
+     *
+     * @param values the values
+     * @param from first index, inclusive
+     * @param to last index, exclusive
+     * @param comparison the comparison
+     * @param threshold the threshold
+     * @param words selection words covering the values
+     */
+    static void compareMask(double[] values, int from, int to, Query.Comparison comparison, double threshold,
+                            long[] words) {
+        checkRange(values, from, to);
+        checkWords(words, from, to - from);
+        KERNELS.compareMask(values, from, to, comparison, threshold, words);
+    }
+
+    /**
+     * Clears the bit of each value in a range that is zero. Bit i of the
+     * words stands for index i of the values.
+     *
+     * @param values the values
+     * @param from first index, inclusive
+     * @param to last index, exclusive
+     * @param words selection words covering the values
+     */
+    static void clearZeroMask(int[] values, int from, int to, long[] words) {
+
+        if (from < 0 || to > values.length || from > to) {
+            throw new IndexOutOfBoundsException("range [" + from + ", " + to + ") outside of " + values.length);
+        }
+
+        checkWords(words, from, to - from);
+        KERNELS.clearZeroMask(values, from, to, words);
+    }
+
+    /**
+     * Sets the bit of each double of a run read in place from a buffer that
+     * compares to a threshold. The run holds the values of a range of the
+     * indexes the words cover, starting at the first index.
+     *
+     * @param values the buffer, read in its byte order
+     * @param offset byte offset of the first value
+     * @param count number of values
+     * @param comparison the comparison
+     * @param threshold the threshold
+     * @param words selection words covering the values
+     * @param firstIndex index in the words of the first value
+     */
+    static void compareMask(ByteBuffer values, int offset, int count, Query.Comparison comparison, double threshold,
+                            long[] words, int firstIndex) {
+        checkRange(values, offset, count);
+        checkWords(words, firstIndex, count);
+        KERNELS.compareMask(values, offset, count, comparison, threshold, words, firstIndex);
+    }
+
+    /**
+     * Clears the bit of each int of a run read in place from a buffer that
+     * is zero. The run holds the values of a range of the indexes the words
+     * cover, starting at the first index.
+     *
+     * @param values the buffer, read in its byte order
+     * @param offset byte offset of the first value
+     * @param count number of values
+     * @param words selection words covering the values
+     * @param firstIndex index in the words of the first value
+     */
+    static void clearZeroMask(ByteBuffer values, int offset, int count, long[] words, int firstIndex) {
+
+        if (offset < 0 || count < 0 || offset + ((long) count * Integer.BYTES) > values.limit()) {
+            throw new IndexOutOfBoundsException("run of " + count + " values at " + offset + " outside of "
+                    + values.limit() + " bytes");
+        }
+
+        checkWords(words, firstIndex, count);
+        KERNELS.clearZeroMask(values, offset, count, words, firstIndex);
+    }
+
+    /**
+     * @return if the vector kernels are in use
+     */
+    public static boolean isVectorised() {
+        return !(KERNELS instanceof ScalarKernels);
+    }
+
+    /**
+     * Loads the vector kernels if they were compiled, the vector module is
+     * available and the JDK is one they are written against, or the scalar
+     * kernels otherwise. The vector kernels are loaded by name since they are
+     * compiled apart from this class, so that it compiles and links without
+     * the module.
+     * <p>
+     * The incubating API changes between JDKs, and a method missing from it
+     * is only found when a kernel first calls it, so every kernel is run once
+     * and checked against the scalar kernels before the vector kernels are
+     * used.
+     *
+     * @return the kernels
+     */
+    private static AggregateKernels loadKernels() {
+
+        ScalarKernels scalarKernels = new ScalarKernels();
+        int feature = Runtime.version().feature();
+
+        if (feature >= FIRST_VECTOR_JDK && feature <= LAST_VECTOR_JDK &&
+                ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+            try {
+                AggregateKernels vectorKernels = (AggregateKernels) Class.forName("rainfall.VectorKernels")
+                        .getDeclaredConstructor().newInstance();
+                if (isSameAs(vectorKernels, scalarKernels)) {
+                    return vectorKernels;
+                }
+            } catch (ReflectiveOperationException | LinkageError | RuntimeException err) {
+                // fall through to the scalar kernels
+            }
+        }
+
+        return scalarKernels;
+    }
+
+    /**
+     * Runs every kernel of two sets of kernels over the same values. The
+     * values are halves, which add up exactly in any order, so both sets
+     * must give the same results.
+     *
+     * @param kernels the kernels to check
+     * @param expectedKernels the kernels giving the expected results
+     * @return if every kernel gives the expected result
+     */
+    private static boolean isSameAs(AggregateKernels kernels, AggregateKernels expectedKernels) {
+
+        double[] values = new double[CHECK_VALUES];
+        ByteBuffer buffer = ByteBuffer.allocate(CHECK_VALUES * Double.BYTES);
+        long[] words = new long[Selection.wordCount(CHECK_VALUES)];
+
+        for (int i = 0; i < CHECK_VALUES; i++) {
+            values[i] = (i % 7) * 0.5;
+            buffer.putDouble(i * Double.BYTES, values[i]);
+            if (i % 3 != 0) {
+                words[i >>> 6] |= 1L << i;
+            }
+        }
+
+        double threshold = 1.5;
+        int count = CHECK_VALUES;
+
+        int[] days = new int[CHECK_VALUES];
+        ByteBuffer dayBuffer = ByteBuffer.allocate(CHECK_VALUES * Integer.BYTES);
+        for (int i = 0; i < CHECK_VALUES; i++) {
+            days[i] = i % 5;
+            dayBuffer.putInt(i * Integer.BYTES, days[i]);
+        }
+
+        for (Query.Comparison comparison : Query.Comparison.values()) {
+
+            long[] mask = new long[words.length];
+            long[] expectedMask = new long[words.length];
+            kernels.compareMask(values, 0, count, comparison, threshold, mask);
+            kernels.clearZeroMask(days, 0, count, mask);
+            expectedKernels.compareMask(values, 0, count, comparison, threshold, expectedMask);
+            expectedKernels.clearZeroMask(days, 0, count, expectedMask);
+
+            long[] bufferMask = new long[words.length];
+            kernels.compareMask(buffer, 0, count, comparison, threshold, bufferMask, 0);
+            kernels.clearZeroMask(dayBuffer, 0, count, bufferMask, 0);
+
+            if (!Arrays.equals(mask, expectedMask) || !Arrays.equals(bufferMask, expectedMask)) {
+                return false;
+            }
+        }
+
+        return kernels.sum(values, 0, count) == expectedKernels.sum(values, 0, count) &&
+                kernels.min(values, 1, count) == expectedKernels.min(values, 1, count) &&
+                kernels.max(values, 0, count) == expectedKernels.max(values, 0, count) &&
+                kernels.countAbove(values, 0, count, threshold) ==
+                        expectedKernels.countAbove(values, 0, count, threshold) &&
+                kernels.maskedSum(values, words) == expectedKernels.maskedSum(values, words) &&
+                kernels.sum(buffer, 0, count) == expectedKernels.sum(buffer, 0, count) &&
+                kernels.max(buffer, 0, count) == expectedKernels.max(buffer, 0, count) &&
+                kernels.countAbove(buffer, 0, count, threshold) ==
+                        expectedKernels.countAbove(buffer, 0, count, threshold) &&
+                kernels.maskedSum(buffer, 0, count, words, 0) == expectedKernels.maskedSum(buffer, 0, count, words, 0);
+    }
+
+    /**
+     * Throws if a range does not lie within the values.
+     *
+     * @param values the values
+     * @param from first index, inclusive
+     * @param to last index, exclusive
+     */
+    private static void checkRange(double[] values, int from, int to) {
+        if (from < 0 || to > values.length || from > to) {
+            throw new IndexOutOfBoundsException("range [" + from + ", " + to + ") outside of " + values.length);
+        }
+    }
+
+    /**
+     * Throws if selection words do not cover a range of indexes.
+     *
+     * @param words the selection words
+     * @param firstIndex first index of the range
+     * @param count number of indexes in the range
+     */
+    private static void checkWords(long[] words, int firstIndex, int count) {
+        if (firstIndex < 0 || firstIndex + count > words.length * 64L) {
+            throw new IllegalArgumentException("selection does not cover the values!");
+        }
+    }
+
+    /**
+     * Throws if a run of doubles does not lie within a buffer.
+     *
+     * @param values the buffer
+     * @param offset byte offset of the first value
+     * @param count number of values
+     */
+    private static void checkRange(ByteBuffer values, int offset, int count) {
+        if (offset < 0 || count < 0 || offset + ((long) count * Double.BYTES) > values.limit()) {
+            throw new IndexOutOfBoundsException("run of " + count + " values at " + offset + " outside of "
+                    + values.limit() + " bytes");
+        }
+    }
+}
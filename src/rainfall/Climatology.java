@@ -0,0 +1,58 @@
+package rainfall;
+
+/**
+ * A Climatology keeps the long-term mean rainfall of each calendar month so
+ * that a month can be compared with what is normal for it. Values can be
+ * added at any time and the means always reflect everything added so far.
+ *
+ * @author Owen Herbert
+ */
+public class Climatology {
+
+    private static final int MONTHS_IN_YEAR = 12;
+
+    private final double[] sums = new double[MONTHS_IN_YEAR]; // total rainfall of each calendar month
+    private final int[] counts = new int[MONTHS_IN_YEAR]; // number of values added for each calendar month
+
+    /**
+     * Adds the rainfall of a month to the climatology.
+     *
+     * @param month the calendar month, 1 to 12
+     * @param value the rainfall of the month
+     */
+    public void add(int month, double value) {
+        sums[month - 1] += value;
+        counts[month - 1]++;
+    }
+
+    /**
+     * Returns the long-term mean rainfall of a calendar month, or NaN if no
+     * values have been added for it.
+     *
+     * @param month the calendar month, 1 to 12
+     * @return the long-term mean rainfall
+     */
+    public double getMean(int month) {
+        return counts[month - 1] == 0 ? Double.NaN : sums[month - 1] / counts[month - 1];
+    }
+
+    /**
+     * Returns the departure of a value from the long-term mean of its
+     * calendar month.
+     *
+     * @param month the calendar month, 1 to 12
+     * @param value the rainfall of the month
+     * @return the departure from the long-term mean
+     */
+    public double getAnomaly(int month, double value) {
+        return value - getMean(month);
+    }
+
+    /**
+     * @param month the calendar month, 1 to 12
+     * @return the number of values added for the calendar month
+     */
+    public int getCount(int month) {
+        return counts[month - 1];
+    }
+}
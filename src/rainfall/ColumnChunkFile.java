@@ -0,0 +1,686 @@
+package rainfall;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A ColumnChunkFile stores the monthly records and daily readings of a
+ * station in fixed size row groups with a columnar layout, so analytics jobs
+ * can read back a few decades without reading the whole file. Each row group
+ * has a zone map with the row count, year range and the minimum, maximum and
+ * sum of its rainfall, and the zone maps are kept together in a footer. A
+ * {@link Reader} reads only the footer when opened, and skips every row group
+ * whose zone map cannot satisfy a {@link Filter} without reading its bytes.
+ * The monthly row groups are laid out as {@link MonthlyColumns} store their
+ * columns off heap, so a station can map them in place.
+ * <p>
+ * File layout, big endian:
+ * <pre>
+ * magic, format version, station name
+ * monthly row groups: years, months, totals, mins, maxs, observed days, missing days
+ * daily row groups: rainfall of consecutive days
+ * footer: monthly zone maps, daily zone maps with the first day of each group
+ * footer offset, magic
+ * </pre>
+ *
+ * @author Owen Herbert
+ */
+public class ColumnChunkFile {
+
+    public static final String FILE_SUFFIX = "_columns.bin"; // suffix of column chunk files
+    public static final int MONTHLY_GROUP_ROWS = 240; // monthly records in each row group, 20 years
+    public static final int DAILY_GROUP_ROWS = 3660; // daily readings in each row group, about 10 years
+
+    private static final int MAGIC = 0x52434346; // "RCCF"
+    private static final int FORMAT_VERSION = 1;
+    private static final int TRAILER_BYTES = Long.BYTES + Integer.BYTES; // footer offset and magic
+    private static final String PART_FILE_SUFFIX = ".part"; // suffix of a file being written
+
+    /**
+     * Writes the records of a station, and its daily readings if they are
+     * known, to a column chunk file. The file is written beside the target
+     * and then moved over it, so a station still mapping the old file keeps
+     * reading the old file rather than one truncated under it.
+     *
+     * @param station the station
+     * @param filePath the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Station station, Path filePath) throws IOException {
+
+        StationSnapshot snapshot = station.getSnapshot();
+        MonthlyColumns columns = snapshot.getMonthlyColumns();
+        DailySeries dailySeries = snapshot.getDailySeries();
+
+        // the monthly row groups are laid out as stored columns, so the file can be mapped as columns
+        ByteBuffer monthlyGroups = ByteBuffer.allocate((int) MonthlyColumns.getStoreBytes(columns.size()));
+        columns.copyTo(monthlyGroups);
+
+        ArrayList<ZoneMap> monthlyZoneMaps = new ArrayList<>();
+        ArrayList<ZoneMap> dailyZoneMaps = new ArrayList<>();
+
+        Path directory = filePath.toAbsolutePath().getParent();
+        Path partFile = Files.createTempFile(directory, filePath.getFileName().toString(), PART_FILE_SUFFIX);
+
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(partFile.toFile())))) {
+
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+            output.writeUTF(station.getName());
+
+            // monthly row groups, one column after another
+            for (int from = 0; from < columns.size(); from += MONTHLY_GROUP_ROWS) {
+
+                int to = Math.min(columns.size(), from + MONTHLY_GROUP_ROWS);
+                long offset = output.size();
+
+                output.write(monthlyGroups.array(), (int) MonthlyColumns.getStoreBytes(from),
+                        (int) MonthlyColumns.getStoreBytes(to - from));
+
+                // months without data have no rainfall to bound
+                ZoneMap zoneMap = new ZoneMap(offset, output.size() - offset, to - from, 0,
+                        columns.getYear(from), columns.getYear(to - 1));
+                for (int i = from; i < to; i++) {
+                    if (columns.getObservedDays(i) != 0) {
+                        zoneMap.include(columns.getTotal(i));
+                    }
+                }
+                monthlyZoneMaps.add(zoneMap);
+            }
+
+            // daily row groups of consecutive days, missing days are stored as NaN
+            if (dailySeries != null) {
+
+                double[] readings = dailySeries.toArray();
+                long startEpochDay = dailySeries.getStartDate().toEpochDay();
+
+                for (int from = 0; from < readings.length; from += DAILY_GROUP_ROWS) {
+
+                    int to = Math.min(readings.length, from + DAILY_GROUP_ROWS);
+                    long offset = output.size();
+
+                    writeDoubles(output, readings, from, to);
+
+                    ZoneMap zoneMap = new ZoneMap(offset, output.size() - offset, to - from, startEpochDay + from,
+                            LocalDate.ofEpochDay(startEpochDay + from).getYear(),
+                            LocalDate.ofEpochDay(startEpochDay + to - 1).getYear());
+                    for (int i = from; i < to; i++) {
+                        if (!Double.isNaN(readings[i])) {
+                            zoneMap.include(readings[i]);
+                        }
+                    }
+                    dailyZoneMaps.add(zoneMap);
+                }
+            }
+
+            // footer of zone maps, located from the trailer
+            long footerOffset = output.size();
+            writeZoneMaps(output, monthlyZoneMaps);
+            writeZoneMaps(output, dailyZoneMaps);
+
+            output.writeLong(footerOffset);
+            output.writeInt(MAGIC);
+        } catch (IOException err) {
+            Files.deleteIfExists(partFile);
+            throw err;
+        }
+
+        try {
+            Files.move(partFile, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException err) {
+            Files.deleteIfExists(partFile);
+            throw err;
+        }
+    }
+
+    /**
+     * Opens a column chunk file and reads its footer.
+     *
+     * @param filePath the file to read
+     * @return a reader of the file
+     * @throws IOException if the file cannot be read or is not a column chunk file
+     */
+    public static Reader open(Path filePath) throws IOException {
+        return new Reader(filePath);
+    }
+
+    /**
+     * Writes a range of a double column.
+     *
+     * @param output the output
+     * @param column the column
+     * @param from first row, inclusive
+     * @param to last row, exclusive
+     * @throws IOException if the output cannot be written
+     */
+    private static void writeDoubles(DataOutputStream output, double[] column, int from, int to)
+            throws IOException {
+        for (int i = from; i < to; i++) {
+            output.writeDouble(column[i]);
+        }
+    }
+
+    /**
+     * Writes a list of zone maps preceded by its length.
+     *
+     * @param output the output
+     * @param zoneMaps the zone maps
+     * @throws IOException if the output cannot be written
+     */
+    private static void writeZoneMaps(DataOutputStream output, List<ZoneMap> zoneMaps) throws IOException {
+
+        output.writeInt(zoneMaps.size());
+        for (ZoneMap zoneMap : zoneMaps) {
+            output.writeLong(zoneMap.offset);
+            output.writeLong(zoneMap.length);
+            output.writeInt(zoneMap.rows);
+            output.writeLong(zoneMap.firstEpochDay);
+            output.writeInt(zoneMap.minYear);
+            output.writeInt(zoneMap.maxYear);
+            output.writeDouble(zoneMap.minRainfall);
+            output.writeDouble(zoneMap.maxRainfall);
+            output.writeDouble(zoneMap.sumRainfall);
+        }
+    }
+
+    /**
+     * A ZoneMap summarises a row group so that it can be skipped without
+     * being read. The rainfall of a monthly group is its monthly totals.
+     */
+    public static class ZoneMap {
+
+        private final long offset; // offset of the group in the file
+        private final long length; // length in bytes of the group
+        private final int rows; // number of rows in the group
+        private final long firstEpochDay; // epoch day of the first row of a daily group, 0 for monthly groups
+        private final int minYear; // first year in the group
+        private final int maxYear; // last year in the group
+        private double minRainfall = Double.NaN; // smallest rainfall with data, NaN if none
+        private double maxRainfall = Double.NaN; // largest rainfall with data, NaN if none
+        private double sumRainfall; // sum of rainfall with data
+
+        ZoneMap(long offset, long length, int rows, long firstEpochDay, int minYear, int maxYear) {
+            this.offset = offset;
+            this.length = length;
+            this.rows = rows;
+            this.firstEpochDay = firstEpochDay;
+            this.minYear = minYear;
+            this.maxYear = maxYear;
+        }
+
+        ZoneMap(long offset, long length, int rows, long firstEpochDay, int minYear, int maxYear,
+                double minRainfall, double maxRainfall, double sumRainfall) {
+            this(offset, length, rows, firstEpochDay, minYear, maxYear);
+            this.minRainfall = minRainfall;
+            this.maxRainfall = maxRainfall;
+            this.sumRainfall = sumRainfall;
+        }
+
+        /**
+         * Widens the rainfall bounds and sum to include a value with data.
+         *
+         * @param rainfall the rainfall
+         */
+        private void include(double rainfall) {
+            minRainfall = Double.isNaN(minRainfall) ? rainfall : Math.min(minRainfall, rainfall);
+            maxRainfall = Double.isNaN(maxRainfall) ? rainfall : Math.max(maxRainfall, rainfall);
+            sumRainfall += rainfall;
+        }
+
+        /**
+         * @return the number of rows in the group
+         */
+        public int getRows() {
+            return rows;
+        }
+
+        /**
+         * @return the first year in the group
+         */
+        public int getMinYear() {
+            return minYear;
+        }
+
+        /**
+         * @return the last year in the group
+         */
+        public int getMaxYear() {
+            return maxYear;
+        }
+
+        /**
+         * @return the smallest rainfall with data, NaN if the group has no data
+         */
+        public double getMinRainfall() {
+            return minRainfall;
+        }
+
+        /**
+         * @return the largest rainfall with data, NaN if the group has no data
+         */
+        public double getMaxRainfall() {
+            return maxRainfall;
+        }
+
+        /**
+         * @return the sum of rainfall with data
+         */
+        public double getSumRainfall() {
+            return sumRainfall;
+        }
+    }
+
+    /**
+     * A Filter selects rows by year range and a rainfall threshold. It is
+     * tested against zone maps to skip row groups, and against rows to select
+     * them within the groups that are read.
+     */
+    public static class Filter {
+
+        private final int fromYear; // first year selected, inclusive
+        private final int toYear; // last year selected, inclusive
+        private final double threshold; // rainfall must be above this, negative infinity for no threshold
+
+        private Filter(int fromYear, int toYear, double threshold) {
+            this.fromYear = fromYear;
+            this.toYear = toYear;
+            this.threshold = threshold;
+        }
+
+        /**
+         * @return a filter selecting every row
+         */
+        public static Filter all() {
+            return new Filter(Integer.MIN_VALUE, Integer.MAX_VALUE, Double.NEGATIVE_INFINITY);
+        }
+
+        /**
+         * @param fromYear first year of the range, inclusive
+         * @param toYear last year of the range, inclusive
+         * @return a filter selecting rows within a range of years
+         */
+        public static Filter yearBetween(int fromYear, int toYear) {
+            return new Filter(fromYear, toYear, Double.NEGATIVE_INFINITY);
+        }
+
+        /**
+         * @param threshold the threshold in mm
+         * @return this filter, also selecting only rows with rainfall above a threshold
+         */
+        public Filter rainfallAbove(double threshold) {
+            return new Filter(fromYear, toYear, Math.max(this.threshold, threshold));
+        }
+
+        /**
+         * Checks if a row group may hold selected rows, returns boolean.
+         *
+         * @param zoneMap zone map of the row group
+         * @return if the group may hold selected rows
+         */
+        public boolean mayMatch(ZoneMap zoneMap) {
+
+            boolean isYearOverlapping = zoneMap.maxYear >= fromYear && zoneMap.minYear <= toYear;
+            boolean isThresholdReachable = threshold == Double.NEGATIVE_INFINITY
+                    || (!Double.isNaN(zoneMap.maxRainfall) && zoneMap.maxRainfall > threshold);
+
+            return isYearOverlapping && isThresholdReachable;
+        }
+
+        /**
+         * Checks if every row with data in a row group is selected, returns
+         * boolean.
+         *
+         * @param zoneMap zone map of the row group
+         * @return if the whole group is selected
+         */
+        public boolean coversAll(ZoneMap zoneMap) {
+            return zoneMap.minYear >= fromYear && zoneMap.maxYear <= toYear
+                    && (threshold == Double.NEGATIVE_INFINITY || zoneMap.minRainfall > threshold);
+        }
+
+        /**
+         * Checks if a row is selected, returns boolean.
+         *
+         * @param year year of the row
+         * @param rainfall rainfall of the row, NaN if it has no data
+         * @return if the row is selected
+         */
+        public boolean matches(int year, double rainfall) {
+            return year >= fromYear && year <= toYear
+                    && (threshold == Double.NEGATIVE_INFINITY || rainfall > threshold);
+        }
+    }
+
+    /**
+     * A DailyVisitor accepts the daily readings selected by a filter.
+     */
+    public interface DailyVisitor {
+
+        /**
+         * @param epochDay epoch day of the reading
+         * @param rainfall rainfall in mm, NaN if the day has no reading
+         */
+        void accept(long epochDay, double rainfall);
+    }
+
+    /**
+     * A Reader reads the row groups of a column chunk file that may satisfy a
+     * filter. Only the footer is read when the file is opened. A reader is not
+     * safe to share between threads.
+     */
+    public static class Reader implements AutoCloseable {
+
+        private final FileChannel channel; // channel of the file
+        private final String stationName; // name of the station in the file
+        private final List<ZoneMap> monthlyZoneMaps; // zone map of each monthly row group
+        private final List<ZoneMap> dailyZoneMaps; // zone map of each daily row group
+        private int groupsRead; // row groups read since the reader was opened
+        private int groupsSkipped; // row groups skipped since the reader was opened
+
+        private Reader(Path filePath) throws IOException {
+
+            channel = FileChannel.open(filePath, StandardOpenOption.READ);
+
+            try {
+
+                long fileSize = channel.size();
+                if (fileSize < TRAILER_BYTES) {
+                    throw new IOException("not a column chunk file!");
+                }
+
+                ByteBuffer trailer = readFully(fileSize - TRAILER_BYTES, TRAILER_BYTES);
+                long footerOffset = trailer.getLong();
+                if (trailer.getInt() != MAGIC || footerOffset < 0 || footerOffset > fileSize - TRAILER_BYTES) {
+                    throw new IOException("not a column chunk file!");
+                }
+
+                // the header is at most the magic, version and the longest modified utf-8 string
+                ByteBuffer header = readFully(0, (int) Math.min(footerOffset, (Integer.BYTES * 2) + 2 + 65535));
+                DataInputStream headerInput = new DataInputStream(new ByteArrayInputStream(header.array()));
+                if (headerInput.readInt() != MAGIC || headerInput.readInt() != FORMAT_VERSION) {
+                    throw new IOException("unsupported column chunk file!");
+                }
+                stationName = headerInput.readUTF();
+
+                ByteBuffer footer = readFully(footerOffset, (int) (fileSize - TRAILER_BYTES - footerOffset));
+                monthlyZoneMaps = readZoneMaps(footer);
+                dailyZoneMaps = readZoneMaps(footer);
+            } catch (IOException | RuntimeException err) {
+                channel.close();
+                throw err;
+            }
+        }
+
+        /**
+         * Reads the monthly records selected by a filter, in file order. The
+         * filter's rainfall threshold applies to the monthly total.
+         *
+         * @param filter the filter
+         * @return the selected records
+         * @throws IOException if the file cannot be read
+         */
+        public List<Record> readMonthlyRecords(Filter filter) throws IOException {
+
+            ArrayList<Record> records = new ArrayList<>();
+
+            for (ZoneMap zoneMap : monthlyZoneMaps) {
+
+                if (!filter.mayMatch(zoneMap)) {
+                    groupsSkipped++;
+                    continue;
+                }
+
+                ByteBuffer group = readGroup(zoneMap);
+                int rows = zoneMap.rows;
+
+                // column offsets within the group
+                int monthsOffset = rows * Integer.BYTES;
+                int totalsOffset = monthsOffset + (rows * Integer.BYTES);
+                int minsOffset = totalsOffset + (rows * Double.BYTES);
+                int maxsOffset = minsOffset + (rows * Double.BYTES);
+                int observedOffset = maxsOffset + (rows * Double.BYTES);
+                int missingOffset = observedOffset + (rows * Integer.BYTES);
+
+                for (int i = 0; i < rows; i++) {
+
+                    int year = group.getInt(i * Integer.BYTES);
+                    int observedDays = group.getInt(observedOffset + (i * Integer.BYTES));
+                    double total = group.getDouble(totalsOffset + (i * Double.BYTES));
+
+                    if (filter.matches(year, observedDays == 0 ? Double.NaN : total)) {
+                        records.add(new Record(year, group.getInt(monthsOffset + (i * Integer.BYTES)), total,
+                                group.getDouble(minsOffset + (i * Double.BYTES)),
+                                group.getDouble(maxsOffset + (i * Double.BYTES)), observedDays,
+                                group.getInt(missingOffset + (i * Integer.BYTES)), null));
+                    }
+                }
+            }
+
+            return records;
+        }
+
+        /**
+         * Visits the daily readings selected by a filter, in date order. Days
+         * without a reading are only visited when the filter has no rainfall
+         * threshold.
+         *
+         * @param filter the filter
+         * @param visitor the visitor of the selected readings
+         * @throws IOException if the file cannot be read
+         */
+        public void readDaily(Filter filter, DailyVisitor visitor) throws IOException {
+
+            for (ZoneMap zoneMap : dailyZoneMaps) {
+
+                if (!filter.mayMatch(zoneMap)) {
+                    groupsSkipped++;
+                    continue;
+                }
+
+                ByteBuffer group = readGroup(zoneMap);
+
+                // the year only changes at a year boundary, so it is not derived for every day
+                LocalDate date = LocalDate.ofEpochDay(zoneMap.firstEpochDay);
+                int year = date.getYear();
+                long nextYearEpochDay = LocalDate.of(year + 1, 1, 1).toEpochDay();
+
+                for (int i = 0; i < zoneMap.rows; i++) {
+
+                    long epochDay = zoneMap.firstEpochDay + i;
+                    if (epochDay == nextYearEpochDay) {
+                        year++;
+                        nextYearEpochDay = LocalDate.of(year + 1, 1, 1).toEpochDay();
+                    }
+
+                    double rainfall = group.getDouble(i * Double.BYTES);
+                    if (filter.matches(year, rainfall)) {
+                        visitor.accept(epochDay, rainfall);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Sums the monthly totals selected by a filter. Row groups the filter
+         * covers entirely are answered from their zone maps without being
+         * read.
+         *
+         * @param filter the filter
+         * @return the total rainfall of the selected records
+         * @throws IOException if the file cannot be read
+         */
+        public double sumMonthlyTotals(Filter filter) throws IOException {
+
+            double sum = 0;
+            ArrayList<ZoneMap> partialGroups = new ArrayList<>();
+
+            for (ZoneMap zoneMap : monthlyZoneMaps) {
+                if (!filter.mayMatch(zoneMap)) {
+                    groupsSkipped++;
+                } else if (filter.coversAll(zoneMap)) {
+                    groupsSkipped++;
+                    sum += zoneMap.sumRainfall;
+                } else {
+                    partialGroups.add(zoneMap);
+                }
+            }
+
+            // only the groups at the edges of the filter are read
+            for (ZoneMap zoneMap : partialGroups) {
+
+                ByteBuffer group = readGroup(zoneMap);
+                int totalsOffset = zoneMap.rows * Integer.BYTES * 2;
+                int observedOffset = totalsOffset + (zoneMap.rows * Double.BYTES * 3);
+
+                for (int i = 0; i < zoneMap.rows; i++) {
+
+                    int year = group.getInt(i * Integer.BYTES);
+                    double total = group.getDouble(totalsOffset + (i * Double.BYTES));
+                    boolean hasData = group.getInt(observedOffset + (i * Integer.BYTES)) != 0;
+
+                    if (hasData && filter.matches(year, total)) {
+                        sum += total;
+                    }
+                }
+            }
+
+            return sum;
+        }
+
+        /**
+         * Maps the monthly row groups of the file into memory as columns,
+         * read in place. The mapping stays valid once the reader is closed.
+         *
+         * @return the monthly columns of the file
+         * @throws IOException if the file cannot be mapped or its row groups are not back to back
+         */
+        MonthlyColumns mapMonthlyColumns() throws IOException {
+
+            int size = 0;
+            long firstOffset = monthlyZoneMaps.isEmpty() ? 0 : monthlyZoneMaps.get(0).offset;
+            ZoneMap lastZoneMap = monthlyZoneMaps.isEmpty() ? null : monthlyZoneMaps.get(monthlyZoneMaps.size() - 1);
+
+            for (ZoneMap zoneMap : monthlyZoneMaps) {
+                boolean isInPlace = zoneMap.offset == firstOffset + MonthlyColumns.getStoreBytes(size)
+                        && zoneMap.length == MonthlyColumns.getStoreBytes(zoneMap.rows)
+                        && (zoneMap.rows == MONTHLY_GROUP_ROWS || zoneMap == lastZoneMap);
+                if (!isInPlace) {
+                    throw new IOException("column chunk file cannot be mapped!");
+                }
+                size += zoneMap.rows;
+            }
+
+            long bytes = MonthlyColumns.getStoreBytes(size);
+            if (bytes > Integer.MAX_VALUE) {
+                throw new IOException("column chunk file cannot be mapped!");
+            }
+
+            return new MonthlyColumns(size, channel.map(FileChannel.MapMode.READ_ONLY, firstOffset, bytes));
+        }
+
+        /**
+         * @return the name of the station in the file
+         */
+        public String getStationName() {
+            return stationName;
+        }
+
+        /**
+         * @return the zone map of each monthly row group
+         */
+        public List<ZoneMap> getMonthlyZoneMaps() {
+            return monthlyZoneMaps;
+        }
+
+        /**
+         * @return the zone map of each daily row group, empty if the days are unknown
+         */
+        public List<ZoneMap> getDailyZoneMaps() {
+            return dailyZoneMaps;
+        }
+
+        /**
+         * @return the number of row groups read since the reader was opened
+         */
+        public int getGroupsRead() {
+            return groupsRead;
+        }
+
+        /**
+         * @return the number of row groups skipped since the reader was opened
+         */
+        public int getGroupsSkipped() {
+            return groupsSkipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        /**
+         * Reads the bytes of a row group.
+         *
+         * @param zoneMap zone map of the row group
+         * @return the bytes of the group
+         * @throws IOException if the file cannot be read
+         */
+        private ByteBuffer readGroup(ZoneMap zoneMap) throws IOException {
+            groupsRead++;
+            return readFully(zoneMap.offset, (int) zoneMap.length);
+        }
+
+        /**
+         * Reads a range of the file.
+         *
+         * @param position offset of the range
+         * @param length length of the range in bytes
+         * @return the bytes of the range, ready to be read
+         * @throws IOException if the file cannot be read
+         */
+        private ByteBuffer readFully(long position, int length) throws IOException {
+
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("column chunk file is truncated!");
+                }
+            }
+
+            return buffer.flip();
+        }
+
+        /**
+         * Reads a list of zone maps preceded by its length.
+         *
+         * @param footer the footer, positioned at the list
+         * @return the zone maps
+         */
+        private static List<ZoneMap> readZoneMaps(ByteBuffer footer) {
+
+            int count = footer.getInt();
+            ArrayList<ZoneMap> zoneMaps = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                zoneMaps.add(new ZoneMap(footer.getLong(), footer.getLong(), footer.getInt(), footer.getLong(),
+                        footer.getInt(), footer.getInt(), footer.getDouble(), footer.getDouble(),
+                        footer.getDouble()));
+            }
+
+            return zoneMaps;
+        }
+    }
+}
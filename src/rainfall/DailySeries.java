@@ -0,0 +1,577 @@
+package rainfall;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * A DailySeries is a compressed, read only series of daily rainfall readings
+ * for consecutive days. Readings are quantised to 0.1 mm and split into
+ * blocks of {@link #BLOCK_DAYS} days. Within a block, runs of dry days are
+ * stored as a single run length and wet days as the zigzag delta from the
+ * previous wet day, both as variable length integers, so a mostly dry series
+ * takes a few hundred bytes per year rather than eight bytes per day.
+ * <p>
+ * Each block has a header with the sum, minimum and maximum of its readings.
+ * Aggregates over whole blocks are answered from the headers without decoding,
+ * and reading any single day decodes at most one block.
+ * <p>
+ * Days without a reading are marked in a bitmap with one bit per day. They are
+ * encoded as dry days so that they cost nothing in the blocks, but they are
+ * excluded from the minimum and maximum and read back as NaN.
+ * <p>
+ * The encoded blocks and the bitmap can be copied out of the heap with
+ * {@link #copyTo}, leaving only the small block headers on the heap.
+ *
+ * @author Owen Herbert
+ */
+public class DailySeries {
+
+    public static final int BLOCK_DAYS = 256; // number of days in a block
+    private static final double QUANTUM = 10; // quanta per mm, readings are stored in tenths of a mm
+
+    private final long startEpochDay; // epoch day of the first reading
+    private final int size; // number of days in the series
+    private final ByteBuffer data; // encoded blocks, back to back
+    private final int[] blockOffsets; // offset of each block in the data, plus the end offset
+    private final long[] blockSums; // sum of each block in tenths of a mm
+    private final int[] blockMins; // minimum of each block in tenths of a mm
+    private final int[] blockMaxs; // maximum of each block in tenths of a mm
+    private final LongBuffer missing; // bitmap of days without a reading
+
+    private DailySeries(Builder builder) {
+        this.startEpochDay = builder.startEpochDay;
+        this.size = builder.size;
+        this.data = ByteBuffer.wrap(Arrays.copyOf(builder.data, builder.dataLength));
+        this.blockOffsets = Arrays.copyOf(builder.blockOffsets, builder.blockCount + 1);
+        this.blockSums = Arrays.copyOf(builder.blockSums, builder.blockCount);
+        this.blockMins = Arrays.copyOf(builder.blockMins, builder.blockCount);
+        this.blockMaxs = Arrays.copyOf(builder.blockMaxs, builder.blockCount);
+        this.missing = LongBuffer.wrap(Arrays.copyOf(builder.missing, (builder.size + 63) >>> 6));
+    }
+
+    /**
+     * Shares the block headers of a series but reads its encoded blocks and
+     * bitmap from a store.
+     *
+     * @param series the series
+     * @param data the encoded blocks
+     * @param missing the bitmap of days without a reading
+     */
+    private DailySeries(DailySeries series, ByteBuffer data, LongBuffer missing) {
+        this.startEpochDay = series.startEpochDay;
+        this.size = series.size;
+        this.data = data;
+        this.blockOffsets = series.blockOffsets;
+        this.blockSums = series.blockSums;
+        this.blockMins = series.blockMins;
+        this.blockMaxs = series.blockMaxs;
+        this.missing = missing;
+    }
+
+    /**
+     * @return the bytes needed to store the encoded blocks and bitmap off heap
+     */
+    long getStoreBytes() {
+        return (missing.capacity() * (long) Long.BYTES) + data.capacity();
+    }
+
+    /**
+     * Copies the bitmap and encoded blocks into a store of
+     * {@link #getStoreBytes} bytes, such as a direct or mapped buffer, and
+     * returns a series that reads from it. The store should start on an
+     * eight byte boundary.
+     *
+     * @param store the store, which is written from index zero
+     * @return the series read from the store
+     */
+    DailySeries copyTo(ByteBuffer store) {
+
+        int missingBytes = missing.capacity() * Long.BYTES;
+
+        LongBuffer storeMissing = store.slice(0, missingBytes).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+        storeMissing.put(0, missing, 0, missing.capacity());
+
+        ByteBuffer storeData = store.slice(missingBytes, data.capacity());
+        storeData.put(0, data, 0, data.capacity());
+
+        return new DailySeries(this, storeData, storeMissing);
+    }
+
+    /**
+     * Copies the bitmap and encoded blocks of a series held off heap back
+     * onto the heap.
+     *
+     * @return the series read from the heap
+     */
+    DailySeries copyToHeap() {
+
+        LongBuffer heapMissing = LongBuffer.allocate(missing.capacity());
+        heapMissing.put(0, missing, 0, missing.capacity());
+
+        ByteBuffer heapData = ByteBuffer.allocate(data.capacity());
+        heapData.put(0, data, 0, data.capacity());
+
+        return new DailySeries(this, heapData, heapMissing);
+    }
+
+    /**
+     * @return if the encoded blocks are held off heap
+     */
+    public boolean isOffHeap() {
+        return data.isDirect();
+    }
+
+    /**
+     * @return the number of days in the series
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the date of the first day in the series
+     */
+    public LocalDate getStartDate() {
+        return LocalDate.ofEpochDay(startEpochDay);
+    }
+
+    /**
+     * Returns the index of a date in the series, which may be outside of the
+     * series.
+     *
+     * @param date the date
+     * @return the index of the date
+     */
+    public int indexOf(LocalDate date) {
+        return (int) (date.toEpochDay() - startEpochDay);
+    }
+
+    /**
+     * Returns the rainfall of a single day, decoding only the block that
+     * holds it.
+     *
+     * @param index index of the day
+     * @return the rainfall in mm, NaN if the day has no reading
+     */
+    public double get(int index) {
+
+        checkIndex(index);
+
+        if (isMissing(index)) {
+            return Double.NaN;
+        }
+
+        int[] block = new int[BLOCK_DAYS];
+        decodeBlock(index / BLOCK_DAYS, block);
+
+        return block[index % BLOCK_DAYS] / QUANTUM;
+    }
+
+    /**
+     * @param index index of the day
+     * @return if the day has no reading
+     */
+    public boolean isMissing(int index) {
+        checkIndex(index);
+        return (missing.get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    /**
+     * Counts the days without a reading in a range from the bitmap.
+     *
+     * @param from first day index, inclusive
+     * @param to last day index, exclusive
+     * @return the number of days without a reading
+     */
+    public int countMissing(int from, int to) {
+
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("range [" + from + ", " + to + ") outside of " + size);
+        }
+
+        int count = 0;
+        for (int i = from; i < to; ) {
+
+            // count whole words at once where the range allows it
+            int bit = i & 63;
+            int span = Math.min(64 - bit, to - i);
+            long bits = missing.get(i >>> 6) >>> bit;
+            count += Long.bitCount(span == 64 ? bits : bits & ((1L << span) - 1));
+            i += span;
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the sum of the rainfall of a range of days. Whole blocks are
+     * summed from their headers and only the partial blocks at either end
+     * are decoded.
+     *
+     * @param from first day index, inclusive
+     * @param to last day index, exclusive
+     * @return the sum in mm
+     */
+    public double sum(int from, int to) {
+        return aggregate(from, to, Aggregate.SUM);
+    }
+
+    /**
+     * @param from first day index, inclusive
+     * @param to last day index, exclusive
+     * @return the smallest daily rainfall in mm in the range, NaN if it is empty
+     */
+    public double min(int from, int to) {
+        return aggregate(from, to, Aggregate.MIN);
+    }
+
+    /**
+     * @param from first day index, inclusive
+     * @param to last day index, exclusive
+     * @return the largest daily rainfall in mm in the range, NaN if it is empty
+     */
+    public double max(int from, int to) {
+        return aggregate(from, to, Aggregate.MAX);
+    }
+
+    /**
+     * Adds the readings of a range of days to a sketch in date order, skipping
+     * days without a reading. Each block in the range is decoded once.
+     *
+     * @param sketch the sketch
+     * @param from first day index, inclusive
+     * @param to last day index, exclusive
+     */
+    void addTo(QuantileSketch sketch, int from, int to) {
+
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("range [" + from + ", " + to + ") outside of " + size);
+        } else if (from == to) {
+            return;
+        }
+
+        int[] block = new int[BLOCK_DAYS];
+        for (int b = from / BLOCK_DAYS; b <= (to - 1) / BLOCK_DAYS; b++) {
+
+            int blockStart = b * BLOCK_DAYS;
+            decodeBlock(b, block);
+
+            for (int i = Math.max(from, blockStart); i < Math.min(to, blockStart + BLOCK_DAYS); i++) {
+                if ((missing.get(i >>> 6) & (1L << i)) == 0) {
+                    sketch.add(block[i - blockStart] / QUANTUM);
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes the whole series into an array, for use with {@link Aggregates}.
+     *
+     * @return the rainfall in mm of every day, NaN for days without a reading
+     */
+    public double[] toArray() {
+
+        double[] values = new double[size];
+        int[] block = new int[BLOCK_DAYS];
+
+        for (int b = 0; b < blockSums.length; b++) {
+            int count = decodeBlock(b, block);
+            for (int i = 0; i < count; i++) {
+                int index = (b * BLOCK_DAYS) + i;
+                boolean isMissing = (missing.get(index >>> 6) & (1L << index)) != 0;
+                values[index] = isMissing ? Double.NaN : block[i] / QUANTUM;
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * @return the number of bytes used by the encoded blocks and their headers
+     */
+    public long getEncodedBytes() {
+        return data.capacity() + (blockOffsets.length * 4L) + (blockSums.length * 16L) + (missing.capacity() * 8L);
+    }
+
+    /**
+     * The aggregates that can be answered from block headers.
+     */
+    private enum Aggregate { SUM, MIN, MAX }
+
+    /**
+     * Aggregates a range of days, using block headers for whole blocks and
+     * decoding partial blocks.
+     *
+     * @param from first day index, inclusive
+     * @param to last day index, exclusive
+     * @param aggregate the aggregate
+     * @return the aggregate in mm
+     */
+    private double aggregate(int from, int to, Aggregate aggregate) {
+
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("range [" + from + ", " + to + ") outside of " + size);
+        } else if (from == to) {
+            return aggregate == Aggregate.SUM ? 0 : Double.NaN;
+        }
+
+        long sum = 0;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        int[] block = null;
+
+        for (int b = from / BLOCK_DAYS; b <= (to - 1) / BLOCK_DAYS; b++) {
+
+            int blockStart = b * BLOCK_DAYS;
+            int blockEnd = Math.min(size, blockStart + BLOCK_DAYS);
+
+            if (from <= blockStart && to >= blockEnd) {
+                sum += blockSums[b];
+                min = Math.min(min, blockMins[b]);
+                max = Math.max(max, blockMaxs[b]);
+                continue;
+            }
+
+            if (block == null) {
+                block = new int[BLOCK_DAYS];
+            }
+            decodeBlock(b, block);
+
+            for (int i = Math.max(from, blockStart); i < Math.min(to, blockEnd); i++) {
+                if ((missing.get(i >>> 6) & (1L << i)) == 0) {
+                    int value = block[i - blockStart];
+                    sum += value;
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                }
+            }
+        }
+
+        // the minimum and maximum are unset if every day in the range is missing
+        return switch (aggregate) {
+            case SUM -> sum / QUANTUM;
+            case MIN -> min == Integer.MAX_VALUE ? Double.NaN : min / QUANTUM;
+            case MAX -> max == Integer.MIN_VALUE ? Double.NaN : max / QUANTUM;
+        };
+    }
+
+    /**
+     * Decodes a block into an array of readings in tenths of a mm.
+     *
+     * @param b index of the block
+     * @param out array of at least {@link #BLOCK_DAYS} readings
+     * @return the number of days in the block
+     */
+    private int decodeBlock(int b, int[] out) {
+
+        int position = blockOffsets[b];
+        int end = blockOffsets[b + 1];
+        int day = 0;
+        int previous = 0;
+
+        while (position < end) {
+
+            // read a variable length token
+            int token = 0;
+            int shift = 0;
+            byte next;
+            do {
+                next = data.get(position++);
+                token |= (next & 0x7F) << shift;
+                shift += 7;
+            } while (next < 0);
+
+            if ((token & 1) == 1) {
+                int run = token >>> 1;
+                Arrays.fill(out, day, day + run, 0);
+                day += run;
+            } else {
+                int zigzag = token >>> 1;
+                previous += (zigzag >>> 1) ^ -(zigzag & 1);
+                out[day++] = previous;
+            }
+        }
+
+        return day;
+    }
+
+    /**
+     * Throws if a day index is outside of the series.
+     *
+     * @param index index of the day
+     */
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("day " + index + " outside of " + size);
+        }
+    }
+
+    /**
+     * A Builder encodes readings into a DailySeries as they are added, one
+     * block at a time.
+     */
+    public static class Builder {
+
+        private long startEpochDay; // epoch day of the first reading
+        private int size; // number of days added
+        private byte[] data = new byte[1024]; // encoded blocks
+        private int dataLength; // number of bytes of encoded blocks
+        private int[] blockOffsets = new int[16]; // offset of each block in the data
+        private long[] blockSums = new long[16]; // sum of each block
+        private int[] blockMins = new int[16]; // minimum of each block
+        private int[] blockMaxs = new int[16]; // maximum of each block
+        private long[] missing = new long[16]; // bitmap of days without a reading
+        private int blockCount; // number of blocks started
+        private int dryRun; // length of the open run of dry days in the current block
+        private int previous; // previous wet reading in the current block
+
+        /**
+         * Adds the reading of a day. Days must be added in date order, and
+         * any days skipped since the previous reading are added as missing.
+         *
+         * @param epochDay epoch day of the reading
+         * @param rainfall rainfall in mm, NaN if the day has no reading
+         */
+        public void add(long epochDay, double rainfall) {
+
+            if (size == 0) {
+                startEpochDay = epochDay;
+            }
+
+            long index = epochDay - startEpochDay;
+            if (index < size) {
+                throw new IllegalArgumentException("readings must be added in date order!");
+            }
+
+            while (size < index) {
+                appendMissing();
+            }
+
+            if (Double.isNaN(rainfall)) {
+                appendMissing();
+            } else {
+                append((int) Math.round(rainfall * QUANTUM));
+            }
+        }
+
+        /**
+         * @return the number of days added
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Finishes encoding and returns the series.
+         *
+         * @return the daily series
+         */
+        public DailySeries build() {
+            flushDryRun();
+            blockOffsets[blockCount] = dataLength;
+            return new DailySeries(this);
+        }
+
+        /**
+         * Appends the next day, starting a new block when the current one is
+         * full.
+         *
+         * @param value the reading in tenths of a mm
+         */
+        private void append(int value) {
+
+            if (size % BLOCK_DAYS == 0) {
+                startBlock();
+            }
+
+            int b = blockCount - 1;
+            blockSums[b] += value;
+            blockMins[b] = Math.min(blockMins[b], value);
+            blockMaxs[b] = Math.max(blockMaxs[b], value);
+
+            if (value == 0) {
+                dryRun++;
+            } else {
+                flushDryRun();
+                int delta = value - previous;
+                writeToken(((delta << 1) ^ (delta >> 31)) << 1);
+                previous = value;
+            }
+
+            size++;
+        }
+
+        /**
+         * Appends the next day as missing. It is encoded as a dry day but
+         * kept out of the block minimum and maximum.
+         */
+        private void appendMissing() {
+
+            if (size % BLOCK_DAYS == 0) {
+                startBlock();
+            }
+
+            if ((size >>> 6) >= missing.length) {
+                missing = Arrays.copyOf(missing, Math.max(missing.length * 2, (size >>> 6) + 1));
+            }
+            missing[size >>> 6] |= 1L << size;
+
+            dryRun++;
+            size++;
+        }
+
+        /**
+         * Closes the current block and starts a new one.
+         */
+        private void startBlock() {
+
+            flushDryRun();
+            previous = 0;
+
+            if (blockCount + 1 >= blockOffsets.length) {
+                int capacity = blockOffsets.length * 2;
+                blockOffsets = Arrays.copyOf(blockOffsets, capacity);
+                blockSums = Arrays.copyOf(blockSums, capacity);
+                blockMins = Arrays.copyOf(blockMins, capacity);
+                blockMaxs = Arrays.copyOf(blockMaxs, capacity);
+            }
+
+            blockOffsets[blockCount] = dataLength;
+            blockSums[blockCount] = 0;
+            blockMins[blockCount] = Integer.MAX_VALUE;
+            blockMaxs[blockCount] = Integer.MIN_VALUE;
+            blockCount++;
+        }
+
+        /**
+         * Writes the open run of dry days, if any.
+         */
+        private void flushDryRun() {
+            if (dryRun > 0) {
+                writeToken((dryRun << 1) | 1);
+                dryRun = 0;
+            }
+        }
+
+        /**
+         * Writes a token as a variable length integer, seven bits per byte.
+         *
+         * @param token the token
+         */
+        private void writeToken(int token) {
+
+            if (dataLength + 5 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+
+            while ((token & ~0x7F) != 0) {
+                data[dataLength++] = (byte) ((token & 0x7F) | 0x80);
+                token >>>= 7;
+            }
+            data[dataLength++] = (byte) token;
+        }
+    }
+}
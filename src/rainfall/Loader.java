@@ -1,9 +1,17 @@
 package rainfall;
 
-import textio.TextIO;
-
 import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Paths;
+import java.time.DateTimeException;
+import java.time.LocalDate;
 import java.time.Year;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
 
 /**
  * The Loader is responsible for converting raw BOM csv files
@@ -14,11 +22,16 @@ import java.time.Year;
 public class Loader {
 
     // indexes used in raw bom csv file
-    private static final int IDX_BOM_YEAR = 2, IDX_BOM_MONTH = 3, IDX_BOM_RAINFALL = 5;
+    private static final int IDX_BOM_YEAR = 2, IDX_BOM_MONTH = 3, IDX_BOM_DAY = 4, IDX_BOM_RAINFALL = 5,
+            IDX_BOM_QUALITY = 7;
 
     // indexes used in analysed rainfall csv file
     private static final int IDX_ANALYSED_YEAR = 0, IDX_ANALYSED_MONTH = 1, IDX_ANALYSED_TOTAL = 2,
-            IDX_ANALYSED_MIN = 3, IDX_ANALYSED_MAX = 4;
+            IDX_ANALYSED_MIN = 3, IDX_ANALYSED_MAX = 4, IDX_ANALYSED_OBSERVED = 5, IDX_ANALYSED_MISSING = 6;
+
+    // partial stations are published at most once per interval, checked every few rows
+    private static final int PROGRESS_CHECK_ROWS = 1024; // rows read between checks of the clock
+    private static final long PROGRESS_INTERVAL_NANOS = 200_000_000L; // least time between partial stations
 
     /**
      * Loads the analysed rainfall csv file of a given station into a Station
@@ -31,6 +44,27 @@ public class Loader {
      * @return a station
      */
     public static Station load(String directoryName, String stationName) throws LoaderException {
+        return load(directoryName, stationName, null);
+    }
+
+    /**
+     * Loads a station as {@link #load(String, String)} does, publishing the
+     * months read so far to the station every few hundred milliseconds and
+     * telling the listener, so that a large file can be shown while it is
+     * still being read. Raw files publish only the months that are complete.
+     * The returned station holds every record, exactly as a load without a
+     * listener would.
+     *
+     * @param directoryName name of the directory
+     * @param stationName name of the BOM station
+     * @param listener told about each partial station, or null
+     * @throws LoaderException if an error occurs
+     * @return a station
+     */
+    public static Station load(String directoryName, String stationName, ProgressListener listener)
+            throws LoaderException {
+
+        LoaderPhaseEvent openEvent = LoaderPhaseEvent.begin("open", stationName);
 
         if (directoryName.length() < 1) {
             throw new LoaderException("directory name required!");
@@ -39,133 +73,329 @@ public class Loader {
         }
 
         String analysedFilePath = "./" + directoryName + "/" + stationName + "_analysed.csv";
-        String rawFilePath = "./" + directoryName + "/" + stationName + ".csv";
-
         File analysedCSVFile = new File(analysedFilePath);
-        File rawCSVFile = new File(rawFilePath);
+        File rawFile = RawInput.findRawFile(directoryName, stationName); // plain or compressed raw file
 
         Station station = new Station(stationName); // station to load statistics into
+        Station.Batch batch = station.batch(); // records read so far, published together
+        RawAccumulator rawAccumulator = new RawAccumulator(batch); // aggregates raw daily readings
+        ProgressPublisher progressPublisher = new ProgressPublisher(station, batch, listener); // publishes partials
 
         // throw an exception if neither analysed or raw csv files exist
-        if (!analysedCSVFile.exists() && !rawCSVFile.exists()) {
+        if (!analysedCSVFile.exists() && rawFile == null) {
             throw new LoaderException("file does not exist!");
         }
 
-        // what file path to read from
-        String filePath = analysedCSVFile.exists() ? analysedFilePath : rawFilePath;
+        // what file to read from
+        File file = analysedCSVFile.exists() ? analysedCSVFile : rawFile;
+
+        long fileBytes = file.length();
+        openEvent.complete(0, fileBytes);
 
-        TextIO.readFile(filePath);
+        // rows are aggregated into records as they are parsed, so the parse phase includes aggregation
+        LoaderPhaseEvent parseEvent = LoaderPhaseEvent.begin("parse", stationName);
+        long rowCount = 0; // number of rows read including the header row
 
         boolean isHeaderRow = true; // if loop is encountering the header row
 
-        while (!TextIO.eof()) {
+        // files are read with a reader of their own so that stations can be loaded on any thread
+        try (RawInput.LineSource reader = RawInput.open(file)) {
 
-            String rawRow = TextIO.getln();
-            String[] rowColumns = rawRow.split(",", -1);
+            String rawRow; // current row of the file
+            while ((rawRow = reader.readLine()) != null) {
 
-            // skip header row
-            if (isHeaderRow) {
-                isHeaderRow = false;
-                continue;
-            }
+                rowCount++;
+                String[] rowColumns = rawRow.split(",", -1);
 
-            // check year and month data
-            int yearIndex = analysedCSVFile.exists() ? IDX_ANALYSED_YEAR : IDX_BOM_YEAR;
-            int monthIndex = analysedCSVFile.exists() ? IDX_ANALYSED_MONTH : IDX_BOM_MONTH;
+                // skip header row
+                if (isHeaderRow) {
+                    isHeaderRow = false;
+                    continue;
+                }
 
-            try {
+                // check year and month data
+                int yearIndex = analysedCSVFile.exists() ? IDX_ANALYSED_YEAR : IDX_BOM_YEAR;
+                int monthIndex = analysedCSVFile.exists() ? IDX_ANALYSED_MONTH : IDX_BOM_MONTH;
 
-                int recordYear = Integer.parseInt(rowColumns[yearIndex]);
-                int recordMonth = Integer.parseInt(rowColumns[monthIndex]);
+                try {
 
-                if (!isYearValid(recordYear)) {
-                    throw new LoaderException("invalid value for record year!");
-                } else if (!isMonthValid(recordMonth)) {
-                    throw new LoaderException("invalid value for record month!");
+                    int recordYear = Integer.parseInt(rowColumns[yearIndex]);
+                    int recordMonth = Integer.parseInt(rowColumns[monthIndex]);
+
+                    if (!isYearValid(recordYear)) {
+                        throw new LoaderException("invalid value for record year!");
+                    } else if (!isMonthValid(recordMonth)) {
+                        throw new LoaderException("invalid value for record month!");
+                    }
+
+                    // handle analysed and raw csv files differently
+                    if (analysedCSVFile.exists()) {
+
+                        // convert columns to suitable types
+                        double recordTotalRainfall = Double.parseDouble(rowColumns[IDX_ANALYSED_TOTAL]);
+                        double recordMinRainfall = Double.parseDouble(rowColumns[IDX_ANALYSED_MIN]);
+                        double recordMaxRainfall = Double.parseDouble(rowColumns[IDX_ANALYSED_MAX]);
+
+                        // analysed files written before coverage was tracked have no coverage columns
+                        int recordObservedDays = Record.COVERAGE_UNKNOWN;
+                        int recordMissingDays = Record.COVERAGE_UNKNOWN;
+                        if (rowColumns.length > IDX_ANALYSED_MISSING) {
+                            recordObservedDays = Integer.parseInt(rowColumns[IDX_ANALYSED_OBSERVED]);
+                            recordMissingDays = Integer.parseInt(rowColumns[IDX_ANALYSED_MISSING]);
+                        }
+
+                        // create new record object
+                        Record record = new Record(recordYear, recordMonth, recordTotalRainfall,
+                                recordMinRainfall, recordMaxRainfall, recordObservedDays, recordMissingDays, null);
+
+                        batch.put(Record.makeKey(recordYear, recordMonth), record);
+                    } else {
+
+                        // convert columns to suitable types, blank readings are missing rather than dry
+                        int recordDay = Integer.parseInt(rowColumns[IDX_BOM_DAY]);
+                        double recordRainfall = parseRainfall(rowColumns[IDX_BOM_RAINFALL]);
+
+                        rawAccumulator.accept(recordYear, recordMonth, recordDay, recordRainfall);
+                    }
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException err) {
+                    throw new LoaderException("nonnumerical value encountered!");
+                } catch (DateTimeException err) {
+                    throw new LoaderException("invalid value for record day!");
                 }
 
-                // key to identify year distinct months
-                String yearMonthKey = Record.makeKey(recordYear, recordMonth);
+                progressPublisher.rowRead();
+            }
+        } catch (IOException err) {
+            throw new LoaderException("file could not be read!");
+        }
 
-                // handle analysed and raw csv files differently
-                if (analysedCSVFile.exists()) {
+        parseEvent.complete(rowCount, fileBytes);
+        station.setSourceSize(rowCount, fileBytes);
 
-                    // convert columns to suitable types
-                    double recordTotalRainfall = Double.parseDouble(rowColumns[IDX_ANALYSED_TOTAL]);
-                    double recordMinRainfall = Double.parseDouble(rowColumns[IDX_ANALYSED_MIN]);
-                    double recordMaxRainfall = Double.parseDouble(rowColumns[IDX_ANALYSED_MAX]);
+        LoaderPhaseEvent aggregateEvent = LoaderPhaseEvent.begin("aggregate", stationName);
 
-                    // create new record object
-                    Record record = new Record(recordYear, recordMonth, recordTotalRainfall,
-                            recordMinRainfall, recordMaxRainfall);
+        // spells and daily readings are only known when a raw file was read
+        if (!analysedCSVFile.exists()) {
+            rawAccumulator.finish();
+        }
+        batch.commit();
 
-                    station.put(yearMonthKey, record);
-                } else {
+        // check if station records are empty
+        if (station.isEmpty()) {
+            throw new LoaderException("no rainfall data found!");
+        }
 
-                    // convert columns to suitable types
-                    double recordRainfall = (rowColumns[IDX_BOM_RAINFALL].length() > 0) ?
-                            Double.parseDouble(rowColumns[IDX_BOM_RAINFALL]) : 0;
+        aggregateEvent.complete(station.size(), 0);
 
-                    if (station.containsKey(yearMonthKey)) {
+        // write analysed csv file
+        if (!analysedCSVFile.exists() && !station.isEmpty()) {
+            writeAnalysedFiles(station, directoryName, stationName);
+        }
 
-                        Record existingRecord = station.get(yearMonthKey);
-                        double totalRainfall = existingRecord.getRainfallTotal();
+        moveToConfiguredStorage(station, directoryName, stationName);
 
-                        // check if the minimum rainfall statistic needs to be updated
-                        if (recordRainfall < existingRecord.getRainfallMin()) {
-                            existingRecord.setRainfallMin(recordRainfall);
-                        }
+        return station;
+    }
 
-                        // check if the maximum rainfall statistic needs to be updated
-                        if (recordRainfall > existingRecord.getRainfallMax()) {
-                            existingRecord.setRainfallMax(recordRainfall);
-                        }
+    /**
+     * Loads several raw BOM csv files of the same station into one Station
+     * object and returns it, such as overlapping extracts of different
+     * periods. The files are merged in a single streaming pass ordered by
+     * date, holding one row of each file at a time, so memory does not grow
+     * with the number or length of the files. Each file must be in date
+     * order. When files share a day, the duplicate policy picks the reading
+     * that is kept. The analysed csv file of the station is rewritten from
+     * the merged readings.
+     *
+     * @param directoryName name of the directory
+     * @param stationName name of the station to load the readings into
+     * @param rawFileNames names of the raw csv files in the directory, oldest extract first
+     * @param duplicatePolicy how duplicate days are resolved
+     * @throws LoaderException if an error occurs
+     * @return a station
+     */
+    public static Station loadMerged(String directoryName, String stationName, List<String> rawFileNames,
+                                     DuplicatePolicy duplicatePolicy) throws LoaderException {
 
-                        totalRainfall += recordRainfall;
-                        existingRecord.setRainfallTotal(totalRainfall);
+        LoaderPhaseEvent openEvent = LoaderPhaseEvent.begin("open", stationName);
 
-                    } else {
+        if (directoryName.length() < 1) {
+            throw new LoaderException("directory name required!");
+        } else if (stationName.length() < 1) {
+            throw new LoaderException("station name required!");
+        } else if (rawFileNames.isEmpty()) {
+            throw new LoaderException("raw file names required!");
+        }
+
+        Station station = new Station(stationName); // station to load statistics into
+        Station.Batch batch = station.batch(); // records merged so far, published together
+        RawAccumulator rawAccumulator = new RawAccumulator(batch); // aggregates merged daily readings
+
+        // the cursor with the earliest day, then the earliest file, is at the head
+        PriorityQueue<RawFileCursor> cursors = new PriorityQueue<>(rawFileNames.size(),
+                Comparator.comparingLong(RawFileCursor::getEpochDay).thenComparingInt(RawFileCursor::getFileIndex));
+        ArrayList<RawFileCursor> openCursors = new ArrayList<>(rawFileNames.size());
+        long fileBytes = 0;
+
+        try {
+
+            for (int i = 0; i < rawFileNames.size(); i++) {
+
+                File rawFile = new File("./" + directoryName + "/" + rawFileNames.get(i));
+                if (!rawFile.exists()) {
+                    throw new LoaderException("file does not exist!");
+                }
+
+                RawFileCursor cursor = new RawFileCursor(rawFile, i);
+                openCursors.add(cursor);
+                fileBytes += rawFile.length();
+
+                if (cursor.advance()) {
+                    cursors.add(cursor);
+                }
+            }
 
-                        Record newRecord = new Record(recordYear, recordMonth, recordRainfall,
-                                recordRainfall, recordRainfall);
+            openEvent.complete(0, fileBytes);
 
-                        station.put(yearMonthKey, newRecord);
+            LoaderPhaseEvent parseEvent = LoaderPhaseEvent.begin("parse", stationName);
+
+            ArrayList<RawFileCursor> sameDayCursors = new ArrayList<>(rawFileNames.size());
+            while (!cursors.isEmpty()) {
+
+                // gather every file that has a reading for the earliest day
+                long epochDay = cursors.peek().getEpochDay();
+                sameDayCursors.clear();
+                while (!cursors.isEmpty() && cursors.peek().getEpochDay() == epochDay) {
+                    sameDayCursors.add(cursors.poll());
+                }
+
+                RawFileCursor chosenCursor = sameDayCursors.get(0);
+                for (RawFileCursor cursor : sameDayCursors) {
+                    if (duplicatePolicy.prefers(cursor, chosenCursor)) {
+                        chosenCursor = cursor;
                     }
                 }
-            } catch (NumberFormatException err) {
-                throw new LoaderException("nonnumerical value encountered!");
+
+                rawAccumulator.accept(chosenCursor.getYear(), chosenCursor.getMonth(), chosenCursor.getDay(),
+                        chosenCursor.getRainfall());
+
+                for (RawFileCursor cursor : sameDayCursors) {
+                    if (cursor.advance()) {
+                        cursors.add(cursor);
+                    }
+                }
+            }
+
+            long rowCount = 0;
+            for (RawFileCursor cursor : openCursors) {
+                rowCount += cursor.getRowCount();
+            }
+
+            parseEvent.complete(rowCount, fileBytes);
+            station.setSourceSize(rowCount, fileBytes);
+        } catch (IOException err) {
+            throw new LoaderException("file could not be read!");
+        } finally {
+            for (RawFileCursor cursor : openCursors) {
+                cursor.close();
             }
         }
 
+        LoaderPhaseEvent aggregateEvent = LoaderPhaseEvent.begin("aggregate", stationName);
+
+        rawAccumulator.finish();
+        batch.commit();
+
         // check if station records are empty
-        if (station.values().isEmpty()) {
+        if (station.isEmpty()) {
             throw new LoaderException("no rainfall data found!");
         }
 
-        // write analysed csv file
-        if (!analysedCSVFile.exists() && !station.isEmpty()) {
-            writeAnalysedCSVFile(station, analysedFilePath);
-        }
+        aggregateEvent.complete(station.size(), 0);
+
+        writeAnalysedFiles(station, directoryName, stationName);
+        moveToConfiguredStorage(station, directoryName, stationName);
 
         return station;
     }
 
+    /**
+     * Moves the records and daily readings of a loaded station to the storage
+     * chosen by the {@link Station.Storage#PROPERTY} system property. Mapped
+     * storage maps the station's column chunk file in its directory.
+     *
+     * @param station the station
+     * @param directoryName name of the directory
+     * @param stationName name of the station
+     * @throws LoaderException if the storage is unknown or cannot be created
+     */
+    private static void moveToConfiguredStorage(Station station, String directoryName, String stationName)
+            throws LoaderException {
+
+        try {
+            station.moveOffHeap(Station.Storage.fromSystemProperty(),
+                    Paths.get(".", directoryName, stationName + ColumnChunkFile.FILE_SUFFIX));
+        } catch (IllegalArgumentException err) {
+            throw new LoaderException("unknown station storage!");
+        } catch (IOException err) {
+            throw new LoaderException("station store could not be created!");
+        }
+    }
+
+    /**
+     * Writes the analysed csv file and column chunk file of a station.
+     *
+     * @param station the station
+     * @param directoryName name of the directory
+     * @param stationName name of the station
+     * @throws LoaderException if a file cannot be written
+     */
+    private static void writeAnalysedFiles(Station station, String directoryName, String stationName)
+            throws LoaderException {
+
+        String analysedFilePath = "./" + directoryName + "/" + stationName + "_analysed.csv";
+
+        LoaderPhaseEvent writeEvent = LoaderPhaseEvent.begin("write", stationName);
+        writeAnalysedCSVFile(station, analysedFilePath);
+        writeColumnChunkFile(station, "./" + directoryName + "/" + stationName + ColumnChunkFile.FILE_SUFFIX);
+        writeEvent.complete(station.size(), new File(analysedFilePath).length());
+    }
+
     /**
      * Writes the provided station object to the specified file path.
      *
      * @param station the station
      * @param filePath the write location for the analysed file
+     * @throws LoaderException if the file cannot be written
      */
-    private static void writeAnalysedCSVFile(Station station, String filePath) {
+    private static void writeAnalysedCSVFile(Station station, String filePath) throws LoaderException {
 
         // write records to analysed csv file
-        TextIO.writeFile(filePath);
-        TextIO.putln(Record.CSV_HEADER);
-        for (Record record : station.values()) {
-            TextIO.putln(record.getCSVString());
+        try (PrintWriter writer = new PrintWriter(new FileWriter(filePath))) {
+            writer.println(Record.CSV_HEADER);
+            for (Record record : station.getRecordList()) {
+                writer.println(record.getCSVString());
+            }
+        } catch (IOException err) {
+            throw new LoaderException("analysed file could not be written!");
         }
+    }
 
-        TextIO.writeStandardOutput();
+    /**
+     * Writes the provided station object to a column chunk file beside its
+     * analysed csv file, with the daily readings when they are known.
+     *
+     * @param station the station
+     * @param filePath the write location for the column chunk file
+     * @throws LoaderException if the file cannot be written
+     */
+    private static void writeColumnChunkFile(Station station, String filePath) throws LoaderException {
+
+        try {
+            ColumnChunkFile.write(station, Paths.get(filePath));
+        } catch (IOException err) {
+            throw new LoaderException("column chunk file could not be written!");
+        }
     }
 
     /**
@@ -188,6 +418,353 @@ public class Loader {
         return month >= 1 && month <= 12;
     }
 
+    /**
+     * Parses the rainfall column of a raw BOM row, returns NaN if the reading
+     * is blank.
+     *
+     * @param column the rainfall column
+     * @return rainfall in mm, or NaN
+     */
+    private static double parseRainfall(String column) {
+        return column.length() > 0 ? Double.parseDouble(column) : Double.NaN;
+    }
+
+    /**
+     * The DuplicatePolicy decides which reading is kept when merged raw files
+     * share a day.
+     */
+    public enum DuplicatePolicy {
+
+        /**
+         * The reading of the file given last wins. A blank reading never
+         * replaces a reading.
+         */
+        LATEST_FILE,
+
+        /**
+         * A quality controlled reading wins over an unchecked reading, which
+         * wins over a blank reading. Ties go to the file given last.
+         */
+        QUALITY_FLAG;
+
+        /**
+         * Checks if a candidate reading is preferred over the chosen reading,
+         * returns boolean. Cursors are offered in file order.
+         *
+         * @param candidate cursor of the candidate reading
+         * @param chosen cursor of the reading chosen so far
+         * @return if the candidate is preferred
+         */
+        boolean prefers(RawFileCursor candidate, RawFileCursor chosen) {
+
+            int candidateRank = this == QUALITY_FLAG ? candidate.getQualityRank() : candidate.getPresenceRank();
+            int chosenRank = this == QUALITY_FLAG ? chosen.getQualityRank() : chosen.getPresenceRank();
+
+            return candidateRank > chosenRank
+                    || (candidateRank == chosenRank && candidate.getFileIndex() > chosen.getFileIndex());
+        }
+    }
+
+    /**
+     * The RawAccumulator aggregates raw daily readings into the monthly
+     * records of a station as they are read, along with the spells and the
+     * compressed daily series. Readings must be accepted in date order, so
+     * only the month being read is open. Its statistics are kept in mutable
+     * fields and the month is added to the station's batch as an immutable
+     * Record once the next month starts or the accumulator finishes.
+     */
+    private static class RawAccumulator {
+
+        private final Station.Batch batch; // batch to aggregate records into
+        private final SpellDetector spellDetector = new SpellDetector(); // detects spells in the readings
+        private final DailySeries.Builder dailySeriesBuilder = new DailySeries.Builder(); // encodes the readings
+        private long lastEpochDay = Long.MIN_VALUE; // epoch day of the last accepted reading
+
+        // statistics of the open month
+        private boolean isMonthOpen; // if a month has been started
+        private int year, month; // year and month of the open month
+        private double rainfallTotal; // total rainfall of the open month
+        private double rainfallMin, rainfallMax; // minimum and maximum rainfall, NaN until a day is observed
+        private int observedDays, missingDays; // days with a reading and days with a blank reading
+        private QuantileSketch dailyRainfallSketch; // sketch of the daily rainfall of the open month
+
+        RawAccumulator(Station.Batch batch) {
+            this.batch = batch;
+        }
+
+        /**
+         * Accepts the reading of the next day.
+         *
+         * @param recordYear year of the reading
+         * @param recordMonth month of the reading
+         * @param recordDay day of the month of the reading
+         * @param recordRainfall rainfall in mm, NaN if the day has no reading
+         * @throws LoaderException if the reading is before the previous reading
+         */
+        void accept(int recordYear, int recordMonth, int recordDay, double recordRainfall) throws LoaderException {
+
+            long recordEpochDay = LocalDate.of(recordYear, recordMonth, recordDay).toEpochDay();
+
+            if (recordEpochDay <= lastEpochDay) {
+                throw new LoaderException("rows are not in date order!");
+            }
+            lastEpochDay = recordEpochDay;
+
+            spellDetector.accept(recordEpochDay, recordRainfall);
+            dailySeriesBuilder.add(recordEpochDay, recordRainfall);
+
+            if (!isMonthOpen || recordYear != year || recordMonth != month) {
+                closeMonth();
+                openMonth(recordYear, recordMonth);
+            }
+
+            dailyRainfallSketch.add(recordRainfall);
+
+            if (Double.isNaN(recordRainfall)) {
+                missingDays++;
+                return;
+            }
+
+            // minimum and maximum stay NaN until the month has an observation
+            boolean isFirstObservation = observedDays == 0;
+            if (isFirstObservation || recordRainfall < rainfallMin) {
+                rainfallMin = recordRainfall;
+            }
+            if (isFirstObservation || recordRainfall > rainfallMax) {
+                rainfallMax = recordRainfall;
+            }
+
+            rainfallTotal += recordRainfall;
+            observedDays++;
+        }
+
+        /**
+         * Starts aggregating a new month.
+         *
+         * @param recordYear year of the month
+         * @param recordMonth month of the month
+         */
+        private void openMonth(int recordYear, int recordMonth) {
+            isMonthOpen = true;
+            year = recordYear;
+            month = recordMonth;
+            rainfallTotal = 0;
+            rainfallMin = Double.NaN;
+            rainfallMax = Double.NaN;
+            observedDays = 0;
+            missingDays = 0;
+            dailyRainfallSketch = new QuantileSketch();
+        }
+
+        /**
+         * Adds the open month to the batch as a record, if a month is open.
+         */
+        private void closeMonth() {
+
+            if (!isMonthOpen) {
+                return;
+            }
+
+            batch.put(Record.makeKey(year, month), new Record(year, month, rainfallTotal, rainfallMin,
+                    rainfallMax, observedDays, missingDays, dailyRainfallSketch));
+            isMonthOpen = false;
+        }
+
+        /**
+         * Adds the last month to the batch, closes any open spells and gives
+         * the batch the station's spells and daily series.
+         */
+        void finish() {
+            closeMonth();
+            spellDetector.finish();
+            batch.setSpellDetector(spellDetector);
+            batch.setDailySeries(dailySeriesBuilder.build());
+        }
+    }
+
+    /**
+     * A ProgressListener is told about the partial stations published while
+     * a station loads.
+     */
+    public interface ProgressListener {
+
+        /**
+         * Called on the loading thread each time more months have been
+         * published to the station. The station is the one that will be
+         * returned by the load, so its snapshots only ever grow.
+         *
+         * @param station the partially loaded station
+         */
+        void onProgress(Station station);
+    }
+
+    /**
+     * The ProgressPublisher commits the records read so far to the station
+     * once the progress interval has passed, and tells the listener.
+     */
+    private static class ProgressPublisher {
+
+        private final Station station; // station being loaded
+        private final Station.Batch batch; // records read since the last publish
+        private final ProgressListener listener; // listener to tell, or null
+        private long lastPublishNanos = System.nanoTime(); // time of the last publish, or of the start
+        private int rowsSinceCheck; // rows read since the clock was last checked
+
+        ProgressPublisher(Station station, Station.Batch batch, ProgressListener listener) {
+            this.station = station;
+            this.batch = batch;
+            this.listener = listener;
+        }
+
+        /**
+         * Counts a row, publishing the records read so far if the interval
+         * has passed and there are new records.
+         */
+        void rowRead() {
+
+            if (listener == null || ++rowsSinceCheck < PROGRESS_CHECK_ROWS) {
+                return;
+            }
+            rowsSinceCheck = 0;
+
+            long now = System.nanoTime();
+            if (now - lastPublishNanos >= PROGRESS_INTERVAL_NANOS && batch.size() > 0) {
+                batch.commit();
+                lastPublishNanos = now;
+                listener.onProgress(station);
+            }
+        }
+    }
+
+    /**
+     * A RawFileCursor reads the rows of a raw BOM csv file one at a time for
+     * a merge, holding only the current row.
+     */
+    private static class RawFileCursor {
+
+        private final RawInput.LineSource reader; // reader of the file
+        private final int fileIndex; // position of the file in the merge
+        private long rowCount; // number of rows read including the header row
+        private int year, month, day; // date of the current row
+        private long epochDay = Long.MIN_VALUE; // epoch day of the current row
+        private double rainfall; // rainfall of the current row, NaN if blank
+        private boolean isQualityControlled; // if the current row passed quality control
+
+        RawFileCursor(File rawFile, int fileIndex) throws IOException {
+
+            this.reader = RawInput.open(rawFile);
+            this.fileIndex = fileIndex;
+
+            // skip header row
+            if (reader.readLine() != null) {
+                rowCount++;
+            }
+        }
+
+        /**
+         * Moves to the next row of the file.
+         *
+         * @return if there was a next row
+         * @throws IOException if the file cannot be read
+         * @throws LoaderException if the row is invalid or before the previous row
+         */
+        boolean advance() throws IOException, LoaderException {
+
+            String rawRow = reader.readLine();
+            while (rawRow != null && rawRow.isEmpty()) {
+                rawRow = reader.readLine();
+            }
+
+            if (rawRow == null) {
+                return false;
+            }
+
+            rowCount++;
+            String[] rowColumns = rawRow.split(",", -1);
+
+            try {
+
+                year = Integer.parseInt(rowColumns[IDX_BOM_YEAR]);
+                month = Integer.parseInt(rowColumns[IDX_BOM_MONTH]);
+                day = Integer.parseInt(rowColumns[IDX_BOM_DAY]);
+
+                if (!isYearValid(year)) {
+                    throw new LoaderException("invalid value for record year!");
+                } else if (!isMonthValid(month)) {
+                    throw new LoaderException("invalid value for record month!");
+                }
+
+                long rowEpochDay = LocalDate.of(year, month, day).toEpochDay();
+                if (rowEpochDay <= epochDay) {
+                    throw new LoaderException("rows are not in date order!");
+                }
+
+                epochDay = rowEpochDay;
+                rainfall = parseRainfall(rowColumns[IDX_BOM_RAINFALL]);
+                isQualityControlled = rowColumns.length > IDX_BOM_QUALITY && "Y".equals(rowColumns[IDX_BOM_QUALITY]);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException err) {
+                throw new LoaderException("nonnumerical value encountered!");
+            } catch (DateTimeException err) {
+                throw new LoaderException("invalid value for record day!");
+            }
+
+            return true;
+        }
+
+        /**
+         * @return 1 if the current row has a reading, 0 if it is blank
+         */
+        int getPresenceRank() {
+            return Double.isNaN(rainfall) ? 0 : 1;
+        }
+
+        /**
+         * @return 2 for a quality controlled reading, 1 for an unchecked reading, 0 if blank
+         */
+        int getQualityRank() {
+            return Double.isNaN(rainfall) ? 0 : (isQualityControlled ? 2 : 1);
+        }
+
+        int getFileIndex() {
+            return fileIndex;
+        }
+
+        long getRowCount() {
+            return rowCount;
+        }
+
+        int getYear() {
+            return year;
+        }
+
+        int getMonth() {
+            return month;
+        }
+
+        int getDay() {
+            return day;
+        }
+
+        long getEpochDay() {
+            return epochDay;
+        }
+
+        double getRainfall() {
+            return rainfall;
+        }
+
+        /**
+         * Closes the file, ignoring errors as the merge is already over.
+         */
+        void close() {
+            try {
+                reader.close();
+            } catch (IOException ignored) {
+                // nothing left to read
+            }
+        }
+    }
+
     /**
      * The LoaderException is a custom exception that is thrown when the
      * loader class cannot load a raw or analysed BOM csv file.
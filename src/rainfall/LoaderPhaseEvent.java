@@ -0,0 +1,71 @@
+package rainfall;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A LoaderPhaseEvent is a Java Flight Recorder event that times one phase of
+ * {@link Loader#load}: opening the file, parsing its rows, aggregating what
+ * was parsed, or writing the analysed file. When no recording has the event
+ * enabled, beginning and completing it costs a couple of branches, so it can
+ * stay in production code.
+ *
+ * @author Owen Herbert
+ */
+@Name("rainfall.LoaderPhase")
+@Label("Loader Phase")
+@Category({"Rainfall", "Loader"})
+@Description("A phase of loading a rainfall station")
+@StackTrace(false)
+public class LoaderPhaseEvent extends Event {
+
+    @Label("Phase")
+    private String phase;
+
+    @Label("Station")
+    private String station;
+
+    @Label("Rows")
+    private long rows;
+
+    @Label("Bytes")
+    @DataAmount
+    private long bytes;
+
+    /**
+     * Creates and begins timing an event for a phase.
+     *
+     * @param phase name of the phase
+     * @param station name of the station
+     * @return the started event
+     */
+    static LoaderPhaseEvent begin(String phase, String station) {
+
+        LoaderPhaseEvent event = new LoaderPhaseEvent();
+        event.phase = phase;
+        event.station = station;
+        event.begin();
+
+        return event;
+    }
+
+    /**
+     * Stops timing the phase and commits the event if it is being recorded.
+     *
+     * @param rows number of rows handled in the phase
+     * @param bytes number of bytes handled in the phase
+     */
+    void complete(long rows, long bytes) {
+
+        if (shouldCommit()) {
+            this.rows = rows;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,452 @@
+package rainfall;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+/**
+ * MonthlyColumns holds the records of a station as primitive columns, one
+ * array per field, indexed in record order. Scans over a single field read
+ * one contiguous array instead of chasing a Record per month.
+ * <p>
+ * The columns can also be held off heap, in a direct buffer written by
+ * {@link #copyTo} or in the monthly row groups of a {@link ColumnChunkFile}
+ * mapped into memory, which share one layout: big endian row groups of
+ * {@link ColumnChunkFile#MONTHLY_GROUP_ROWS} records, each holding the years,
+ * months, totals, minimums, maximums, observed days and missing days of its
+ * records one column after another. Off heap columns are read in place by the
+ * element accessors, such as {@link #getTotal}, and by the total rainfall
+ * aggregates, such as {@link #sumTotals}; only their array getters copy.
+ *
+ * @author Owen Herbert
+ */
+public class MonthlyColumns {
+
+    private static final int GROUP_ROWS = ColumnChunkFile.MONTHLY_GROUP_ROWS; // records in each stored row group
+    // bytes of the stored columns before each column, per record of a row group
+    private static final int YEARS = 0, MONTHS = 4, OBSERVED = 32, MISSING = 36;
+    static final int TOTALS = 8, MINS = 16, MAXS = 24; // rainfall columns, which queries compare by
+    private static final int STORE_BYTES_PER_RECORD = 40; // bytes of one record across the stored columns
+
+    private final int size; // number of records
+    private final ByteBuffer store; // off heap row groups, null if the columns are arrays
+    private final int[] years; // year of each record
+    private final int[] months; // month of each record
+    private final double[] totals; // total rainfall of each record
+    private final double[] mins; // minimum daily rainfall of each record
+    private final double[] maxs; // maximum daily rainfall of each record
+    private final int[] observedDays; // number of days with a reading in each record
+    private final int[] missingDays; // number of days with a blank reading in each record
+
+    /**
+     * Copies the fields of the provided records into columns upon
+     * construction.
+     *
+     * @param records the records in order
+     */
+    public MonthlyColumns(List<Record> records) {
+
+        size = records.size();
+        store = null;
+        years = new int[size];
+        months = new int[size];
+        totals = new double[size];
+        mins = new double[size];
+        maxs = new double[size];
+        observedDays = new int[size];
+        missingDays = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            Record record = records.get(i);
+            years[i] = record.getYear();
+            months[i] = record.getMonth();
+            totals[i] = record.getRainfallTotal();
+            mins[i] = record.getRainfallMin();
+            maxs[i] = record.getRainfallMax();
+            observedDays[i] = record.getObservedDays();
+            missingDays[i] = record.getMissingDays();
+        }
+    }
+
+    /**
+     * Reads the columns in place from off heap row groups, such as those
+     * written by {@link #copyTo} or mapped from a column chunk file.
+     *
+     * @param size number of records
+     * @param store the row groups, in big endian order
+     */
+    MonthlyColumns(int size, ByteBuffer store) {
+        this.size = size;
+        this.store = store;
+        this.years = null;
+        this.months = null;
+        this.totals = null;
+        this.mins = null;
+        this.maxs = null;
+        this.observedDays = null;
+        this.missingDays = null;
+    }
+
+    /**
+     * @param size number of records
+     * @return the bytes of the row groups of that many records
+     */
+    static long getStoreBytes(int size) {
+        return (long) size * STORE_BYTES_PER_RECORD;
+    }
+
+    /**
+     * Copies the columns into row groups in a store of {@link #getStoreBytes}
+     * bytes, such as a direct buffer, and returns columns that read from it.
+     *
+     * @param store the store, which is written from index zero
+     * @return the columns read from the store
+     */
+    MonthlyColumns copyTo(ByteBuffer store) {
+
+        ByteBuffer target = store.order(ByteOrder.BIG_ENDIAN);
+
+        for (int i = 0; i < size; i++) {
+            target.putInt(offset(YEARS, Integer.BYTES, i), getYear(i));
+            target.putInt(offset(MONTHS, Integer.BYTES, i), getMonth(i));
+            target.putDouble(offset(TOTALS, Double.BYTES, i), getTotal(i));
+            target.putDouble(offset(MINS, Double.BYTES, i), getMin(i));
+            target.putDouble(offset(MAXS, Double.BYTES, i), getMax(i));
+            target.putInt(offset(OBSERVED, Integer.BYTES, i), getObservedDays(i));
+            target.putInt(offset(MISSING, Integer.BYTES, i), getMissingDays(i));
+        }
+
+        return new MonthlyColumns(size, target);
+    }
+
+    /**
+     * Checks if other columns hold the same months with the same coverage,
+     * and rainfall within a tolerance, returns boolean.
+     *
+     * @param other the other columns
+     * @param tolerance largest difference in mm between two rainfall values taken as the same
+     * @return if the columns hold the same records
+     */
+    boolean isSameAs(MonthlyColumns other, double tolerance) {
+
+        if (other.size != size) {
+            return false;
+        }
+
+        for (int i = 0; i < size; i++) {
+            boolean isSame = other.getYear(i) == getYear(i) && other.getMonth(i) == getMonth(i)
+                    && other.getObservedDays(i) == getObservedDays(i)
+                    && other.getMissingDays(i) == getMissingDays(i)
+                    && isSameRainfall(other.getTotal(i), getTotal(i), tolerance)
+                    && isSameRainfall(other.getMin(i), getMin(i), tolerance)
+                    && isSameRainfall(other.getMax(i), getMax(i), tolerance);
+
+            if (!isSame) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @param a a rainfall, NaN if unknown
+     * @param b another rainfall, NaN if unknown
+     * @param tolerance largest difference in mm taken as the same
+     * @return if both are unknown or they differ by at most the tolerance
+     */
+    private static boolean isSameRainfall(double a, double b, double tolerance) {
+        return Double.isNaN(a) ? Double.isNaN(b) : Math.abs(a - b) <= tolerance;
+    }
+
+    /**
+     * Returns the offset of a value in the store. Every row group but the
+     * last is full, so the group of a record and the length of its columns
+     * follow from the record's index.
+     *
+     * @param column the column, such as {@link #TOTALS}
+     * @param bytes size of the column's values
+     * @param index index of the record
+     * @return the offset in bytes
+     */
+    private int offset(int column, int bytes, int index) {
+
+        int groupStart = index - (index % GROUP_ROWS);
+        int groupRows = Math.min(GROUP_ROWS, size - groupStart);
+
+        return (groupStart * STORE_BYTES_PER_RECORD) + (column * groupRows) + ((index - groupStart) * bytes);
+    }
+
+    /**
+     * @return the number of records
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return if the columns are held off heap
+     */
+    public boolean isOffHeap() {
+        return store != null;
+    }
+
+    /**
+     * @param index index of the record
+     * @return the year of the record
+     */
+    public int getYear(int index) {
+        return store == null ? years[index] : store.getInt(offset(YEARS, Integer.BYTES, checkIndex(index)));
+    }
+
+    /**
+     * @param index index of the record
+     * @return the month of the record
+     */
+    public int getMonth(int index) {
+        return store == null ? months[index] : store.getInt(offset(MONTHS, Integer.BYTES, checkIndex(index)));
+    }
+
+    /**
+     * @param index index of the record
+     * @return the total rainfall of the record
+     */
+    public double getTotal(int index) {
+        return store == null ? totals[index] : store.getDouble(offset(TOTALS, Double.BYTES, checkIndex(index)));
+    }
+
+    /**
+     * @param index index of the record
+     * @return the minimum daily rainfall of the record
+     */
+    public double getMin(int index) {
+        return store == null ? mins[index] : store.getDouble(offset(MINS, Double.BYTES, checkIndex(index)));
+    }
+
+    /**
+     * @param index index of the record
+     * @return the maximum daily rainfall of the record
+     */
+    public double getMax(int index) {
+        return store == null ? maxs[index] : store.getDouble(offset(MAXS, Double.BYTES, checkIndex(index)));
+    }
+
+    /**
+     * @param index index of the record
+     * @return the number of days with a reading in the record
+     */
+    public int getObservedDays(int index) {
+        return store == null ? observedDays[index] :
+                store.getInt(offset(OBSERVED, Integer.BYTES, checkIndex(index)));
+    }
+
+    /**
+     * @param index index of the record
+     * @return the number of days with a blank reading in the record
+     */
+    public int getMissingDays(int index) {
+        return store == null ? missingDays[index] :
+                store.getInt(offset(MISSING, Integer.BYTES, checkIndex(index)));
+    }
+
+    /**
+     * @return the sum of the total rainfall of every record
+     */
+    public double sumTotals() {
+
+        if (store == null) {
+            return Aggregates.sum(totals);
+        }
+
+        double sum = 0;
+        for (int from = 0; from < size; from += GROUP_ROWS) {
+            int rows = Math.min(GROUP_ROWS, size - from);
+            sum += Aggregates.sum(store, offset(TOTALS, Double.BYTES, from), rows);
+        }
+
+        return sum;
+    }
+
+    /**
+     * @param selection selection of records, covering every record
+     * @return the sum of the total rainfall of the selected records
+     */
+    public double sumTotals(Selection selection) {
+
+        if (store == null) {
+            return Aggregates.maskedSum(totals, selection);
+        } else if (selection.size() != size) {
+            throw new IllegalArgumentException("selection does not cover the values!");
+        }
+
+        double sum = 0;
+        for (int from = 0; from < size; from += GROUP_ROWS) {
+            int rows = Math.min(GROUP_ROWS, size - from);
+            sum += Aggregates.maskedSum(store, offset(TOTALS, Double.BYTES, from), rows, selection, from);
+        }
+
+        return sum;
+    }
+
+    /**
+     * @return the largest total rainfall of any record, NaN if there are none
+     */
+    public double maxTotal() {
+
+        if (store == null) {
+            return Aggregates.max(totals);
+        }
+
+        double max = Double.NaN;
+        for (int from = 0; from < size; from += GROUP_ROWS) {
+            int rows = Math.min(GROUP_ROWS, size - from);
+            double groupMax = Aggregates.max(store, offset(TOTALS, Double.BYTES, from), rows);
+            max = from == 0 ? groupMax : Math.max(max, groupMax);
+        }
+
+        return max;
+    }
+
+    /**
+     * @param threshold the threshold in mm
+     * @return the number of records with total rainfall above the threshold
+     */
+    public int countTotalsAbove(double threshold) {
+
+        if (store == null) {
+            return Aggregates.countAbove(totals, threshold);
+        }
+
+        int count = 0;
+        for (int from = 0; from < size; from += GROUP_ROWS) {
+            int rows = Math.min(GROUP_ROWS, size - from);
+            count += Aggregates.countAbove(store, offset(TOTALS, Double.BYTES, from), rows, threshold);
+        }
+
+        return count;
+    }
+
+    /**
+     * Selects the records whose value in a rainfall column compares to a
+     * threshold, leaving out records without readings. The column is
+     * compared through the mask kernels of {@link Aggregates}, a row group
+     * at a time in place for columns held off heap.
+     *
+     * @param column the column, {@link #TOTALS}, {@link #MINS} or {@link #MAXS}
+     * @param comparison the comparison
+     * @param threshold the threshold in mm
+     * @return the selected records
+     */
+    Selection compare(int column, Query.Comparison comparison, double threshold) {
+
+        long[] words = new long[Selection.wordCount(size)];
+
+        if (store == null) {
+            double[] values = column == TOTALS ? totals : column == MINS ? mins : maxs;
+            Aggregates.compareMask(values, 0, size, comparison, threshold, words);
+            Aggregates.clearZeroMask(observedDays, 0, size, words);
+        } else {
+            for (int from = 0; from < size; from += GROUP_ROWS) {
+                int rows = Math.min(GROUP_ROWS, size - from);
+                Aggregates.compareMask(store, offset(column, Double.BYTES, from), rows, comparison, threshold,
+                        words, from);
+                Aggregates.clearZeroMask(store, offset(OBSERVED, Integer.BYTES, from), rows, words, from);
+            }
+        }
+
+        return new Selection(size, words);
+    }
+
+    /**
+     * Throws if an index is outside of the columns, since an off heap store
+     * would otherwise read the neighbouring column.
+     *
+     * @param index index of the record
+     * @return the index
+     */
+    private int checkIndex(int index) {
+
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("record " + index + " outside of " + size);
+        }
+
+        return index;
+    }
+
+    /**
+     * @return the year of each record, must not be modified, copied if off heap
+     */
+    public int[] getYears() {
+        return store == null ? years : copyIntColumn(YEARS);
+    }
+
+    /**
+     * @return the month of each record, must not be modified, copied if off heap
+     */
+    public int[] getMonths() {
+        return store == null ? months : copyIntColumn(MONTHS);
+    }
+
+    /**
+     * @return the total rainfall of each record, must not be modified, copied if off heap
+     */
+    public double[] getTotals() {
+        return store == null ? totals : copyDoubleColumn(TOTALS);
+    }
+
+    /**
+     * @return the minimum daily rainfall of each record, must not be modified, copied if off heap
+     */
+    public double[] getMins() {
+        return store == null ? mins : copyDoubleColumn(MINS);
+    }
+
+    /**
+     * @return the maximum daily rainfall of each record, must not be modified, copied if off heap
+     */
+    public double[] getMaxs() {
+        return store == null ? maxs : copyDoubleColumn(MAXS);
+    }
+
+    /**
+     * @return the number of days with a reading in each record, must not be modified, copied if off heap
+     */
+    public int[] getObservedDays() {
+        return store == null ? observedDays : copyIntColumn(OBSERVED);
+    }
+
+    /**
+     * @return the number of days with a blank reading in each record, must not be modified, copied if off heap
+     */
+    public int[] getMissingDays() {
+        return store == null ? missingDays : copyIntColumn(MISSING);
+    }
+
+    /**
+     * @param column an int column in the store
+     * @return a heap copy of the column
+     */
+    private int[] copyIntColumn(int column) {
+
+        int[] values = new int[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = store.getInt(offset(column, Integer.BYTES, i));
+        }
+
+        return values;
+    }
+
+    /**
+     * @param column a double column in the store
+     * @return a heap copy of the column
+     */
+    private double[] copyDoubleColumn(int column) {
+
+        double[] values = new double[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = store.getDouble(offset(column, Double.BYTES, i));
+        }
+
+        return values;
+    }
+}
@@ -0,0 +1,352 @@
+package rainfall;
+
+import java.util.Arrays;
+
+/**
+ * A QuantileSketch is a mergeable KLL sketch that estimates quantiles of a
+ * stream of rainfall values in bounded memory. Values are kept in a stack of
+ * compactors, where each compactor holds values of twice the weight of the
+ * one below. When the sketch is full the lowest overfull compactor is sorted
+ * and every other value is promoted to the next level.
+ * <p>
+ * With the default k of 200 the sketch retains at most about 3k values however
+ * many are added, and the rank of an estimated quantile is within about 1.65%
+ * of the true rank with 99% confidence. Sketches with fewer than k values are
+ * exact. Merging sketches gives the same guarantee as a single sketch built
+ * over the combined stream, so quantiles over any range of months, years or
+ * stations can be answered by merging their sketches.
+ *
+ * @author Owen Herbert
+ */
+public class QuantileSketch {
+
+    public static final int DEFAULT_K = 200; // size of the top compactor, controls accuracy
+    private static final double CAPACITY_DECAY = 2.0 / 3.0; // capacity ratio between compactor levels
+    private static final int INITIAL_LEVEL_CAPACITY = 8;
+
+    private final int k; // size of the top compactor
+    private double[][] levels = {new double[INITIAL_LEVEL_CAPACITY]}; // compactors, level h has weight 2^h
+    private int[] levelSizes = {0}; // number of values in each compactor
+    private int retained; // number of values in all compactors
+    private int maxRetained; // number of values retained before compacting
+    private long count; // number of values added to the sketch
+    private double min = Double.POSITIVE_INFINITY; // smallest value added
+    private double max = Double.NEGATIVE_INFINITY; // largest value added
+    private long randomState = 0x9E3779B97F4A7C15L; // xorshift state for choosing compaction offsets
+
+    /**
+     * Creates a sketch with the default k.
+     */
+    public QuantileSketch() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * Creates a sketch with the provided k, larger values of k are more
+     * accurate and use more memory.
+     *
+     * @param k size of the top compactor
+     */
+    public QuantileSketch(int k) {
+
+        if (k < 8) {
+            throw new IllegalArgumentException("sketch k must be at least 8!");
+        }
+
+        this.k = k;
+        this.maxRetained = computeMaxRetained();
+    }
+
+    /**
+     * Creates a copy of a sketch, changes to either do not affect the other.
+     *
+     * @param other the sketch to copy
+     */
+    public QuantileSketch(QuantileSketch other) {
+
+        this.k = other.k;
+        this.levels = new double[other.levels.length][];
+        for (int h = 0; h < levels.length; h++) {
+            levels[h] = other.levels[h].clone();
+        }
+
+        this.levelSizes = other.levelSizes.clone();
+        this.retained = other.retained;
+        this.maxRetained = other.maxRetained;
+        this.count = other.count;
+        this.min = other.min;
+        this.max = other.max;
+        this.randomState = other.randomState;
+    }
+
+    /**
+     * Adds a value to the sketch.
+     *
+     * @param value the value to add
+     */
+    public void add(double value) {
+
+        if (Double.isNaN(value)) {
+            return;
+        }
+
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+
+        append(0, value);
+        retained++;
+
+        if (retained >= maxRetained) {
+            compress();
+        }
+    }
+
+    /**
+     * Merges the values of another sketch into this sketch. The other sketch
+     * is not modified.
+     *
+     * @param other the sketch to merge
+     */
+    public void merge(QuantileSketch other) {
+
+        if (other == null || other.count == 0) {
+            return;
+        }
+
+        while (levels.length < other.levels.length) {
+            addLevel();
+        }
+
+        for (int h = 0; h < other.levels.length; h++) {
+            for (int i = 0; i < other.levelSizes[h]; i++) {
+                append(h, other.levels[h][i]);
+            }
+            retained += other.levelSizes[h];
+        }
+
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+
+        compress();
+    }
+
+    /**
+     * Returns an estimate of the value at the provided quantile, or NaN if the
+     * sketch is empty. Quantile 0 and 1 are the exact minimum and maximum.
+     *
+     * @param quantile the quantile, from 0 to 1
+     * @return the estimated value at the quantile
+     */
+    public double getQuantile(double quantile) {
+
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("quantile must be between 0 and 1!");
+        } else if (count == 0) {
+            return Double.NaN;
+        } else if (quantile == 0) {
+            return min;
+        } else if (quantile == 1) {
+            return max;
+        }
+
+        // gather retained values with their weights, sorted by value
+        double[] values = new double[retained];
+        long[] weights = new long[retained];
+        int index = 0;
+        for (int h = 0; h < levels.length; h++) {
+            for (int i = 0; i < levelSizes[h]; i++) {
+                values[index] = levels[h][i];
+                weights[index] = 1L << h;
+                index++;
+            }
+        }
+        sortByValue(values, weights);
+
+        long totalWeight = 0;
+        for (long weight : weights) {
+            totalWeight += weight;
+        }
+
+        double targetWeight = quantile * totalWeight;
+        long cumulativeWeight = 0;
+        for (int i = 0; i < values.length; i++) {
+            cumulativeWeight += weights[i];
+            if (cumulativeWeight >= targetWeight) {
+                return values[i];
+            }
+        }
+
+        return max;
+    }
+
+    /**
+     * @return the number of values added to the sketch
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the smallest value added, NaN if the sketch is empty
+     */
+    public double getMin() {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    /**
+     * @return the largest value added, NaN if the sketch is empty
+     */
+    public double getMax() {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    /**
+     * @return the number of values retained by the sketch
+     */
+    public int getRetained() {
+        return retained;
+    }
+
+    /**
+     * Compacts the lowest overfull compactor until the sketch fits within its
+     * capacity.
+     */
+    private void compress() {
+
+        while (retained >= maxRetained) {
+
+            for (int h = 0; h < levels.length; h++) {
+
+                if (levelSizes[h] >= getLevelCapacity(h)) {
+
+                    if (h + 1 == levels.length) {
+                        addLevel();
+                    }
+
+                    compact(h);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sorts a compactor and promotes every other value to the level above,
+     * starting from a random offset so that the rank error is unbiased.
+     *
+     * @param h the level to compact
+     */
+    private void compact(int h) {
+
+        int size = levelSizes[h];
+        double[] level = levels[h];
+        Arrays.sort(level, 0, size);
+
+        // an odd value out stays in the compactor
+        int keep = size % 2;
+        double leftover = level[size - 1];
+
+        int offset = (int) (nextRandom() & 1);
+        for (int i = offset; i < size - keep; i += 2) {
+            append(h + 1, level[i]);
+        }
+
+        levelSizes[h] = 0;
+        if (keep == 1) {
+            level[0] = leftover;
+            levelSizes[h] = 1;
+        }
+
+        retained -= (size - keep) / 2;
+    }
+
+    /**
+     * Appends a value to a compactor, growing its array when needed.
+     *
+     * @param h the level of the compactor
+     * @param value the value to append
+     */
+    private void append(int h, double value) {
+
+        if (levelSizes[h] == levels[h].length) {
+            levels[h] = Arrays.copyOf(levels[h], levels[h].length * 2);
+        }
+
+        levels[h][levelSizes[h]++] = value;
+    }
+
+    /**
+     * Adds an empty compactor on top of the stack.
+     */
+    private void addLevel() {
+
+        levels = Arrays.copyOf(levels, levels.length + 1);
+        levelSizes = Arrays.copyOf(levelSizes, levelSizes.length + 1);
+        levels[levels.length - 1] = new double[INITIAL_LEVEL_CAPACITY];
+        maxRetained = computeMaxRetained();
+    }
+
+    /**
+     * Returns the capacity of a compactor, which shrinks geometrically with
+     * its distance from the top compactor.
+     *
+     * @param h the level of the compactor
+     * @return the capacity of the compactor
+     */
+    private int getLevelCapacity(int h) {
+        int depth = levels.length - h - 1;
+        return (int) Math.ceil(Math.pow(CAPACITY_DECAY, depth) * k) + 1;
+    }
+
+    /**
+     * @return the number of values retained before compacting
+     */
+    private int computeMaxRetained() {
+
+        int total = 0;
+        for (int h = 0; h < levels.length; h++) {
+            total += getLevelCapacity(h);
+        }
+
+        return total;
+    }
+
+    /**
+     * @return the next pseudo random number from the xorshift state
+     */
+    private long nextRandom() {
+        randomState ^= randomState << 13;
+        randomState ^= randomState >>> 7;
+        randomState ^= randomState << 17;
+        return randomState;
+    }
+
+    /**
+     * Sorts values and their weights together by value with an insertion
+     * sort over index pairs, which is quick for the few hundred values a
+     * sketch retains.
+     *
+     * @param values the values
+     * @param weights the weight of each value
+     */
+    private static void sortByValue(double[] values, long[] weights) {
+
+        for (int i = 1; i < values.length; i++) {
+
+            double value = values[i];
+            long weight = weights[i];
+
+            int j = i - 1;
+            while (j >= 0 && values[j] > value) {
+                values[j + 1] = values[j];
+                weights[j + 1] = weights[j];
+                j--;
+            }
+
+            values[j + 1] = value;
+            weights[j + 1] = weight;
+        }
+    }
+}
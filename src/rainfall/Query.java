@@ -0,0 +1,175 @@
+package rainfall;
+
+/**
+ * A Query selects records of a station by year range, month set and
+ * thresholds on total, minimum and maximum rainfall, and evaluates to a
+ * {@link Selection} over the station's {@link MonthlyColumns}. Queries compose
+ * with {@link #and}, {@link #or} and {@link #not}, for example every month
+ * over 500 mm between 1950 and 1980:
+ * <pre>
+ * station.select(Query.yearBetween(1950, 1980)
+ *         .and(Query.total(Query.Comparison.GREATER_THAN, 500)));
+ * </pre>
+ * Threshold leaves compare a whole column at a time through the comparison
+ * mask kernels of {@link Aggregates}, which read columns held off heap in
+ * place a row group at a time. Year and month leaves scan their column
+ * through the element accessors. Every leaf sets bits without branching on
+ * the data.
+ *
+ * @author Owen Herbert
+ */
+public interface Query {
+
+    /**
+     * A Comparison between a column value and a threshold.
+     */
+    enum Comparison { LESS_THAN, LESS_OR_EQUAL, GREATER_THAN, GREATER_OR_EQUAL }
+
+    /**
+     * Evaluates the query over the columns of a station.
+     *
+     * @param columns the monthly columns
+     * @return the selected records
+     */
+    Selection evaluate(MonthlyColumns columns);
+
+    /**
+     * @param other the other query
+     * @return a query selecting records selected by both queries
+     */
+    default Query and(Query other) {
+        return columns -> evaluate(columns).and(other.evaluate(columns));
+    }
+
+    /**
+     * @param other the other query
+     * @return a query selecting records selected by either query
+     */
+    default Query or(Query other) {
+        return columns -> evaluate(columns).or(other.evaluate(columns));
+    }
+
+    /**
+     * @return a query selecting records not selected by this query
+     */
+    default Query not() {
+        return columns -> evaluate(columns).not();
+    }
+
+    /**
+     * @return a query selecting every record
+     */
+    static Query all() {
+        return columns -> Selection.all(columns.size());
+    }
+
+    /**
+     * Selects records within a range of years. Either bound may be left open
+     * with {@link Integer#MIN_VALUE} or {@link Integer#MAX_VALUE}.
+     *
+     * @param fromYear first year of the range, inclusive
+     * @param toYear last year of the range, inclusive
+     * @return the query
+     */
+    static Query yearBetween(int fromYear, int toYear) {
+
+        return columns -> {
+
+            int size = columns.size();
+            long[] words = new long[Selection.wordCount(size)];
+
+            for (int i = 0; i < size; i++) {
+
+                // the sign bit is set if the year is before or after the range, in long so open bounds cannot overflow
+                long year = columns.getYear(i);
+                long outside = (year - fromYear) | (toYear - year);
+                words[i >>> 6] |= ((~outside) >>> 63) << i;
+            }
+
+            return new Selection(size, words);
+        };
+    }
+
+    /**
+     * Selects records in any of the provided months.
+     *
+     * @param months the months, 1 to 12
+     * @return the query
+     * @throws IllegalArgumentException if a month is not between 1 and 12
+     */
+    static Query monthIn(int... months) {
+
+        int monthMask = 0;
+        for (int month : months) {
+            if (month < 1 || month > 12) {
+                throw new IllegalArgumentException("month must be between 1 and 12!");
+            }
+            monthMask |= 1 << (month - 1);
+        }
+        int mask = monthMask;
+
+        return columns -> {
+
+            int size = columns.size();
+            long[] words = new long[Selection.wordCount(size)];
+
+            for (int i = 0; i < size; i++) {
+                words[i >>> 6] |= (long) ((mask >>> (columns.getMonth(i) - 1)) & 1) << i;
+            }
+
+            return new Selection(size, words);
+        };
+    }
+
+    /**
+     * Selects records whose total rainfall compares to a threshold. Months
+     * without readings have no total and are never selected.
+     *
+     * @param comparison the comparison
+     * @param threshold the threshold in mm
+     * @return the query
+     */
+    static Query total(Comparison comparison, double threshold) {
+        return columns -> compare(columns, MonthlyColumns.TOTALS, comparison, threshold);
+    }
+
+    /**
+     * Selects records whose minimum daily rainfall compares to a threshold.
+     * Months without readings are never selected.
+     *
+     * @param comparison the comparison
+     * @param threshold the threshold in mm
+     * @return the query
+     */
+    static Query min(Comparison comparison, double threshold) {
+        return columns -> compare(columns, MonthlyColumns.MINS, comparison, threshold);
+    }
+
+    /**
+     * Selects records whose maximum daily rainfall compares to a threshold.
+     * Months without readings are never selected.
+     *
+     * @param comparison the comparison
+     * @param threshold the threshold in mm
+     * @return the query
+     */
+    static Query max(Comparison comparison, double threshold) {
+        return columns -> compare(columns, MonthlyColumns.MAXS, comparison, threshold);
+    }
+
+    /**
+     * Compares every value of a rainfall column to a threshold. The
+     * comparison is chosen once per column rather than once per value.
+     * Records without readings are masked out, since their total of 0 mm
+     * means no data rather than a dry month.
+     *
+     * @param columns the monthly columns
+     * @param column the rainfall column, such as {@link MonthlyColumns#TOTALS}
+     * @param comparison the comparison
+     * @param threshold the threshold
+     * @return the selected records
+     */
+    private static Selection compare(MonthlyColumns columns, int column, Comparison comparison, double threshold) {
+        return columns.compare(column, comparison, threshold);
+    }
+}
@@ -0,0 +1,119 @@
+package rainfall;
+
+/**
+ * A RangeQuery answers minimum and maximum queries over any contiguous range
+ * of a series in constant time. The sparse tables are built once in
+ * O(n log n) time, so a chart can rescale its y axis while zooming and
+ * panning without rescanning the records.
+ *
+ * @author Owen Herbert
+ */
+public class RangeQuery {
+
+    private final int size; // number of values in the series
+    private final double[][] minTable; // minTable[k][i] is the minimum of values[i, i + 2^k)
+    private final double[][] maxTable; // maxTable[k][i] is the maximum of values[i, i + 2^k)
+
+    /**
+     * Builds the sparse tables of the provided series upon construction.
+     *
+     * @param values the series to query
+     */
+    public RangeQuery(double[] values) {
+
+        size = values.length;
+
+        int levels = 1;
+        while ((1 << levels) <= size) {
+            levels++;
+        }
+
+        minTable = new double[levels][];
+        maxTable = new double[levels][];
+        minTable[0] = values.clone();
+        maxTable[0] = values.clone();
+
+        for (int k = 1; k < levels; k++) {
+
+            int half = 1 << (k - 1);
+            int length = size - (1 << k) + 1;
+
+            double[] previousMin = minTable[k - 1];
+            double[] previousMax = maxTable[k - 1];
+            double[] currentMin = new double[length];
+            double[] currentMax = new double[length];
+
+            for (int i = 0; i < length; i++) {
+                currentMin[i] = Math.min(previousMin[i], previousMin[i + half]);
+                currentMax[i] = Math.max(previousMax[i], previousMax[i + half]);
+            }
+
+            minTable[k] = currentMin;
+            maxTable[k] = currentMax;
+        }
+    }
+
+    /**
+     * Returns the minimum value in the range [from, to), or NaN if the range
+     * is empty.
+     *
+     * @param from first index of the range, inclusive
+     * @param to last index of the range, exclusive
+     * @return minimum value in the range
+     */
+    public double min(int from, int to) {
+
+        if (!isRangeValid(from, to)) {
+            return Double.NaN;
+        }
+
+        int k = log2(to - from);
+        return Math.min(minTable[k][from], minTable[k][to - (1 << k)]);
+    }
+
+    /**
+     * Returns the maximum value in the range [from, to), or NaN if the range
+     * is empty.
+     *
+     * @param from first index of the range, inclusive
+     * @param to last index of the range, exclusive
+     * @return maximum value in the range
+     */
+    public double max(int from, int to) {
+
+        if (!isRangeValid(from, to)) {
+            return Double.NaN;
+        }
+
+        int k = log2(to - from);
+        return Math.max(maxTable[k][from], maxTable[k][to - (1 << k)]);
+    }
+
+    /**
+     * @return the number of values in the series
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks if the range is non empty and within the series, returns boolean.
+     *
+     * @param from first index of the range, inclusive
+     * @param to last index of the range, exclusive
+     * @return if the range is valid
+     */
+    private boolean isRangeValid(int from, int to) {
+        return from >= 0 && to <= size && from < to;
+    }
+
+    /**
+     * Returns the floor of the base 2 logarithm of a positive value.
+     *
+     * @param value the value
+     * @return floor of log2 of the value
+     */
+    private static int log2(int value) {
+        return 31 - Integer.numberOfLeadingZeros(value);
+    }
+}
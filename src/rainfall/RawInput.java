@@ -0,0 +1,304 @@
+package rainfall;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * RawInput opens raw BOM files for reading line by line, whether they are
+ * plain csv, gzip or zip files. The format is detected from the magic bytes
+ * at the start of the file rather than its extension, and compressed files
+ * are decompressed as they are read without temporary files.
+ * <p>
+ * A zip archive with a single csv entry is read directly. When an archive
+ * has several csv entries, such as extracts of different periods, a
+ * background thread decompresses the entries in archive order and hands
+ * batches of lines to the reader through a bounded queue, so decompression
+ * overlaps with parsing without buffering the whole archive. The header row
+ * of every entry after the first is dropped, so the entries read as one
+ * file, and entries must follow each other in date order.
+ *
+ * @author Owen Herbert
+ */
+class RawInput {
+
+    // suffixes of raw files, in the order they are looked for
+    static final String[] RAW_FILE_SUFFIXES = {".csv", ".csv.gz", ".gz", ".zip"};
+
+    private static final int GZIP_MAGIC = 0x1f8b; // first two bytes of a gzip file
+    private static final int ZIP_MAGIC = 0x504b0304; // first four bytes of a zip file
+    private static final int BATCH_LINES = 2048; // lines handed over in each batch
+    private static final int QUEUE_BATCHES = 4; // batches buffered before the inflater waits
+
+    /**
+     * Finds the raw file of a station, trying each raw file suffix in turn.
+     *
+     * @param directoryName name of the directory
+     * @param stationName name of the station
+     * @return the raw file, or null if none exists
+     */
+    static File findRawFile(String directoryName, String stationName) {
+
+        for (String suffix : RAW_FILE_SUFFIXES) {
+            File rawFile = new File("./" + directoryName + "/" + stationName + suffix);
+            if (rawFile.exists()) {
+                return rawFile;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Opens a raw file for reading lines, decompressing it if its magic bytes
+     * show it is a gzip or zip file.
+     *
+     * @param file the file
+     * @return a source of the lines of the file
+     * @throws IOException if the file cannot be opened
+     */
+    static LineSource open(File file) throws IOException {
+
+        int magic = readMagic(file);
+
+        if (magic == ZIP_MAGIC) {
+            return openZip(file);
+        } else if ((magic >>> 16) == GZIP_MAGIC) {
+            InputStream input = new GZIPInputStream(new BufferedInputStream(new FileInputStream(file)));
+            return new ReaderLineSource(new BufferedReader(new InputStreamReader(input)));
+        }
+
+        return new ReaderLineSource(new BufferedReader(new InputStreamReader(new FileInputStream(file))));
+    }
+
+    /**
+     * Reads the first four bytes of a file as a big endian int, padded with
+     * zeros if the file is shorter.
+     *
+     * @param file the file
+     * @return the magic bytes
+     * @throws IOException if the file cannot be read
+     */
+    private static int readMagic(File file) throws IOException {
+
+        try (InputStream input = new FileInputStream(file)) {
+
+            int magic = 0;
+            for (int i = 0; i < 4; i++) {
+                int value = input.read();
+                magic = (magic << 8) | Math.max(value, 0);
+            }
+
+            return magic;
+        }
+    }
+
+    /**
+     * Opens the csv entries of a zip archive.
+     *
+     * @param file the archive
+     * @return a source of the lines of the csv entries
+     * @throws IOException if the archive cannot be read or has no csv entries
+     */
+    private static LineSource openZip(File file) throws IOException {
+
+        ZipFile zipFile = new ZipFile(file);
+
+        try {
+
+            List<ZipEntry> csvEntries = new ArrayList<>();
+            for (Enumeration<? extends ZipEntry> entries = zipFile.entries(); entries.hasMoreElements(); ) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory() && entry.getName().toLowerCase().endsWith(".csv")) {
+                    csvEntries.add(entry);
+                }
+            }
+
+            if (csvEntries.isEmpty()) {
+                throw new IOException("zip archive has no csv files!");
+            } else if (csvEntries.size() == 1) {
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(zipFile.getInputStream(csvEntries.get(0))));
+                return new ReaderLineSource(reader, zipFile);
+            }
+
+            return new QueuedLineSource(zipFile, csvEntries);
+        } catch (IOException | RuntimeException err) {
+            zipFile.close();
+            throw err;
+        }
+    }
+
+    /**
+     * A LineSource supplies the lines of a raw file.
+     */
+    interface LineSource extends Closeable {
+
+        /**
+         * @return the next line, or null at the end of the input
+         * @throws IOException if the input cannot be read
+         */
+        String readLine() throws IOException;
+    }
+
+    /**
+     * A ReaderLineSource reads lines from a reader on the calling thread.
+     */
+    private static class ReaderLineSource implements LineSource {
+
+        private final BufferedReader reader; // reader of the input
+        private final Closeable owner; // resource the reader reads from, if it must be closed separately
+
+        ReaderLineSource(BufferedReader reader) {
+            this(reader, null);
+        }
+
+        ReaderLineSource(BufferedReader reader, Closeable owner) {
+            this.reader = reader;
+            this.owner = owner;
+        }
+
+        @Override
+        public String readLine() throws IOException {
+            return reader.readLine();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                reader.close();
+            } finally {
+                if (owner != null) {
+                    owner.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * A QueuedLineSource reads the lines of several zip entries, decompressed
+     * on a background thread and handed over in batches through a bounded
+     * queue.
+     */
+    private static class QueuedLineSource implements LineSource {
+
+        private static final List<String> END_OF_INPUT = Collections.emptyList(); // batch marking the end
+
+        private final ZipFile zipFile; // the archive
+        private final BlockingQueue<List<String>> batches = new ArrayBlockingQueue<>(QUEUE_BATCHES);
+        private final Thread inflater; // decompresses entries into batches
+        private volatile IOException inflaterError; // error that stopped the inflater, if any
+        private List<String> batch = new ArrayList<>(); // batch being read
+        private int batchIndex; // index of the next line in the batch
+        private boolean isEnded; // if the end of the input was reached
+
+        QueuedLineSource(ZipFile zipFile, List<ZipEntry> entries) {
+
+            this.zipFile = zipFile;
+            this.inflater = new Thread(() -> inflate(entries), "zip-inflater");
+            this.inflater.setDaemon(true);
+            this.inflater.start();
+        }
+
+        /**
+         * Decompresses the entries into batches of lines, dropping the header
+         * row of every entry after the first. Runs on the inflater thread.
+         * The end of the input is always queued, whatever stops the inflater,
+         * so the reader never waits for lines that will not come.
+         *
+         * @param entries the csv entries of the archive
+         */
+        private void inflate(List<ZipEntry> entries) {
+
+            try {
+
+                List<String> lines = new ArrayList<>(BATCH_LINES);
+                for (int i = 0; i < entries.size(); i++) {
+
+                    try (BufferedReader reader = new BufferedReader(
+                            new InputStreamReader(zipFile.getInputStream(entries.get(i))))) {
+
+                        String line = reader.readLine();
+                        if (i > 0) {
+                            line = reader.readLine();
+                        }
+
+                        while (line != null) {
+                            lines.add(line);
+                            if (lines.size() == BATCH_LINES) {
+                                batches.put(lines);
+                                lines = new ArrayList<>(BATCH_LINES);
+                            }
+                            line = reader.readLine();
+                        }
+                    }
+                }
+
+                if (!lines.isEmpty()) {
+                    batches.put(lines);
+                }
+            } catch (InterruptedException err) {
+                // the reader was closed, so the end below is not waited for and must not block
+                Thread.currentThread().interrupt();
+            } catch (IOException err) {
+                inflaterError = err;
+            } catch (Throwable err) {
+                inflaterError = new IOException("zip archive could not be inflated!", err);
+            } finally {
+                try {
+                    batches.put(END_OF_INPUT);
+                } catch (InterruptedException ignored) {
+                    // the reader was closed
+                }
+            }
+        }
+
+        @Override
+        public String readLine() throws IOException {
+
+            while (batchIndex == batch.size()) {
+
+                if (isEnded) {
+                    return null;
+                }
+
+                try {
+                    batch = batches.take();
+                    batchIndex = 0;
+                } catch (InterruptedException err) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while reading zip archive!");
+                }
+
+                if (batch == END_OF_INPUT) {
+                    isEnded = true;
+                    if (inflaterError != null) {
+                        throw inflaterError;
+                    }
+                }
+            }
+
+            return batch.get(batchIndex++);
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.interrupt();
+            zipFile.close();
+        }
+    }
+}
@@ -1,8 +1,16 @@
 package rainfall;
 
+import java.time.LocalDate;
+
 /**
  * A Record contains the analysed rainfall data specific to a single month in a
- * specific year that comes from a particular rainfall station.
+ * specific year that comes from a particular rainfall station. Records are
+ * immutable, so they can be shared between the loader and the interface
+ * without copying. Their daily rainfall sketch is returned as a copy, so
+ * callers may add to or merge into it freely.
+ * <p>
+ * Records read from columns held off heap do not hold a sketch. Theirs is
+ * rebuilt from the station's daily readings whenever it is requested.
  *
  * @author Owen Herbert
  */
@@ -10,14 +18,18 @@ public class Record {
 
     private final int month; // month of the record
     private final int year; // year of the record
-    private double rainfallMin; // minimum daily rainfall amount in the record
-    private double rainfallMax; // maximum daily rainfall amount in the record
-    private double rainfallTotal; // total cumulative rainfall amount in the record
-    public static final String CSV_HEADER = "year,month,total,min,max"; // header row for analysed csv files
+    private final double rainfallMin; // minimum daily rainfall amount in the record
+    private final double rainfallMax; // maximum daily rainfall amount in the record
+    private final double rainfallTotal; // total cumulative rainfall amount in the record
+    private final int observedDays; // number of days with a rainfall reading
+    private final int missingDays; // number of days with a blank rainfall reading
+    private final QuantileSketch dailyRainfallSketch; // sketch of daily rainfall, null if unknown or not held
+    private final DailySeries dailySeries; // daily readings the sketch is rebuilt from, null if the sketch is held
+    public static final int COVERAGE_UNKNOWN = -1; // day count of records read without coverage
+    public static final String CSV_HEADER = "year,month,total,min,max,observed,missing"; // header row for analysed csv files
 
     /**
-     * Sets the records year and month upon construction. The
-     * year and month should not be changed after construction.
+     * Sets the records year, month and rainfall upon construction.
      *
      * @param year record year
      * @param month record month
@@ -26,12 +38,71 @@ public class Record {
      * @param rainfallMax record maximum rainfall
      */
     public Record(int year, int month, double rainfallTotal, double rainfallMin, double rainfallMax) {
+        this(year, month, rainfallTotal, rainfallMin, rainfallMax, COVERAGE_UNKNOWN, COVERAGE_UNKNOWN, null);
+    }
+
+    /**
+     * Sets the records year, month, rainfall, coverage and daily rainfall
+     * sketch upon construction.
+     *
+     * @param year record year
+     * @param month record month
+     * @param rainfallTotal record total rainfall
+     * @param rainfallMin record minimum rainfall, NaN if no days were observed
+     * @param rainfallMax record maximum rainfall, NaN if no days were observed
+     * @param observedDays number of days with a reading, or {@link #COVERAGE_UNKNOWN}
+     * @param missingDays number of days with a blank reading, or {@link #COVERAGE_UNKNOWN}
+     * @param dailyRainfallSketch sketch of the daily rainfall of the record, or null
+     */
+    public Record(int year, int month, double rainfallTotal, double rainfallMin, double rainfallMax,
+                  int observedDays, int missingDays, QuantileSketch dailyRainfallSketch) {
 
         this.year = year;
         this.month = month;
         this.rainfallTotal = rainfallTotal;
         this.rainfallMin = rainfallMin;
         this.rainfallMax = rainfallMax;
+        this.observedDays = observedDays;
+        this.missingDays = missingDays;
+        this.dailyRainfallSketch = dailyRainfallSketch;
+        this.dailySeries = null;
+    }
+
+    /**
+     * Reads the fields of a record from columns upon construction. The
+     * record does not hold a daily rainfall sketch but rebuilds it from the
+     * daily readings when it is requested.
+     *
+     * @param columns the columns
+     * @param index index of the record in the columns
+     * @param dailySeries the daily readings of the station, or null if days are unknown
+     */
+    Record(MonthlyColumns columns, int index, DailySeries dailySeries) {
+        this.year = columns.getYear(index);
+        this.month = columns.getMonth(index);
+        this.rainfallTotal = columns.getTotal(index);
+        this.rainfallMin = columns.getMin(index);
+        this.rainfallMax = columns.getMax(index);
+        this.observedDays = columns.getObservedDays(index);
+        this.missingDays = columns.getMissingDays(index);
+        this.dailyRainfallSketch = null;
+        this.dailySeries = dailySeries;
+    }
+
+    /**
+     * Returns the record with its daily rainfall sketch held, rebuilding the
+     * sketch if the record was read from columns.
+     *
+     * @return the record holding its sketch
+     */
+    Record withHeldSketch() {
+
+        if (dailySeries == null) {
+            return this;
+        }
+
+        return new Record(year, month, rainfallTotal, rainfallMin, rainfallMax, observedDays, missingDays,
+                readDailyRainfallSketch());
     }
 
     /**
@@ -52,8 +123,8 @@ public class Record {
      */
     public String getCSVString() {
 
-        return String.format("%d,%d,%1.2f,%1.2f,%1.2f", year, month, rainfallTotal,
-                rainfallMin, rainfallMax);
+        return String.format("%d,%d,%1.2f,%1.2f,%1.2f,%d,%d", year, month, rainfallTotal,
+                rainfallMin, rainfallMax, observedDays, missingDays);
     }
 
     /**
@@ -95,47 +166,89 @@ public class Record {
     }
 
     /**
-     * @return the minimum rainfall of the record
+     * Returns if the record has rainfall readings. Records whose days were all
+     * blank have no data, which is different to a dry month. Records read
+     * without coverage are assumed to have data.
+     *
+     * @return if the record has data
      */
-    public double getRainfallMin() {
-        return rainfallMin;
+    public boolean hasData() {
+        return observedDays != 0;
     }
 
     /**
-     * @param rainfallMin minimum rainfall to set
+     * @return the number of days with a reading, or {@link #COVERAGE_UNKNOWN}
      */
-    public Record setRainfallMin(double rainfallMin) {
-        this.rainfallMin = rainfallMin;
-        return this;
+    public int getObservedDays() {
+        return observedDays;
     }
 
     /**
-     * @return the maximum rainfall of the record
+     * @return the number of days with a blank reading, or {@link #COVERAGE_UNKNOWN}
      */
-    public double getRainfallMax() {
-        return rainfallMax;
+    public int getMissingDays() {
+        return missingDays;
     }
 
     /**
-     * @param rainfallMax maximum rainfall to set
+     * Returns the sketch of the daily rainfall of the record. Records loaded
+     * from an analysed csv file have no daily rainfall and return null.
+     * Records read from columns rebuild the sketch from the days of their
+     * month, adding them in date order as the loader does.
+     *
+     * @return a copy of the daily rainfall sketch, or null
      */
-    public Record setRainfallMax(double rainfallMax) {
-        this.rainfallMax = rainfallMax;
-        return this;
+    public QuantileSketch getDailyRainfallSketch() {
+
+        if (dailySeries == null) {
+            return dailyRainfallSketch == null ? null : new QuantileSketch(dailyRainfallSketch);
+        }
+
+        return readDailyRainfallSketch();
     }
 
     /**
-     * @return the total rainfall of the record
+     * Returns the daily rainfall sketch without copying a held one, for
+     * callers in this package that only read or merge it.
+     *
+     * @return the daily rainfall sketch, or null
      */
-    public double getRainfallTotal() {
-        return rainfallTotal;
+    QuantileSketch readDailyRainfallSketch() {
+
+        if (dailySeries == null) {
+            return dailyRainfallSketch;
+        }
+
+        LocalDate firstDay = LocalDate.of(year, month, 1);
+        int from = Math.max(0, dailySeries.indexOf(firstDay));
+        int to = Math.min(dailySeries.size(), dailySeries.indexOf(firstDay.plusMonths(1)));
+
+        QuantileSketch sketch = new QuantileSketch();
+        if (from < to) {
+            dailySeries.addTo(sketch, from, to);
+        }
+
+        return sketch;
     }
 
     /**
-     * @param rainfallTotal total rainfall to set
+     * @return the minimum rainfall of the record
      */
-    public Record setRainfallTotal(double rainfallTotal) {
-        this.rainfallTotal = rainfallTotal;
-        return this;
+    public double getRainfallMin() {
+        return rainfallMin;
+    }
+
+    /**
+     * @return the maximum rainfall of the record
+     */
+    public double getRainfallMax() {
+        return rainfallMax;
+    }
+
+    /**
+     * @return the total rainfall of the record
+     */
+    public double getRainfallTotal() {
+        return rainfallTotal;
     }
 }
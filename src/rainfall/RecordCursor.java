@@ -0,0 +1,160 @@
+package rainfall;
+
+/**
+ * A RecordCursor is a flyweight view over the {@link MonthlyColumns} of a
+ * station that reads one record at a time. Moving the cursor changes which
+ * record it reads rather than creating a Record, so a single cursor can walk
+ * every record of a station without allocating, for example:
+ * <pre>
+ * RecordCursor cursor = station.cursor();
+ * while (cursor.next()) {
+ *     total += cursor.getRainfallTotal();
+ * }
+ * </pre>
+ * A cursor can be kept and {@link #reset} onto other columns. Cursors are
+ * not thread safe, so each thread should use its own.
+ *
+ * @author Owen Herbert
+ */
+public class RecordCursor {
+
+    private MonthlyColumns columns; // columns being read, null until reset
+    private int index = -1; // index of the current record, -1 before the first
+
+    /**
+     * Creates a cursor that must be {@link #reset} onto columns before use.
+     */
+    public RecordCursor() {
+    }
+
+    /**
+     * Places the cursor before the first record of the provided columns upon
+     * construction.
+     *
+     * @param columns the columns to read
+     */
+    public RecordCursor(MonthlyColumns columns) {
+        reset(columns);
+    }
+
+    /**
+     * Places the cursor before the first record of the provided columns.
+     *
+     * @param columns the columns to read
+     * @return the cursor
+     */
+    public RecordCursor reset(MonthlyColumns columns) {
+        this.columns = columns;
+        this.index = -1;
+        return this;
+    }
+
+    /**
+     * Moves the cursor to the next record.
+     *
+     * @return if there was a next record
+     */
+    public boolean next() {
+
+        if (index + 1 < columns.size()) {
+            index++;
+            return true;
+        }
+
+        index = columns.size();
+        return false;
+    }
+
+    /**
+     * Moves the cursor to a record.
+     *
+     * @param index index of the record
+     * @return the cursor
+     */
+    public RecordCursor moveTo(int index) {
+
+        if (index < 0 || index >= columns.size()) {
+            throw new IndexOutOfBoundsException("record " + index + " outside of " + columns.size());
+        }
+
+        this.index = index;
+        return this;
+    }
+
+    /**
+     * @return index of the current record
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the year of the current record
+     */
+    public int getYear() {
+        return columns.getYear(index);
+    }
+
+    /**
+     * @return the month of the current record
+     */
+    public int getMonth() {
+        return columns.getMonth(index);
+    }
+
+    /**
+     * @return the total rainfall of the current record
+     */
+    public double getRainfallTotal() {
+        return columns.getTotal(index);
+    }
+
+    /**
+     * @return the minimum rainfall of the current record
+     */
+    public double getRainfallMin() {
+        return columns.getMin(index);
+    }
+
+    /**
+     * @return the maximum rainfall of the current record
+     */
+    public double getRainfallMax() {
+        return columns.getMax(index);
+    }
+
+    /**
+     * @return the number of days with a reading, or {@link Record#COVERAGE_UNKNOWN}
+     */
+    public int getObservedDays() {
+        return columns.getObservedDays(index);
+    }
+
+    /**
+     * @return the number of days with a blank reading, or {@link Record#COVERAGE_UNKNOWN}
+     */
+    public int getMissingDays() {
+        return columns.getMissingDays(index);
+    }
+
+    /**
+     * Returns if the current record has rainfall readings, in the same way as
+     * {@link Record#hasData}.
+     *
+     * @return if the record has data
+     */
+    public boolean hasData() {
+        return getObservedDays() != 0;
+    }
+
+    /**
+     * Copies the current record into a new Record without its daily rainfall
+     * sketch, for when a record must outlive the cursor.
+     *
+     * @return a copy of the current record
+     */
+    public Record toRecord() {
+        return new Record(getYear(), getMonth(), getRainfallTotal(), getRainfallMin(), getRainfallMax(),
+                getObservedDays(), getMissingDays(), null);
+    }
+}
@@ -0,0 +1,192 @@
+package rainfall;
+
+import java.util.Arrays;
+
+/**
+ * RollingStatistics computes rolling sums, means, minimums and maximums over
+ * several window sizes, along with the departure of each month from its
+ * long-term calendar month mean, in a single pass over a monthly series.
+ * Values are accepted one at a time, so the statistics can be built while
+ * loading and extended when records are appended. Windows span consecutive
+ * accepted values, so months missing from a station are not padded. Months
+ * without data are accepted as NaN and left out of every statistic.
+ *
+ * @author Owen Herbert
+ */
+public class RollingStatistics {
+
+    public static final int[] DEFAULT_WINDOW_SIZES = {12, 36, 120}; // moving average windows in months
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final RollingWindow[] windows; // one window per window size
+    private final Climatology climatology = new Climatology();
+    private int size; // number of values accepted
+    private int[] months = new int[INITIAL_CAPACITY]; // calendar month of each value
+    private double[] values = new double[INITIAL_CAPACITY]; // each accepted value
+    private final double[][] sums, mins, maxs; // rolling statistics of each window, NaN until the window is full
+    private final double[][] means; // rolling mean of the present values of each window
+
+    /**
+     * Creates the rolling windows upon construction.
+     *
+     * @param windowSizes number of values in each rolling window
+     */
+    public RollingStatistics(int... windowSizes) {
+
+        windows = new RollingWindow[windowSizes.length];
+        sums = new double[windowSizes.length][INITIAL_CAPACITY];
+        mins = new double[windowSizes.length][INITIAL_CAPACITY];
+        maxs = new double[windowSizes.length][INITIAL_CAPACITY];
+        means = new double[windowSizes.length][INITIAL_CAPACITY];
+
+        for (int i = 0; i < windowSizes.length; i++) {
+            windows[i] = new RollingWindow(windowSizes[i]);
+        }
+    }
+
+    /**
+     * Builds rolling statistics over the total rainfall of the records of a
+     * station snapshot, in record order. Records without data are accepted
+     * as NaN.
+     *
+     * @param snapshot the station snapshot
+     * @param windowSizes number of values in each rolling window
+     * @return the rolling statistics
+     */
+    public static RollingStatistics of(StationSnapshot snapshot, int... windowSizes) {
+
+        RollingStatistics statistics = new RollingStatistics(windowSizes);
+        RecordCursor cursor = snapshot.cursor();
+        while (cursor.next()) {
+            statistics.accept(cursor.getMonth(), cursor.hasData() ? cursor.getRainfallTotal() : Double.NaN);
+        }
+
+        return statistics;
+    }
+
+    /**
+     * Accepts the next value of the monthly series.
+     *
+     * @param month the calendar month of the value, 1 to 12
+     * @param value the rainfall of the month, NaN if the month has no data
+     */
+    public void accept(int month, double value) {
+
+        if (size == values.length) {
+            grow();
+        }
+
+        months[size] = month;
+        values[size] = value;
+        if (!Double.isNaN(value)) {
+            climatology.add(month, value);
+        }
+
+        for (int i = 0; i < windows.length; i++) {
+
+            RollingWindow window = windows[i];
+            window.push(value);
+
+            boolean isFull = window.isFull() && window.getPresentLength() > 0;
+            sums[i][size] = isFull ? window.getSum() : Double.NaN;
+            mins[i][size] = isFull ? window.getMin() : Double.NaN;
+            maxs[i][size] = isFull ? window.getMax() : Double.NaN;
+            means[i][size] = isFull ? window.getMean() : Double.NaN;
+        }
+
+        size++;
+    }
+
+    /**
+     * @return the number of values accepted
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of rolling windows
+     */
+    public int getWindowCount() {
+        return windows.length;
+    }
+
+    /**
+     * @param window index of the rolling window
+     * @return the number of values in the rolling window
+     */
+    public int getWindowSize(int window) {
+        return windows[window].getSize();
+    }
+
+    /**
+     * @param window index of the rolling window
+     * @param index index of the value that ends the window
+     * @return the rolling sum of present values, NaN if the window was not yet full
+     */
+    public double getSum(int window, int index) {
+        return sums[window][index];
+    }
+
+    /**
+     * @param window index of the rolling window
+     * @param index index of the value that ends the window
+     * @return the rolling mean of present values, NaN if the window was not yet full
+     */
+    public double getMean(int window, int index) {
+        return means[window][index];
+    }
+
+    /**
+     * @param window index of the rolling window
+     * @param index index of the value that ends the window
+     * @return the rolling minimum, NaN if the window was not yet full
+     */
+    public double getMin(int window, int index) {
+        return mins[window][index];
+    }
+
+    /**
+     * @param window index of the rolling window
+     * @param index index of the value that ends the window
+     * @return the rolling maximum, NaN if the window was not yet full
+     */
+    public double getMax(int window, int index) {
+        return maxs[window][index];
+    }
+
+    /**
+     * Returns the departure of a value from the long-term mean of its
+     * calendar month, over every value accepted so far.
+     *
+     * @param index index of the value
+     * @return the departure from the long-term mean, NaN if the value is missing
+     */
+    public double getAnomaly(int index) {
+        return climatology.getAnomaly(months[index], values[index]);
+    }
+
+    /**
+     * @return the climatology of every value accepted so far
+     */
+    public Climatology getClimatology() {
+        return climatology;
+    }
+
+    /**
+     * Doubles the capacity of the series arrays.
+     */
+    private void grow() {
+
+        int capacity = values.length * 2;
+        months = Arrays.copyOf(months, capacity);
+        values = Arrays.copyOf(values, capacity);
+
+        for (int i = 0; i < windows.length; i++) {
+            sums[i] = Arrays.copyOf(sums[i], capacity);
+            mins[i] = Arrays.copyOf(mins[i], capacity);
+            maxs[i] = Arrays.copyOf(maxs[i], capacity);
+            means[i] = Arrays.copyOf(means[i], capacity);
+        }
+    }
+}
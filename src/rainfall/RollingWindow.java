@@ -0,0 +1,160 @@
+package rainfall;
+
+/**
+ * A RollingWindow keeps the sum, minimum and maximum of the most recent values
+ * of a stream in constant amortised time per value. The minimum and maximum
+ * are kept with monotonic deques, so no value is ever rescanned. NaN values
+ * stand for missing data; they take up a place in the window but are left
+ * out of its statistics.
+ *
+ * @author Owen Herbert
+ */
+public class RollingWindow {
+
+    private final int size; // number of values in a full window
+    private final double[] values; // ring buffer of the values in the window, indexed by sequence
+    private final long[] minDeque; // ring buffer of sequences with increasing values
+    private final long[] maxDeque; // ring buffer of sequences with decreasing values
+    private int minHead, minLength; // head and length of the minimum deque
+    private int maxHead, maxLength; // head and length of the maximum deque
+    private long count; // number of values pushed into the window
+    private double sum; // sum of the values in the window
+    private int missing; // number of NaN values in the window
+
+    /**
+     * Sets the window size upon construction.
+     *
+     * @param size number of values in a full window
+     */
+    public RollingWindow(int size) {
+
+        if (size < 1) {
+            throw new IllegalArgumentException("window size must be positive!");
+        }
+
+        this.size = size;
+        this.values = new double[size];
+        this.minDeque = new long[size];
+        this.maxDeque = new long[size];
+    }
+
+    /**
+     * Pushes a value into the window, evicting the oldest value once the
+     * window is full.
+     *
+     * @param value the value to push
+     */
+    public void push(double value) {
+
+        long sequence = count;
+        long expired = sequence - size; // sequences at or before this have left the window
+
+        // expire deque heads before their values are overwritten
+        if (minLength > 0 && minDeque[minHead] <= expired) {
+            minHead = (minHead + 1) % size;
+            minLength--;
+        }
+        if (maxLength > 0 && maxDeque[maxHead] <= expired) {
+            maxHead = (maxHead + 1) % size;
+            maxLength--;
+        }
+
+        int slot = (int) (sequence % size);
+        if (count >= size) {
+            if (Double.isNaN(values[slot])) {
+                missing--;
+            } else {
+                sum -= values[slot];
+            }
+        }
+        values[slot] = value;
+        count++;
+
+        // missing values never enter the deques
+        if (Double.isNaN(value)) {
+            missing++;
+            return;
+        }
+        sum += value;
+
+        // drop tail entries that can no longer be the minimum or maximum
+        while (minLength > 0 && valueAt(minDeque[(minHead + minLength - 1) % size]) >= value) {
+            minLength--;
+        }
+        minDeque[(minHead + minLength) % size] = sequence;
+        minLength++;
+
+        while (maxLength > 0 && valueAt(maxDeque[(maxHead + maxLength - 1) % size]) <= value) {
+            maxLength--;
+        }
+        maxDeque[(maxHead + maxLength) % size] = sequence;
+        maxLength++;
+    }
+
+    /**
+     * @return if the window holds as many values as its size
+     */
+    public boolean isFull() {
+        return count >= size;
+    }
+
+    /**
+     * @return the number of values in the window
+     */
+    public int getLength() {
+        return (int) Math.min(count, size);
+    }
+
+    /**
+     * @return the number of values in the window that are not missing
+     */
+    public int getPresentLength() {
+        return getLength() - missing;
+    }
+
+    /**
+     * @return the number of values in a full window
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the sum of the present values in the window
+     */
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * @return the mean of the present values in the window, NaN if there are none
+     */
+    public double getMean() {
+        return getPresentLength() == 0 ? Double.NaN : sum / getPresentLength();
+    }
+
+    /**
+     * @return the minimum value in the window, NaN if it is empty
+     */
+    public double getMin() {
+        return minLength == 0 ? Double.NaN : valueAt(minDeque[minHead]);
+    }
+
+    /**
+     * @return the maximum value in the window, NaN if it is empty
+     */
+    public double getMax() {
+        return maxLength == 0 ? Double.NaN : valueAt(maxDeque[maxHead]);
+    }
+
+    /**
+     * Returns the value pushed with the given sequence, which must still be
+     * inside the window.
+     *
+     * @param sequence the sequence of the value
+     * @return the value
+     */
+    private double valueAt(long sequence) {
+        return values[(int) (sequence % size)];
+    }
+}
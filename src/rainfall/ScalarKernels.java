@@ -0,0 +1,187 @@
+package rainfall;
+
+import java.nio.ByteBuffer;
+
+/**
+ * ScalarKernels are the plain loop implementation of the aggregation
+ * kernels, used when the vector module is not available.
+ *
+ * @author Owen Herbert
+ */
+class ScalarKernels implements AggregateKernels {
+
+    @Override
+    public double sum(double[] values, int from, int to) {
+
+        double sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += values[i];
+        }
+
+        return sum;
+    }
+
+    @Override
+    public double min(double[] values, int from, int to) {
+
+        double min = Double.POSITIVE_INFINITY;
+        for (int i = from; i < to; i++) {
+            min = Math.min(min, values[i]);
+        }
+
+        return min;
+    }
+
+    @Override
+    public double max(double[] values, int from, int to) {
+
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = from; i < to; i++) {
+            max = Math.max(max, values[i]);
+        }
+
+        return max;
+    }
+
+    @Override
+    public int countAbove(double[] values, int from, int to, double threshold) {
+
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            count += values[i] > threshold ? 1 : 0;
+        }
+
+        return count;
+    }
+
+    @Override
+    public double maskedSum(double[] values, long[] words) {
+
+        double sum = 0;
+        for (int i = 0; i < values.length; i++) {
+            sum += ((words[i >>> 6] >>> i) & 1) != 0 ? values[i] : 0;
+        }
+
+        return sum;
+    }
+
+    @Override
+    public double sum(ByteBuffer values, int offset, int count) {
+
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += values.getDouble(offset + (i * Double.BYTES));
+        }
+
+        return sum;
+    }
+
+    @Override
+    public double max(ByteBuffer values, int offset, int count) {
+
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            max = Math.max(max, values.getDouble(offset + (i * Double.BYTES)));
+        }
+
+        return max;
+    }
+
+    @Override
+    public int countAbove(ByteBuffer values, int offset, int count, double threshold) {
+
+        int above = 0;
+        for (int i = 0; i < count; i++) {
+            above += values.getDouble(offset + (i * Double.BYTES)) > threshold ? 1 : 0;
+        }
+
+        return above;
+    }
+
+    @Override
+    public double maskedSum(ByteBuffer values, int offset, int count, long[] words, int firstIndex) {
+
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            int index = firstIndex + i;
+            sum += ((words[index >>> 6] >>> index) & 1) != 0 ? values.getDouble(offset + (i * Double.BYTES)) : 0;
+        }
+
+        return sum;
+    }
+
+    @Override
+    public void compareMask(double[] values, int from, int to, Query.Comparison comparison, double threshold,
+                            long[] words) {
+
+        // the comparison is chosen once per range rather than once per value
+        switch (comparison) {
+            case LESS_THAN -> {
+                for (int i = from; i < to; i++) {
+                    words[i >>> 6] |= (values[i] < threshold ? 1L : 0L) << i;
+                }
+            }
+            case LESS_OR_EQUAL -> {
+                for (int i = from; i < to; i++) {
+                    words[i >>> 6] |= (values[i] <= threshold ? 1L : 0L) << i;
+                }
+            }
+            case GREATER_THAN -> {
+                for (int i = from; i < to; i++) {
+                    words[i >>> 6] |= (values[i] > threshold ? 1L : 0L) << i;
+                }
+            }
+            case GREATER_OR_EQUAL -> {
+                for (int i = from; i < to; i++) {
+                    words[i >>> 6] |= (values[i] >= threshold ? 1L : 0L) << i;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void clearZeroMask(int[] values, int from, int to, long[] words) {
+        for (int i = from; i < to; i++) {
+            words[i >>> 6] &= ~((values[i] == 0 ? 1L : 0L) << i);
+        }
+    }
+
+    @Override
+    public void compareMask(ByteBuffer values, int offset, int count, Query.Comparison comparison, double threshold,
+                            long[] words, int firstIndex) {
+
+        switch (comparison) {
+            case LESS_THAN -> {
+                for (int i = 0, index = firstIndex; i < count; i++, index++) {
+                    double value = values.getDouble(offset + (i * Double.BYTES));
+                    words[index >>> 6] |= (value < threshold ? 1L : 0L) << index;
+                }
+            }
+            case LESS_OR_EQUAL -> {
+                for (int i = 0, index = firstIndex; i < count; i++, index++) {
+                    double value = values.getDouble(offset + (i * Double.BYTES));
+                    words[index >>> 6] |= (value <= threshold ? 1L : 0L) << index;
+                }
+            }
+            case GREATER_THAN -> {
+                for (int i = 0, index = firstIndex; i < count; i++, index++) {
+                    double value = values.getDouble(offset + (i * Double.BYTES));
+                    words[index >>> 6] |= (value > threshold ? 1L : 0L) << index;
+                }
+            }
+            case GREATER_OR_EQUAL -> {
+                for (int i = 0, index = firstIndex; i < count; i++, index++) {
+                    double value = values.getDouble(offset + (i * Double.BYTES));
+                    words[index >>> 6] |= (value >= threshold ? 1L : 0L) << index;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void clearZeroMask(ByteBuffer values, int offset, int count, long[] words, int firstIndex) {
+        for (int i = 0, index = firstIndex; i < count; i++, index++) {
+            words[index >>> 6] &= ~((values.getInt(offset + (i * Integer.BYTES)) == 0 ? 1L : 0L) << index);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package rainfall;
+
+import java.util.Arrays;
+
+/**
+ * A Selection is an immutable bitmap of selected record indexes, with one bit
+ * per record packed into 64 bit words. Selections combine word by word, so
+ * AND, OR and NOT cost one operation per 64 records.
+ *
+ * @author Owen Herbert
+ */
+public class Selection {
+
+    private final int size; // number of records the selection covers
+    private final long[] words; // bitmap of selected records, bits past the size are clear
+
+    /**
+     * Sets the size and bitmap words upon construction. The words are owned
+     * by the selection after construction.
+     *
+     * @param size number of records the selection covers
+     * @param words bitmap of selected records
+     */
+    Selection(int size, long[] words) {
+        this.size = size;
+        this.words = words;
+    }
+
+    /**
+     * Returns a selection of every record.
+     *
+     * @param size number of records
+     * @return selection of every record
+     */
+    public static Selection all(int size) {
+
+        long[] words = new long[wordCount(size)];
+        Arrays.fill(words, -1L);
+
+        return new Selection(size, clearTail(size, words));
+    }
+
+    /**
+     * Returns the records selected by both this and another selection.
+     *
+     * @param other the other selection
+     * @return the intersection of the selections
+     */
+    public Selection and(Selection other) {
+
+        checkSize(other);
+
+        long[] result = new long[words.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = words[i] & other.words[i];
+        }
+
+        return new Selection(size, result);
+    }
+
+    /**
+     * Returns the records selected by either this or another selection.
+     *
+     * @param other the other selection
+     * @return the union of the selections
+     */
+    public Selection or(Selection other) {
+
+        checkSize(other);
+
+        long[] result = new long[words.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = words[i] | other.words[i];
+        }
+
+        return new Selection(size, result);
+    }
+
+    /**
+     * @return the records not selected by this selection
+     */
+    public Selection not() {
+
+        long[] result = new long[words.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ~words[i];
+        }
+
+        return new Selection(size, clearTail(size, result));
+    }
+
+    /**
+     * @param index the record index
+     * @return if the record is selected
+     */
+    public boolean contains(int index) {
+        return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Returns the index of the next selected record at or after an index, or
+     * -1 if there is none.
+     *
+     * @param from the index to search from
+     * @return the next selected record index, or -1
+     */
+    public int nextSelected(int from) {
+
+        if (from >= size) {
+            return -1;
+        }
+
+        int wordIndex = from >>> 6;
+        long word = words[wordIndex] & (-1L << from);
+
+        while (word == 0) {
+            if (++wordIndex == words.length) {
+                return -1;
+            }
+            word = words[wordIndex];
+        }
+
+        return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * @return the number of selected records
+     */
+    public int count() {
+
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+
+        return count;
+    }
+
+    /**
+     * @return the selected record indexes in ascending order
+     */
+    public int[] toIndexes() {
+
+        int[] indexes = new int[count()];
+        int position = 0;
+        for (int i = nextSelected(0); i >= 0; i = nextSelected(i + 1)) {
+            indexes[position++] = i;
+        }
+
+        return indexes;
+    }
+
+    /**
+     * @return the number of records the selection covers
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the bitmap words, must not be modified
+     */
+    long[] getWords() {
+        return words;
+    }
+
+    /**
+     * Returns the number of words needed for a bitmap of a given size.
+     *
+     * @param size number of records
+     * @return number of words
+     */
+    static int wordCount(int size) {
+        return (size + 63) >>> 6;
+    }
+
+    /**
+     * Clears the bits past the size in the last word of a bitmap.
+     *
+     * @param size number of records
+     * @param words the bitmap
+     * @return the bitmap
+     */
+    private static long[] clearTail(int size, long[] words) {
+
+        if ((size & 63) != 0) {
+            words[words.length - 1] &= (1L << size) - 1;
+        }
+
+        return words;
+    }
+
+    /**
+     * Throws if another selection does not cover the same records.
+     *
+     * @param other the other selection
+     */
+    private void checkSize(Selection other) {
+        if (other.size != size) {
+            throw new IllegalArgumentException("selections cover different records!");
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package rainfall;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * A SpellDetector finds runs of consecutive dry days and heavy rain days in a
+ * stream of daily rainfall readings. Each reading is seen once, and only the
+ * start and length of the open dry and wet runs are kept between readings.
+ * Closed spells are counted in a per year histogram and the longest are kept
+ * for each type.
+ * <p>
+ * Readings are only accepted from within this package, by the loader, so a
+ * detector published in a {@link StationSnapshot} cannot be changed by the
+ * threads that read it.
+ *
+ * @author Owen Herbert
+ */
+public class SpellDetector {
+
+    public static final int DEFAULT_TOP_COUNT = 10; // number of longest spells kept of each type
+    public static final double DEFAULT_HEAVY_RAINFALL = 10; // daily rainfall in mm of a heavy rain day
+
+    // upper bounds of the spell length histogram buckets, the last bucket is unbounded
+    private static final int[] HISTOGRAM_BUCKET_BOUNDS = {2, 6, 13, 29};
+
+    private final int topCount; // number of longest spells kept of each type
+    private final double heavyRainfall; // daily rainfall of a heavy rain day
+    private final PriorityQueue<Spell> longestDrySpells; // shortest kept dry spell at the head
+    private final PriorityQueue<Spell> longestWetSpells; // shortest kept wet spell at the head
+    private final TreeMap<Integer, int[]> dryHistogram = new TreeMap<>(); // dry spell counts by start year
+    private final TreeMap<Integer, int[]> wetHistogram = new TreeMap<>(); // wet spell counts by start year
+    private long lastEpochDay = Long.MIN_VALUE; // epoch day of the last reading
+    private long dryStart, wetStart; // epoch day the open dry and wet runs started
+    private int dryLength, wetLength; // length in days of the open dry and wet runs
+
+    /**
+     * Creates a detector with the default top count and heavy rainfall.
+     */
+    public SpellDetector() {
+        this(DEFAULT_TOP_COUNT, DEFAULT_HEAVY_RAINFALL);
+    }
+
+    /**
+     * Sets the number of spells to keep and the heavy rainfall threshold upon
+     * construction.
+     *
+     * @param topCount number of longest spells kept of each type
+     * @param heavyRainfall daily rainfall in mm at or above which a day is a heavy rain day
+     */
+    public SpellDetector(int topCount, double heavyRainfall) {
+
+        Comparator<Spell> byLength = Comparator.comparingInt(Spell::getLength);
+
+        this.topCount = topCount;
+        this.heavyRainfall = heavyRainfall;
+        this.longestDrySpells = new PriorityQueue<>(topCount + 1, byLength);
+        this.longestWetSpells = new PriorityQueue<>(topCount + 1, byLength);
+    }
+
+    /**
+     * Accepts the reading of the next day. Readings must be in date order; a
+     * gap between dates closes any open runs.
+     *
+     * @param epochDay epoch day of the reading
+     * @param rainfall rainfall in mm of the day
+     */
+    void accept(long epochDay, double rainfall) {
+
+        if (epochDay != lastEpochDay + 1) {
+            finish();
+        }
+        lastEpochDay = epochDay;
+
+        // extend or open the run the day belongs to and close the other
+        if (rainfall == 0) {
+            closeWetRun();
+            if (dryLength++ == 0) {
+                dryStart = epochDay;
+            }
+        } else if (rainfall >= heavyRainfall) {
+            closeDryRun();
+            if (wetLength++ == 0) {
+                wetStart = epochDay;
+            }
+        } else {
+            closeDryRun();
+            closeWetRun();
+        }
+    }
+
+    /**
+     * Closes any open runs, such as at the end of the stream or at a gap in
+     * the readings.
+     */
+    void finish() {
+        closeDryRun();
+        closeWetRun();
+    }
+
+    /**
+     * @return the longest dry spells, longest first
+     */
+    public ArrayList<Spell> getLongestDrySpells() {
+        return sortedByLength(longestDrySpells);
+    }
+
+    /**
+     * @return the longest heavy rain spells, longest first
+     */
+    public ArrayList<Spell> getLongestWetSpells() {
+        return sortedByLength(longestWetSpells);
+    }
+
+    /**
+     * Returns the number of dry spells that started in a year, bucketed by
+     * length. Bucket i holds spells of at most {@link #getHistogramBucketBound}
+     * days, and the last bucket holds every longer spell.
+     *
+     * @param year the year
+     * @return dry spell counts by length bucket
+     */
+    public int[] getDrySpellHistogram(int year) {
+        return dryHistogram.getOrDefault(year, new int[HISTOGRAM_BUCKET_BOUNDS.length + 1]).clone();
+    }
+
+    /**
+     * Returns the number of heavy rain spells that started in a year, bucketed
+     * by length in the same buckets as {@link #getDrySpellHistogram}.
+     *
+     * @param year the year
+     * @return heavy rain spell counts by length bucket
+     */
+    public int[] getWetSpellHistogram(int year) {
+        return wetHistogram.getOrDefault(year, new int[HISTOGRAM_BUCKET_BOUNDS.length + 1]).clone();
+    }
+
+    /**
+     * Returns the upper bound in days of a histogram bucket, or
+     * {@link Integer#MAX_VALUE} for the last bucket.
+     *
+     * @param bucket index of the bucket
+     * @return the longest spell in the bucket
+     */
+    public static int getHistogramBucketBound(int bucket) {
+        return bucket < HISTOGRAM_BUCKET_BOUNDS.length ? HISTOGRAM_BUCKET_BOUNDS[bucket] : Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return the daily rainfall in mm at or above which a day is a heavy rain day
+     */
+    public double getHeavyRainfall() {
+        return heavyRainfall;
+    }
+
+    /**
+     * Records and resets the open dry run, if any.
+     */
+    private void closeDryRun() {
+
+        if (dryLength > 0) {
+            recordSpell(Spell.Type.DRY, dryStart, dryLength, longestDrySpells, dryHistogram);
+            dryLength = 0;
+        }
+    }
+
+    /**
+     * Records and resets the open heavy rain run, if any.
+     */
+    private void closeWetRun() {
+
+        if (wetLength > 0) {
+            recordSpell(Spell.Type.WET, wetStart, wetLength, longestWetSpells, wetHistogram);
+            wetLength = 0;
+        }
+    }
+
+    /**
+     * Counts a closed spell in the histogram and keeps it if it is one of the
+     * longest of its type. Spells are only created when they are kept.
+     *
+     * @param type the type of spell
+     * @param start epoch day the spell started
+     * @param length length in days of the spell
+     * @param longestSpells the longest spells of the type
+     * @param histogram the histogram of the type
+     */
+    private void recordSpell(Spell.Type type, long start, int length, PriorityQueue<Spell> longestSpells,
+                             TreeMap<Integer, int[]> histogram) {
+
+        LocalDate startDate = LocalDate.ofEpochDay(start);
+
+        int bucket = 0;
+        while (bucket < HISTOGRAM_BUCKET_BOUNDS.length && length > HISTOGRAM_BUCKET_BOUNDS[bucket]) {
+            bucket++;
+        }
+        histogram.computeIfAbsent(startDate.getYear(), year -> new int[HISTOGRAM_BUCKET_BOUNDS.length + 1])[bucket]++;
+
+        if (longestSpells.size() < topCount || length > longestSpells.peek().getLength()) {
+            longestSpells.add(new Spell(type, startDate, startDate.plusDays(length - 1), length));
+            if (longestSpells.size() > topCount) {
+                longestSpells.poll();
+            }
+        }
+    }
+
+    /**
+     * Returns the spells of a queue, longest first.
+     *
+     * @param spells the spells
+     * @return spells sorted by descending length
+     */
+    private static ArrayList<Spell> sortedByLength(PriorityQueue<Spell> spells) {
+
+        ArrayList<Spell> sortedSpells = new ArrayList<>(spells);
+        sortedSpells.sort(Comparator.comparingInt(Spell::getLength).reversed()
+                .thenComparing(Spell::getStart));
+
+        return sortedSpells;
+    }
+
+    /**
+     * A Spell is a run of consecutive dry days or heavy rain days.
+     */
+    public static class Spell {
+
+        /**
+         * The type of day that makes up a spell.
+         */
+        public enum Type { DRY, WET }
+
+        private final Type type; // type of spell
+        private final LocalDate start; // first day of the spell
+        private final LocalDate end; // last day of the spell
+        private final int length; // length in days of the spell
+
+        Spell(Type type, LocalDate start, LocalDate end, int length) {
+            this.type = type;
+            this.start = start;
+            this.end = end;
+            this.length = length;
+        }
+
+        /**
+         * @return the type of spell
+         */
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * @return the first day of the spell
+         */
+        public LocalDate getStart() {
+            return start;
+        }
+
+        /**
+         * @return the last day of the spell
+         */
+        public LocalDate getEnd() {
+            return end;
+        }
+
+        /**
+         * @return the length in days of the spell
+         */
+        public int getLength() {
+            return length;
+        }
+    }
+}
@@ -1,25 +1,132 @@
 package rainfall;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A Station contains analysed monthly rainfall data. {@link Loader#load} is used to
  * create a Station object given a dataset station name.
+ * <p>
+ * The records of a station are published as immutable {@link StationSnapshot}s
+ * through a volatile field. Readers never lock: each query method reads the
+ * current snapshot once, and a reader that makes several calls, such as the
+ * chart, takes a snapshot with {@link #getSnapshot} so every call sees the
+ * same version. Writers collect changes in a {@link Batch}, and committing it
+ * publishes a new snapshot with a new version, so readers see either none or
+ * all of a batch.
+ * <p>
+ * The records and daily readings can be moved off the heap with
+ * {@link #moveOffHeap}, into direct memory or the station's column chunk file
+ * mapped into memory, and are still read through the same query methods.
+ * The snapshot then holds no Record objects, only views that read the stored
+ * columns. They stay off heap until the station is evicted with
+ * {@link #release}, or until a batch is committed, which brings the station
+ * back onto the heap.
  *
  * @author Owen Herbert
  */
-public class Station extends LinkedHashMap<String, Record> {
+public class Station {
+
+    private static final AtomicLong VERSION_SEQUENCE = new AtomicLong(); // source of station versions
 
     private final String name; // station name
+    private volatile StationSnapshot snapshot; // current records, replaced by every commit
+    private volatile long sourceRows; // number of rows read from the source file
+    private volatile long sourceBytes; // size in bytes of the source file
+    private volatile Storage storage = Storage.HEAP; // where the records and daily readings are held
+
+    // approximate shallow sizes used to estimate the heap held by a station
+    private static final int RECORD_ENTRY_BYTES = 200; // record, key string, map entry and list slot
+    private static final int SKETCH_OVERHEAD_BYTES = 96; // sketch object and level arrays
+    private static final int COLUMN_BYTES_PER_RECORD = 44; // one value in each monthly column
+
+    private static final double ANALYSED_RAINFALL_PRECISION = 0.01; // rainfall precision of analysed csv files
 
     /**
-     * Sets the station name upon construction.
+     * The places the records and daily readings of a station can be held.
+     */
+    public enum Storage {
+
+        HEAP, // records and java arrays, the default
+        DIRECT, // columns and daily readings in direct memory outside of the heap
+        MAPPED; // columns mapped from the column chunk file, which the os can page out, daily readings direct
+
+        public static final String PROPERTY = "rainfall.storage"; // system property choosing the storage
+
+        /**
+         * @return the storage chosen by the system property, or heap if it is unset
+         * @throws IllegalArgumentException if the property is not a storage
+         */
+        public static Storage fromSystemProperty() {
+            return valueOf(System.getProperty(PROPERTY, HEAP.name()).toUpperCase());
+        }
+    }
+
+    /**
+     * Sets the station name upon construction. The station starts with an
+     * empty snapshot.
      *
      * @param name name of the station
      */
     public Station(String name) {
         this.name = name;
+        this.snapshot = new StationSnapshot(VERSION_SEQUENCE.incrementAndGet(), new LinkedHashMap<>(),
+                null, null, null);
+    }
+
+    /**
+     * Returns the current snapshot of the records. The snapshot never
+     * changes, so several calls on it see the same version even while a
+     * batch is committed.
+     *
+     * @return the current snapshot
+     */
+    public StationSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return a new batch of changes to the station
+     */
+    public Batch batch() {
+        return new Batch(this);
+    }
+
+    /**
+     * @return the number of records
+     */
+    public int size() {
+        return snapshot.size();
+    }
+
+    /**
+     * @return if the station has no records
+     */
+    public boolean isEmpty() {
+        return snapshot.isEmpty();
+    }
+
+    /**
+     * @param key key of the record, see {@link Record#makeKey}
+     * @return the record, or null if there is none
+     */
+    public Record get(String key) {
+        return snapshot.get(key);
+    }
+
+    /**
+     * @param key key of the record, see {@link Record#makeKey}
+     * @return if the station has a record with the key
+     */
+    public boolean containsKey(String key) {
+        return snapshot.containsKey(key);
     }
 
     /**
@@ -28,36 +135,349 @@ public class Station extends LinkedHashMap<String, Record> {
      * @return distinct years
      */
     public ArrayList<Integer> getDistinctYears() {
+        return snapshot.getDistinctYears();
+    }
+
+    /**
+     * Returns the maximum total rainfall of any record, or -1 if the
+     * station has no records.
+     *
+     * @return maximum total rainfall
+     */
+    public double getRainfallMax() {
+        return snapshot.getRainfallMax();
+    }
 
-        ArrayList<Integer> distinctYears = new ArrayList<>();
+    /**
+     * @return the total rainfall of every record
+     */
+    public double getRainfallTotal() {
+        return snapshot.getRainfallTotal();
+    }
+
+    /**
+     * @param selection selection of records, such as from {@link #select}
+     * @return the total rainfall of the selected records
+     */
+    public double getRainfallTotal(Selection selection) {
+        return snapshot.getRainfallTotal(selection);
+    }
 
-        for (Record record : this.values()) {
-            int year = record.getYear();
-            if (!distinctYears.contains(year)) {
-                distinctYears.add(year);
+    /**
+     * @param threshold the threshold in mm
+     * @return the number of records with total rainfall above the threshold
+     */
+    public int countRecordsAbove(double threshold) {
+        return snapshot.countRecordsAbove(threshold);
+    }
+
+    /**
+     * Returns the records in insertion order as a list so that they can be
+     * accessed by index. The list belongs to the current snapshot.
+     *
+     * @return records in insertion order
+     */
+    public List<Record> getRecordList() {
+        return snapshot.getRecordList();
+    }
+
+    /**
+     * Returns the records in insertion order as primitive columns. The
+     * columns are cached with the current snapshot.
+     *
+     * @return columns of the records
+     */
+    public MonthlyColumns getMonthlyColumns() {
+        return snapshot.getMonthlyColumns();
+    }
+
+    /**
+     * Returns a cursor placed before the first record, which reads the
+     * records in insertion order from the columns without creating a Record
+     * for each.
+     *
+     * @return a cursor over the records
+     */
+    public RecordCursor cursor() {
+        return snapshot.cursor();
+    }
+
+    /**
+     * Returns the total rainfall of each record in insertion order. The
+     * array is cached with the current snapshot and must not be modified.
+     *
+     * @return total rainfall of each record
+     */
+    public double[] getRainfallTotals() {
+        return snapshot.getRainfallTotals();
+    }
+
+    /**
+     * Evaluates a query over the records of the station.
+     *
+     * @param query the query
+     * @return selection of record indexes in insertion order
+     */
+    public Selection select(Query query) {
+        return snapshot.select(query);
+    }
+
+    /**
+     * Returns a range query over the total rainfall of each record, indexed
+     * in insertion order. The query is cached with the current snapshot.
+     *
+     * @return range query over total rainfall
+     */
+    public RangeQuery getRainfallTotalsQuery() {
+        return snapshot.getRainfallTotalsQuery();
+    }
+
+    /**
+     * Returns rolling statistics over the total rainfall of each record with
+     * the default window sizes, indexed in insertion order. The statistics
+     * are cached with the current snapshot.
+     *
+     * @return rolling statistics over total rainfall
+     */
+    public RollingStatistics getRollingStatistics() {
+        return snapshot.getRollingStatistics();
+    }
+
+    /**
+     * Returns a sketch of the daily rainfall of a calendar month across every
+     * year of the station. The sketches are cached with the current snapshot
+     * and must not be modified; merge them into a new sketch instead.
+     *
+     * @param month the calendar month, 1 to 12
+     * @return daily rainfall sketch of the calendar month
+     */
+    public QuantileSketch getCalendarMonthSketch(int month) {
+        return snapshot.getCalendarMonthSketch(month);
+    }
+
+    /**
+     * Merges the daily rainfall sketches of the records within a range of
+     * years into a new sketch. Records without daily rainfall are skipped,
+     * so the sketch is empty for stations loaded from analysed csv files.
+     *
+     * @param fromYear first year of the range, inclusive
+     * @param toYear last year of the range, inclusive
+     * @param month the calendar month, 1 to 12, or 0 for every month
+     * @return daily rainfall sketch of the range
+     */
+    public QuantileSketch getDailyRainfallSketch(int fromYear, int toYear, int month) {
+        return snapshot.getDailyRainfallSketch(fromYear, toYear, month);
+    }
+
+    /**
+     * Returns the dry and heavy rain spells found in the daily readings of
+     * the station. Stations loaded from analysed csv files have no daily
+     * readings and return null.
+     *
+     * @return the spell detector, or null
+     */
+    public SpellDetector getSpellDetector() {
+        return snapshot.getSpellDetector();
+    }
+
+    /**
+     * Returns the compressed daily readings of the station. Stations loaded
+     * from analysed csv files have no daily readings and return null.
+     *
+     * @return the daily series, or null
+     */
+    public DailySeries getDailySeries() {
+        return snapshot.getDailySeries();
+    }
+
+    /**
+     * Moves the records and daily readings of the station out of the heap,
+     * leaving record views over the stored columns in its snapshot. Direct
+     * storage copies the columns into direct memory. Mapped storage maps the
+     * monthly row groups of the station's column chunk file in place,
+     * rewriting the file first if it is missing or no longer holds the
+     * records. The daily readings are copied into direct memory either way,
+     * since the file holds them uncompressed. A station is only moved once.
+     *
+     * @param storage where to hold the records and daily readings
+     * @param columnFile the station's column chunk file, only used by mapped storage
+     * @throws IOException if the store cannot be created or the file cannot be mapped
+     */
+    public synchronized void moveOffHeap(Storage storage, Path columnFile) throws IOException {
+
+        if (storage == Storage.HEAP || this.storage != Storage.HEAP) {
+            return;
+        }
+
+        StationSnapshot current = snapshot;
+        MonthlyColumns columns = current.getMonthlyColumns();
+        DailySeries dailySeries = current.getDailySeries();
+        long columnBytes = storage == Storage.DIRECT ? MonthlyColumns.getStoreBytes(columns.size()) : 0;
+        long seriesBytes = dailySeries == null ? 0 : dailySeries.getStoreBytes();
+
+        if (columnBytes + seriesBytes > Integer.MAX_VALUE) {
+            throw new IOException("station is too large to store off heap!");
+        }
+
+        ByteBuffer store = ByteBuffer.allocateDirect((int) (columnBytes + seriesBytes));
+        MonthlyColumns storedColumns = storage == Storage.MAPPED ? mapColumnFile(columns, columnFile) :
+                columns.copyTo(store.slice(0, (int) columnBytes));
+        DailySeries storedSeries = dailySeries == null ? null :
+                dailySeries.copyTo(store.slice((int) columnBytes, (int) seriesBytes));
+
+        snapshot = new StationSnapshot(current.getVersion(), storedColumns, storedSeries,
+                current.getSpellDetector());
+        this.storage = storage;
+    }
+
+    /**
+     * Maps the monthly columns of the station's column chunk file, writing
+     * the file again if it is missing, unreadable or holds other records. A
+     * station loaded from its analysed csv file has its rainfall rounded to
+     * the csv's precision, so the file is kept and mapped as it is when it
+     * holds the same months with rainfall within that precision, rather than
+     * being written again without its daily readings.
+     *
+     * @param columns the current columns of the station
+     * @param columnFile the station's column chunk file
+     * @return the mapped columns
+     * @throws IOException if the file cannot be written or mapped
+     */
+    private MonthlyColumns mapColumnFile(MonthlyColumns columns, Path columnFile) throws IOException {
+
+        if (Files.exists(columnFile)) {
+            try (ColumnChunkFile.Reader reader = ColumnChunkFile.open(columnFile)) {
+                MonthlyColumns mappedColumns = reader.mapMonthlyColumns();
+                if (mappedColumns.isSameAs(columns, ANALYSED_RAINFALL_PRECISION)) {
+                    return mappedColumns;
+                }
+            } catch (IOException err) {
+                // the file is written again below
             }
         }
 
-        return distinctYears;
+        ColumnChunkFile.write(this, columnFile);
+        try (ColumnChunkFile.Reader reader = ColumnChunkFile.open(columnFile)) {
+            return reader.mapMonthlyColumns();
+        }
     }
 
     /**
-     * Iterates through all records and returns the maximum total rainfall
-     * found.
+     * Releases the station as it is evicted from a cache. An empty snapshot
+     * is published, so the records and daily readings, and any direct or
+     * mapped buffers, can be collected even if the station itself is still
+     * referenced. Readers still holding an earlier snapshot keep it alive. A
+     * mapped column chunk file is the station's own file and is left in
+     * place.
+     */
+    public synchronized void release() {
+        snapshot = new StationSnapshot(VERSION_SEQUENCE.incrementAndGet(), new LinkedHashMap<>(), null, null,
+                null);
+        storage = Storage.HEAP;
+    }
+
+    /**
+     * @return where the records and daily readings of the station are held
+     */
+    public Storage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Returns the bytes held off heap by the monthly columns and daily
+     * readings, or zero if they are on the heap.
      *
-     * @return maximum total rainfall
+     * @return off heap bytes
      */
-    public double getRainfallMax() {
+    public long getOffHeapBytes() {
+
+        StationSnapshot current = snapshot;
+        MonthlyColumns columns = current.getBuiltMonthlyColumns();
+        DailySeries dailySeries = current.getDailySeries();
+        long bytes = 0;
+
+        if (columns != null && columns.isOffHeap()) {
+            bytes += MonthlyColumns.getStoreBytes(columns.size());
+        }
 
-        double stationRainfallMax = -1; // rainfall max sentinel
-        for (Record record : this.values()) {
+        if (dailySeries != null && dailySeries.isOffHeap()) {
+            bytes += dailySeries.getStoreBytes();
+        }
 
-            if (record.getRainfallTotal() > stationRainfallMax) {
-                stationRainfallMax = record.getRainfallTotal();
+        return bytes;
+    }
+
+    /**
+     * Returns an estimate of the heap held by the station, from the number of
+     * records, the values retained by their sketches, the cached columns and
+     * the encoded daily readings. Object headers and padding are approximated,
+     * and record views, columns and readings held off heap are not counted.
+     *
+     * @return estimated heap in bytes
+     */
+    public long estimateHeapBytes() {
+
+        StationSnapshot current = snapshot;
+        MonthlyColumns columns = current.getBuiltMonthlyColumns();
+        DailySeries dailySeries = current.getDailySeries();
+        long bytes = 0;
+
+        // a stored snapshot creates its records when they are read, so none are held
+        if (!current.isStored()) {
+
+            bytes += (long) current.size() * RECORD_ENTRY_BYTES;
+
+            for (Record record : current.getRecordList()) {
+                QuantileSketch sketch = record.readDailyRainfallSketch();
+                if (sketch != null) {
+                    bytes += SKETCH_OVERHEAD_BYTES + (long) sketch.getRetained() * Double.BYTES;
+                }
             }
         }
 
-        return stationRainfallMax;
+        if (columns != null && !columns.isOffHeap()) {
+            bytes += (long) current.size() * COLUMN_BYTES_PER_RECORD;
+        }
+
+        if (dailySeries != null) {
+            bytes += dailySeries.getEncodedBytes() - (dailySeries.isOffHeap() ? dailySeries.getStoreBytes() : 0);
+        }
+
+        return bytes;
+    }
+
+    /**
+     * @return the number of rows read from the source file, including the header
+     */
+    public long getSourceRows() {
+        return sourceRows;
+    }
+
+    /**
+     * @return the size in bytes of the source file
+     */
+    public long getSourceBytes() {
+        return sourceBytes;
+    }
+
+    /**
+     * @param sourceRows number of rows read from the source file
+     * @param sourceBytes size in bytes of the source file
+     */
+    void setSourceSize(long sourceRows, long sourceBytes) {
+        this.sourceRows = sourceRows;
+        this.sourceBytes = sourceBytes;
+    }
+
+    /**
+     * Returns the version of the station's records. Versions are drawn from a
+     * sequence shared by every station, so a reloaded station never has the
+     * version of the station it replaces.
+     *
+     * @return the version of the records
+     */
+    public long getVersion() {
+        return snapshot.getVersion();
     }
 
     /**
@@ -66,4 +486,126 @@ public class Station extends LinkedHashMap<String, Record> {
     public String getName() {
         return name;
     }
+
+    /**
+     * Publishes the changes of a batch as a new snapshot. Commits are
+     * serialised, and each applies its changes to the latest snapshot. The
+     * new snapshot holds its records on the heap, so a station held off heap
+     * is brought back onto the heap with its daily readings.
+     *
+     * @param batch the batch
+     */
+    private synchronized void commit(Batch batch) {
+
+        StationSnapshot current = snapshot;
+
+        LinkedHashMap<String, Record> records = batch.isCleared ? new LinkedHashMap<>() : current.copyRecords();
+        records.keySet().removeAll(batch.removals);
+        records.putAll(batch.puts);
+
+        DailySeries dailySeries = batch.dailySeries != null ? batch.dailySeries : current.getDailySeries();
+        SpellDetector spellDetector = batch.spellDetector != null ? batch.spellDetector : current.getSpellDetector();
+
+        if (dailySeries != null && dailySeries.isOffHeap()) {
+            dailySeries = dailySeries.copyToHeap();
+        }
+
+        snapshot = new StationSnapshot(VERSION_SEQUENCE.incrementAndGet(), records, dailySeries, spellDetector,
+                null);
+        storage = Storage.HEAP;
+    }
+
+    /**
+     * A Batch collects changes to the records of a station and publishes them
+     * together as one new version with {@link #commit}. A batch belongs to
+     * the thread writing it and can be reused after it is committed.
+     */
+    public static class Batch {
+
+        private final Station station; // station the batch changes
+        private final LinkedHashMap<String, Record> puts = new LinkedHashMap<>(); // records to add or replace
+        private final LinkedHashSet<String> removals = new LinkedHashSet<>(); // keys of records to remove
+        private boolean isCleared; // if every record is removed before the puts are applied
+        private DailySeries dailySeries; // daily readings to set, null to keep the current readings
+        private SpellDetector spellDetector; // spells to set, null to keep the current spells
+
+        private Batch(Station station) {
+            this.station = station;
+        }
+
+        /**
+         * Adds or replaces a record. Replaced records keep their position.
+         *
+         * @param key key of the record, see {@link Record#makeKey}
+         * @param record the record
+         * @return the batch
+         */
+        public Batch put(String key, Record record) {
+            removals.remove(key);
+            puts.put(key, record);
+            return this;
+        }
+
+        /**
+         * @param key key of the record to remove
+         * @return the batch
+         */
+        public Batch remove(String key) {
+            puts.remove(key);
+            removals.add(key);
+            return this;
+        }
+
+        /**
+         * Removes every record, including those put earlier in the batch.
+         *
+         * @return the batch
+         */
+        public Batch clear() {
+            puts.clear();
+            removals.clear();
+            isCleared = true;
+            return this;
+        }
+
+        /**
+         * @param dailySeries the daily readings of the station
+         * @return the batch
+         */
+        Batch setDailySeries(DailySeries dailySeries) {
+            this.dailySeries = dailySeries;
+            return this;
+        }
+
+        /**
+         * @param spellDetector the finished spell detector of the station
+         * @return the batch
+         */
+        Batch setSpellDetector(SpellDetector spellDetector) {
+            this.spellDetector = spellDetector;
+            return this;
+        }
+
+        /**
+         * @return the number of records put in the batch so far
+         */
+        public int size() {
+            return puts.size();
+        }
+
+        /**
+         * Publishes the changes as a new snapshot of the station and empties
+         * the batch.
+         */
+        public void commit() {
+
+            station.commit(this);
+
+            puts.clear();
+            removals.clear();
+            isCleared = false;
+            dailySeries = null;
+            spellDetector = null;
+        }
+    }
 }
@@ -0,0 +1,597 @@
+package rainfall;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * A StationCatalog lists the stations in a directory and the years each
+ * covers without loading them. Only the first data row and the last few
+ * kilobytes of each plain csv file are read, which give the product code and
+ * BOM station number of raw files and the first and last year of every file.
+ * Compressed raw files are read up to their first data row only, so their
+ * last year is unknown.
+ * <p>
+ * The catalog of each directory is kept in a file under the
+ * {@value #CACHE_DIRECTORY_NAME} directory of the user's home directory,
+ * named after the path of the scanned directory, so nothing is written into
+ * the data directory. Files whose size and modified time match the catalog
+ * file are not read again, so rescanning a directory of thousands of
+ * unchanged files costs a directory listing.
+ *
+ * @author Owen Herbert
+ */
+public class StationCatalog {
+
+    public static final String CACHE_DIRECTORY_NAME = ".rainfall-visualiser-cache"; // per user directory of catalog files
+    public static final int YEAR_UNKNOWN = -1; // year of a file that could not be read that far
+
+    private static final String ANALYSED_FILE_SUFFIX = "_analysed.csv"; // suffix of analysed csv files
+    private static final String CATALOG_FILE_PREFIX = "station_catalog_"; // prefix of each catalog file name
+    private static final String CATALOG_HEADER = "file,modified,bytes,product,number,first,last";
+    private static final int CATALOG_COLUMNS = 7; // columns of each catalog file row
+    private static final int HEAD_BYTES = 4096; // bytes read from the start of a file
+    private static final int TAIL_BYTES = 4096; // bytes read from the end of a file
+
+    // indexes used in raw bom csv file
+    private static final int IDX_BOM_PRODUCT = 0, IDX_BOM_NUMBER = 1, IDX_BOM_YEAR = 2;
+
+    // indexes used in analysed rainfall csv file
+    private static final int IDX_ANALYSED_YEAR = 0;
+
+    private final List<Entry> entries; // one entry per station, ordered by station name
+
+    /**
+     * Takes ownership of the provided entries upon construction.
+     *
+     * @param entries one entry per station, ordered by station name
+     */
+    private StationCatalog(List<Entry> entries) {
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Scans a directory for station files, reading only the files that have
+     * changed since the catalog file was written, and rewrites the catalog
+     * file if anything changed. Files that cannot be read as station files
+     * are left out, and are kept in the catalog file as unreadable so they
+     * are not read again until they change. When a station has several files, its entry is made from
+     * the raw file that {@link Loader} would read, or its analysed file if
+     * there is no raw file.
+     *
+     * @param directoryName name of the directory
+     * @return the catalog of the directory
+     * @throws IOException if the directory cannot be listed
+     */
+    public static StationCatalog scan(String directoryName) throws IOException {
+
+        Path directory = Paths.get(directoryName);
+        if (!Files.isDirectory(directory)) {
+            throw new IOException("directory does not exist!");
+        }
+
+        String directoryPath = directory.toAbsolutePath().normalize().toString();
+        Path catalogPath = getCatalogPath(directoryPath);
+        Map<String, Entry> cachedEntries = readCatalogFile(catalogPath, directoryPath);
+        ArrayList<Entry> fileEntries = new ArrayList<>();
+        boolean isChanged = false; // if the catalog file no longer matches the directory
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+
+                String fileName = file.getFileName().toString();
+                if (fileName.startsWith(".") || getFileRank(fileName) == -1) {
+                    continue;
+                }
+
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                if (!attributes.isRegularFile()) {
+                    continue;
+                }
+
+                long modifiedMillis = attributes.lastModifiedTime().toMillis();
+                Entry cachedEntry = cachedEntries.remove(fileName);
+                Entry entry = cachedEntry;
+
+                if (entry == null || entry.modifiedMillis != modifiedMillis || entry.fileBytes != attributes.size()) {
+
+                    // a file that could not be opened is not kept, so only a dropped row changes the catalog
+                    entry = readEntry(file, fileName, modifiedMillis, attributes.size());
+                    isChanged |= entry != null || cachedEntry != null;
+                }
+
+                if (entry != null) {
+                    fileEntries.add(entry);
+                }
+            }
+        }
+
+        // entries left in the cache are of files that have been removed
+        if (isChanged || !cachedEntries.isEmpty()) {
+            writeCatalogFile(catalogPath, directoryPath, fileEntries);
+        }
+
+        // keep the best ranked file of each station
+        TreeMap<String, Entry> stationEntries = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Entry entry : fileEntries) {
+
+            if (!entry.isReadable) {
+                continue;
+            }
+
+            Entry otherEntry = stationEntries.get(entry.getStationName());
+            if (otherEntry == null || getFileRank(entry.fileName) < getFileRank(otherEntry.fileName)) {
+                stationEntries.put(entry.getStationName(), entry);
+            }
+        }
+
+        return new StationCatalog(new ArrayList<>(stationEntries.values()));
+    }
+
+    /**
+     * @return one entry per station, ordered by station name, which cannot be modified
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return the number of stations
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the catalog file of a directory in the user's cache directory.
+     * The file is named after a name based UUID of the directory's path, and
+     * holds the path itself so that a catalog is never read for the wrong
+     * directory.
+     *
+     * @param directoryPath absolute path of the directory
+     * @return the catalog file
+     */
+    private static Path getCatalogPath(String directoryPath) {
+
+        UUID directoryId = UUID.nameUUIDFromBytes(directoryPath.getBytes(StandardCharsets.UTF_8));
+        return Paths.get(System.getProperty("user.home"), CACHE_DIRECTORY_NAME,
+                CATALOG_FILE_PREFIX + directoryId + ".csv");
+    }
+
+    /**
+     * Returns the rank of a station file, lower ranks being preferred in the
+     * same order that {@link Loader} looks for raw files, followed by
+     * analysed files.
+     *
+     * @param fileName name of the file
+     * @return the rank, or -1 if the file is not a station file
+     */
+    private static int getFileRank(String fileName) {
+
+        String lowerFileName = fileName.toLowerCase();
+        if (lowerFileName.endsWith(ANALYSED_FILE_SUFFIX)) {
+            return RawInput.RAW_FILE_SUFFIXES.length;
+        }
+
+        for (int i = 0; i < RawInput.RAW_FILE_SUFFIXES.length; i++) {
+            if (lowerFileName.endsWith(RawInput.RAW_FILE_SUFFIXES[i])) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the name of the station a file belongs to, which is the file
+     * name without its station file suffix.
+     *
+     * @param fileName name of a station file
+     * @return name of the station
+     */
+    private static String getStationName(String fileName) {
+
+        int rank = getFileRank(fileName);
+        String suffix = rank == RawInput.RAW_FILE_SUFFIXES.length ?
+                ANALYSED_FILE_SUFFIX : RawInput.RAW_FILE_SUFFIXES[rank];
+
+        return fileName.substring(0, fileName.length() - suffix.length());
+    }
+
+    /**
+     * Reads the first data row and the last row of a station file.
+     *
+     * @param file the file
+     * @param fileName name of the file
+     * @param modifiedMillis modified time of the file
+     * @param fileBytes size of the file
+     * @return the entry, an unreadable entry if the file has no data rows or
+     * they cannot be parsed, or null if the file cannot be opened
+     */
+    private static Entry readEntry(Path file, String fileName, long modifiedMillis, long fileBytes) {
+
+        boolean isAnalysed = getFileRank(fileName) == RawInput.RAW_FILE_SUFFIXES.length;
+        boolean isPlain = fileName.toLowerCase().endsWith(".csv");
+
+        try {
+
+            String firstRow;
+            String lastRow = null;
+
+            if (isPlain) {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    firstRow = readFirstRow(channel, fileBytes);
+                    lastRow = readLastRow(channel, fileBytes);
+                }
+            } else {
+                try (RawInput.LineSource reader = RawInput.open(file.toFile())) {
+                    reader.readLine();
+                    firstRow = reader.readLine();
+                }
+            }
+
+            if (firstRow == null || firstRow.isEmpty()) {
+                return Entry.unreadable(fileName, modifiedMillis, fileBytes);
+            }
+
+            String[] firstColumns = firstRow.split(",", -1);
+            String[] lastColumns = lastRow == null ? null : lastRow.split(",", -1);
+            int yearIndex = isAnalysed ? IDX_ANALYSED_YEAR : IDX_BOM_YEAR;
+
+            int firstYear = Integer.parseInt(firstColumns[yearIndex]);
+            int lastYear = lastColumns == null ? YEAR_UNKNOWN : Integer.parseInt(lastColumns[yearIndex]);
+
+            return new Entry(fileName, modifiedMillis, fileBytes,
+                    isAnalysed ? null : firstColumns[IDX_BOM_PRODUCT],
+                    isAnalysed ? null : firstColumns[IDX_BOM_NUMBER], firstYear, lastYear);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException err) {
+            return Entry.unreadable(fileName, modifiedMillis, fileBytes);
+        } catch (IOException err) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the row after the header row from the start of a file.
+     *
+     * @param channel channel of the file
+     * @param fileBytes size of the file
+     * @return the first data row, or null if there is none within the bytes read
+     * @throws IOException if the file cannot be read
+     */
+    private static String readFirstRow(FileChannel channel, long fileBytes) throws IOException {
+
+        String head = read(channel, 0, (int) Math.min(fileBytes, HEAD_BYTES));
+
+        int rowStart = head.indexOf('\n') + 1;
+        if (rowStart == 0) {
+            return null;
+        }
+
+        int rowEnd = head.indexOf('\n', rowStart);
+        if (rowEnd == -1) {
+
+            // the row is only known to be whole if the file ends with it
+            if (fileBytes > HEAD_BYTES) {
+                return null;
+            }
+            rowEnd = head.length();
+        }
+
+        return head.substring(rowStart, rowEnd).trim();
+    }
+
+    /**
+     * Reads the last row from the end of a file.
+     *
+     * @param channel channel of the file
+     * @param fileBytes size of the file
+     * @return the last row, or null if it is the header row or is not whole within the bytes read
+     * @throws IOException if the file cannot be read
+     */
+    private static String readLastRow(FileChannel channel, long fileBytes) throws IOException {
+
+        long tailStart = Math.max(0, fileBytes - TAIL_BYTES);
+        String tail = read(channel, tailStart, (int) (fileBytes - tailStart)).stripTrailing();
+
+        int rowStart = tail.lastIndexOf('\n') + 1;
+        if (rowStart == 0) {
+
+            // the tail is one row, which is the header row if the tail is the whole file
+            return null;
+        }
+
+        return tail.substring(rowStart).trim();
+    }
+
+    /**
+     * Reads bytes of a file into a string.
+     *
+     * @param channel channel of the file
+     * @param position position of the first byte
+     * @param length number of bytes
+     * @return the bytes as a string
+     * @throws IOException if the file cannot be read
+     */
+    private static String read(FileChannel channel, long position, int length) throws IOException {
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                break;
+            }
+        }
+
+        return new String(buffer.array(), 0, buffer.position(), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Reads the entries of a catalog file. A missing or unreadable catalog
+     * file, or one written for another directory, gives no entries, and rows
+     * that cannot be read are left out, so their files are read again.
+     *
+     * @param catalogPath the catalog file
+     * @param directoryPath absolute path of the directory the catalog must be of
+     * @return entries by file name
+     */
+    private static Map<String, Entry> readCatalogFile(Path catalogPath, String directoryPath) {
+
+        HashMap<String, Entry> cachedEntries = new HashMap<>();
+        if (!Files.exists(catalogPath)) {
+            return cachedEntries;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(catalogPath.toFile(), StandardCharsets.UTF_8))) {
+
+            if (!quote(directoryPath).equals(reader.readLine()) || !CATALOG_HEADER.equals(reader.readLine())) {
+                return cachedEntries;
+            }
+
+            String row;
+            while ((row = reader.readLine()) != null) {
+
+                String[] columns = splitRow(row);
+                if (columns == null || columns.length != CATALOG_COLUMNS || getFileRank(columns[0]) == -1) {
+                    continue;
+                }
+
+                try {
+
+                    // unreadable files are kept without years
+                    Entry entry = columns[5].isEmpty() && columns[6].isEmpty() ?
+                            Entry.unreadable(columns[0], Long.parseLong(columns[1]), Long.parseLong(columns[2])) :
+                            new Entry(columns[0], Long.parseLong(columns[1]), Long.parseLong(columns[2]),
+                                    columns[3].isEmpty() ? null : columns[3], columns[4].isEmpty() ? null : columns[4],
+                                    Integer.parseInt(columns[5]), Integer.parseInt(columns[6]));
+                    cachedEntries.put(entry.fileName, entry);
+                } catch (NumberFormatException ignored) {
+                    // the file of the row is read again
+                }
+            }
+        } catch (IOException err) {
+            cachedEntries.clear();
+        }
+
+        return cachedEntries;
+    }
+
+    /**
+     * Writes the entries of every station file to a catalog file, after the
+     * path of the directory they are of. The catalog only saves reading
+     * files again, so a cache directory that cannot be written to means a
+     * full scan each time rather than failing. Files whose names contain a
+     * line break cannot be kept in a catalog row, so they are read on every
+     * scan.
+     *
+     * @param catalogPath the catalog file
+     * @param directoryPath absolute path of the directory
+     * @param fileEntries entry of each station file
+     */
+    private static void writeCatalogFile(Path catalogPath, String directoryPath, List<Entry> fileEntries) {
+
+        try {
+            Files.createDirectories(catalogPath.getParent());
+        } catch (IOException ignored) {
+            return;
+        }
+
+        try (PrintWriter writer = new PrintWriter(new FileWriter(catalogPath.toFile(), StandardCharsets.UTF_8))) {
+            writer.println(quote(directoryPath));
+            writer.println(CATALOG_HEADER);
+            for (Entry entry : fileEntries) {
+                if (entry.fileName.indexOf('\n') == -1 && entry.fileName.indexOf('\r') == -1) {
+                    writer.println(entry.getCSVString());
+                }
+            }
+        } catch (IOException ignored) {
+            // the catalog is rebuilt on the next scan
+        }
+    }
+
+    /**
+     * Quotes a catalog file value if it contains a comma or a quote, doubling
+     * any quotes inside it.
+     *
+     * @param value the value
+     * @return the value as written to a catalog file
+     */
+    private static String quote(String value) {
+
+        if (value.indexOf(',') == -1 && value.indexOf('"') == -1) {
+            return value;
+        }
+
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Splits a catalog file row into its values, removing the quotes that
+     * {@link #quote(String)} added.
+     *
+     * @param row the row
+     * @return the values, or null if a quoted value is not closed
+     */
+    private static String[] splitRow(String row) {
+
+        ArrayList<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean isQuoted = false;
+
+        for (int i = 0; i < row.length(); i++) {
+
+            char c = row.charAt(i);
+            if (isQuoted) {
+                if (c != '"') {
+                    value.append(c);
+                } else if (i + 1 < row.length() && row.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else {
+                    isQuoted = false;
+                }
+            } else if (c == '"') {
+                isQuoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+
+        if (isQuoted) {
+            return null;
+        }
+
+        values.add(value.toString());
+        return values.toArray(new String[0]);
+    }
+
+    /**
+     * An Entry describes a station file without its records.
+     */
+    public static class Entry {
+
+        private final String fileName; // name of the station file
+        private final long modifiedMillis; // modified time of the file when it was read
+        private final long fileBytes; // size of the file when it was read
+        private final String productCode; // BOM product code, null for analysed files
+        private final String stationNumber; // BOM station number, null for analysed files
+        private final int firstYear; // year of the first record
+        private final int lastYear; // year of the last record, or YEAR_UNKNOWN
+        private final boolean isReadable; // if the file could be read as a station file
+
+        Entry(String fileName, long modifiedMillis, long fileBytes, String productCode, String stationNumber,
+              int firstYear, int lastYear) {
+            this(fileName, modifiedMillis, fileBytes, productCode, stationNumber, firstYear, lastYear, true);
+        }
+
+        private Entry(String fileName, long modifiedMillis, long fileBytes, String productCode, String stationNumber,
+                      int firstYear, int lastYear, boolean isReadable) {
+            this.fileName = fileName;
+            this.modifiedMillis = modifiedMillis;
+            this.fileBytes = fileBytes;
+            this.productCode = productCode;
+            this.stationNumber = stationNumber;
+            this.firstYear = firstYear;
+            this.lastYear = lastYear;
+            this.isReadable = isReadable;
+        }
+
+        /**
+         * Returns an entry for a file that could not be read as a station
+         * file, which is only kept in the catalog file.
+         *
+         * @param fileName name of the file
+         * @param modifiedMillis modified time of the file when it was read
+         * @param fileBytes size of the file when it was read
+         * @return the unreadable entry
+         */
+        static Entry unreadable(String fileName, long modifiedMillis, long fileBytes) {
+            return new Entry(fileName, modifiedMillis, fileBytes, null, null, YEAR_UNKNOWN, YEAR_UNKNOWN, false);
+        }
+
+        /**
+         * @return the name of the station, as used to load it
+         */
+        public String getStationName() {
+            return StationCatalog.getStationName(fileName);
+        }
+
+        /**
+         * @return the name of the station file
+         */
+        public String getFileName() {
+            return fileName;
+        }
+
+        /**
+         * @return the size of the file when it was read
+         */
+        public long getFileBytes() {
+            return fileBytes;
+        }
+
+        /**
+         * @return the BOM product code, or null if the file is an analysed file
+         */
+        public String getProductCode() {
+            return productCode;
+        }
+
+        /**
+         * @return the BOM station number, or null if the file is an analysed file
+         */
+        public String getStationNumber() {
+            return stationNumber;
+        }
+
+        /**
+         * @return the year of the first record
+         */
+        public int getFirstYear() {
+            return firstYear;
+        }
+
+        /**
+         * @return the year of the last record, or {@link #YEAR_UNKNOWN} for compressed files
+         */
+        public int getLastYear() {
+            return lastYear;
+        }
+
+        /**
+         * Returns the entry as a catalog file row.
+         *
+         * @return catalog file row
+         */
+        private String getCSVString() {
+
+            if (!isReadable) {
+                return String.format("%s,%d,%d,,,,", quote(fileName), modifiedMillis, fileBytes);
+            }
+
+            return String.format("%s,%d,%d,%s,%s,%d,%d", quote(fileName), modifiedMillis, fileBytes,
+                    productCode == null ? "" : quote(productCode), stationNumber == null ? "" : quote(stationNumber),
+                    firstYear, lastYear);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package rainfall;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A StationNameIndex suggests stations of a {@link StationCatalog} whose
+ * names start with what has been typed so far, allowing for a few typing
+ * mistakes. Names are held in a prefix trie of their lower case letters,
+ * with the children of each node sorted so that suggestions come out in
+ * alphabetical order.
+ * <p>
+ * Suggestions are found by walking the trie with one row of the edit
+ * distance table per level, so a branch is left as soon as every prefix in
+ * it is too far from the query. Only the branches near the query are
+ * visited, however many stations the catalog has. Matches are ranked by how
+ * many edits they need, then alphabetically.
+ * <p>
+ * The index cannot be changed once built, so it can be built on one thread
+ * and queried on another.
+ *
+ * @author Owen Herbert
+ */
+public class StationNameIndex {
+
+    private static final int EXACT_QUERY_LENGTH = 2; // longest query that must match exactly
+    private static final int ONE_EDIT_QUERY_LENGTH = 5; // longest query that may be one edit away
+
+    private final StationCatalog.Entry[] entries; // indexed stations
+    private final Node root = new Node(); // node of the empty prefix
+    private int maxNameLength; // length of the longest name, the deepest level of the trie
+
+    /**
+     * Builds the trie of the station names of a catalog upon construction.
+     *
+     * @param catalog the catalog
+     */
+    public StationNameIndex(StationCatalog catalog) {
+
+        entries = catalog.getEntries().toArray(new StationCatalog.Entry[0]);
+
+        for (int i = 0; i < entries.length; i++) {
+
+            String name = entries[i].getStationName().toLowerCase();
+            maxNameLength = Math.max(maxNameLength, name.length());
+
+            Node node = root;
+            for (int j = 0; j < name.length(); j++) {
+                node = node.getOrAddChild(name.charAt(j));
+            }
+            node.entryIndex = i;
+        }
+    }
+
+    /**
+     * @return the number of indexed stations
+     */
+    public int size() {
+        return entries.length;
+    }
+
+    /**
+     * Returns the stations whose names start with the query, or with a
+     * prefix a few edits from it, ignoring case. Short queries must match
+     * exactly, longer ones may be one or two edits away.
+     *
+     * @param query the name typed so far
+     * @param limit the most suggestions to return
+     * @return matching stations, fewest edits first then by name
+     */
+    public List<StationCatalog.Entry> suggest(String query, int limit) {
+
+        String lowerQuery = query.toLowerCase();
+        int maxEdits = lowerQuery.length() <= EXACT_QUERY_LENGTH ? 0 :
+                lowerQuery.length() <= ONE_EDIT_QUERY_LENGTH ? 1 : 2;
+
+        Search search = new Search(lowerQuery, maxEdits, limit, maxNameLength);
+        if (lowerQuery.isEmpty()) {
+            search.collect(root, 0);
+        } else {
+            search.walk(root, 0, Integer.MAX_VALUE);
+        }
+
+        List<StationCatalog.Entry> suggestions = new ArrayList<>(limit);
+        for (int edits = 0; edits <= maxEdits && suggestions.size() < limit; edits++) {
+            for (int entryIndex : search.matches.get(edits)) {
+                if (suggestions.size() == limit) {
+                    break;
+                }
+                suggestions.add(entries[entryIndex]);
+            }
+        }
+
+        return suggestions;
+    }
+
+    /**
+     * A Search walks the trie for one query, holding the rows of the edit
+     * distance table and the matches found so far.
+     */
+    private class Search {
+
+        private final String query; // lower case query
+        private final int maxEdits; // most edits a match may need
+        private final int limit; // most matches kept for each number of edits
+        private final int[][] rows; // edit distance row of each trie level
+        private final List<List<Integer>> matches; // entry indexes of matches by number of edits, each up to the limit
+
+        Search(String query, int maxEdits, int limit, int maxDepth) {
+
+            this.query = query;
+            this.maxEdits = maxEdits;
+            this.limit = limit;
+            this.rows = new int[maxDepth + 1][query.length() + 1];
+            this.matches = new ArrayList<>(maxEdits + 1);
+
+            for (int i = 0; i <= maxEdits; i++) {
+                matches.add(new ArrayList<>(limit));
+            }
+
+            // the empty prefix is as many edits from each prefix of the query as it is long
+            for (int j = 0; j <= query.length(); j++) {
+                rows[0][j] = j;
+            }
+        }
+
+        /**
+         * Visits the children of a node, computing the edit distance row of
+         * each. A name matches with the fewest edits between the query and
+         * any prefix of the name. Children are descended into while some
+         * prefix of the query is still close enough, since a deeper prefix
+         * may need fewer edits; once none is, every name below a child is a
+         * match with the edits found so far, if those are few enough.
+         *
+         * @param node the node
+         * @param depth level of the node
+         * @param pathEdits fewest edits between the query and the prefixes down to the node
+         */
+        void walk(Node node, int depth, int pathEdits) {
+
+            int[] previousRow = rows[depth];
+            int[] row = rows[depth + 1];
+
+            for (int i = 0; i < node.keys.length; i++) {
+
+                // stop once the exact matches alone fill the suggestions
+                if (matches.get(0).size() == limit) {
+                    return;
+                }
+
+                char key = node.keys[i];
+                row[0] = previousRow[0] + 1;
+                int rowMin = row[0];
+
+                for (int j = 1; j < row.length; j++) {
+                    int substitution = previousRow[j - 1] + (query.charAt(j - 1) == key ? 0 : 1);
+                    row[j] = Math.min(substitution, Math.min(row[j - 1], previousRow[j]) + 1);
+                    rowMin = Math.min(rowMin, row[j]);
+                }
+
+                Node child = node.children[i];
+                int edits = Math.min(pathEdits, row[row.length - 1]);
+
+                if (rowMin <= maxEdits) {
+                    if (child.entryIndex != -1 && edits <= maxEdits) {
+                        addMatch(child.entryIndex, edits);
+                    }
+                    walk(child, depth + 1, edits);
+                } else if (edits <= maxEdits) {
+                    collect(child, edits);
+                }
+            }
+        }
+
+        /**
+         * Adds every name at or below a node as a match, in alphabetical
+         * order, until the matches with the same number of edits are full.
+         *
+         * @param node the node
+         * @param edits number of edits the names need
+         */
+        void collect(Node node, int edits) {
+
+            if (matches.get(edits).size() == limit) {
+                return;
+            }
+
+            if (node.entryIndex != -1) {
+                addMatch(node.entryIndex, edits);
+            }
+
+            for (Node child : node.children) {
+                collect(child, edits);
+            }
+        }
+
+        /**
+         * Adds a match unless the matches with the same number of edits are
+         * full. Each node is visited once, so each entry is matched once.
+         *
+         * @param entryIndex index of the entry
+         * @param edits number of edits the name needs
+         */
+        void addMatch(int entryIndex, int edits) {
+            if (matches.get(edits).size() < limit) {
+                matches.get(edits).add(entryIndex);
+            }
+        }
+    }
+
+    /**
+     * A Node is a prefix of one or more station names.
+     */
+    private static class Node {
+
+        private static final char[] NO_KEYS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        private char[] keys = NO_KEYS; // next letter of each child, sorted
+        private Node[] children = NO_CHILDREN; // child of each key
+        private int entryIndex = -1; // entry of the name ending at this node, -1 if none
+
+        /**
+         * @param key the next letter
+         * @return the child for the letter, added in sorted order if missing
+         */
+        Node getOrAddChild(char key) {
+
+            int index = Arrays.binarySearch(keys, key);
+            if (index >= 0) {
+                return children[index];
+            }
+
+            int insertIndex = -index - 1;
+            Node child = new Node();
+
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, insertIndex);
+            System.arraycopy(children, 0, newChildren, 0, insertIndex);
+            System.arraycopy(keys, insertIndex, newKeys, insertIndex + 1, keys.length - insertIndex);
+            System.arraycopy(children, insertIndex, newChildren, insertIndex + 1, children.length - insertIndex);
+            newKeys[insertIndex] = key;
+            newChildren[insertIndex] = child;
+
+            keys = newKeys;
+            children = newChildren;
+            return child;
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package rainfall;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * A StationSnapshot is an immutable version of the records and daily readings
+ * of a {@link Station}. Stations publish a new snapshot for every batch of
+ * changes, so a reader that holds a snapshot sees one consistent version no
+ * matter what is written to the station meanwhile, without taking locks.
+ * <p>
+ * Columns, range queries, rolling statistics and sketches derived from the
+ * records are built the first time they are requested and cached with the
+ * snapshot. Two threads may build the same view at once, in which case one
+ * of the equal results is kept.
+ * <p>
+ * A snapshot of a station held off heap has no Record objects. Its record
+ * list is a view that reads each record from the stored columns when it is
+ * requested, and the daily rainfall sketch of such a record is rebuilt from
+ * the stored daily readings.
+ *
+ * @author Owen Herbert
+ */
+public class StationSnapshot {
+
+    private final long version; // version of the station the snapshot was published as
+    private final Map<String, Record> records; // records by key in insertion order, null if the columns are stored
+    private final List<Record> recordList; // records in insertion order, a view if the columns are stored
+    private final DailySeries dailySeries; // compressed daily readings, null if days are unknown
+    private final SpellDetector spellDetector; // dry and heavy rain spells, null if days are unknown
+
+    // views of the records, built on first use
+    private volatile MonthlyColumns monthlyColumns; // columns of the records
+    private volatile RangeQuery rainfallTotalsQuery; // range query over the total rainfall
+    private volatile RollingStatistics rollingStatistics; // rolling statistics over the total rainfall
+    private volatile QuantileSketch[] calendarMonthSketches; // daily rainfall sketch of each calendar month
+
+    /**
+     * Takes ownership of the provided records upon construction, which must
+     * not be changed afterwards.
+     *
+     * @param version version of the snapshot
+     * @param records records by key, in insertion order
+     * @param dailySeries the daily readings, or null
+     * @param spellDetector the spells, or null
+     * @param monthlyColumns columns of the records if already built, or null
+     */
+    StationSnapshot(long version, LinkedHashMap<String, Record> records, DailySeries dailySeries,
+                    SpellDetector spellDetector, MonthlyColumns monthlyColumns) {
+
+        this.version = version;
+        this.records = Collections.unmodifiableMap(records);
+        this.recordList = Collections.unmodifiableList(new ArrayList<>(records.values()));
+        this.dailySeries = dailySeries;
+        this.spellDetector = spellDetector;
+        this.monthlyColumns = monthlyColumns;
+    }
+
+    /**
+     * Reads the records from columns held off heap upon construction, with
+     * no Record objects held.
+     *
+     * @param version version of the snapshot
+     * @param storedColumns the stored columns of the records
+     * @param dailySeries the daily readings, or null
+     * @param spellDetector the spells, or null
+     */
+    StationSnapshot(long version, MonthlyColumns storedColumns, DailySeries dailySeries,
+                    SpellDetector spellDetector) {
+
+        this.version = version;
+        this.records = null;
+        this.recordList = new RecordViews(storedColumns, dailySeries);
+        this.dailySeries = dailySeries;
+        this.spellDetector = spellDetector;
+        this.monthlyColumns = storedColumns;
+    }
+
+    /**
+     * @return the version of the records
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the number of records
+     */
+    public int size() {
+        return recordList.size();
+    }
+
+    /**
+     * @return if there are no records
+     */
+    public boolean isEmpty() {
+        return recordList.isEmpty();
+    }
+
+    /**
+     * @param key key of the record, see {@link Record#makeKey}
+     * @return the record, or null if there is none
+     */
+    public Record get(String key) {
+
+        if (records != null) {
+            return records.get(key);
+        }
+
+        int index = indexOf(key);
+        return index == -1 ? null : recordList.get(index);
+    }
+
+    /**
+     * @param key key of the record, see {@link Record#makeKey}
+     * @return if there is a record with the key
+     */
+    public boolean containsKey(String key) {
+        return records != null ? records.containsKey(key) : indexOf(key) != -1;
+    }
+
+    /**
+     * Finds a record in stored columns by its key, made by
+     * {@link Record#makeKey}.
+     *
+     * @param key key of the record
+     * @return index of the record, or -1 if there is none
+     */
+    private int indexOf(String key) {
+
+        int monthStart = key.indexOf("_M:");
+        if (!key.startsWith("_Y:") || monthStart == -1) {
+            return -1;
+        }
+
+        int year, month;
+        try {
+            year = Integer.parseInt(key, 3, monthStart, 10);
+            month = Integer.parseInt(key, monthStart + 3, key.length(), 10);
+        } catch (NumberFormatException err) {
+            return -1;
+        }
+
+        MonthlyColumns columns = getMonthlyColumns();
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.getYear(i) == year && columns.getMonth(i) == month) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Copies the records by key onto the heap, reading any stored records
+     * with their sketches rebuilt, so that a batch can be applied to them.
+     *
+     * @return the records by key in insertion order
+     */
+    LinkedHashMap<String, Record> copyRecords() {
+
+        if (records != null) {
+            return new LinkedHashMap<>(records);
+        }
+
+        LinkedHashMap<String, Record> copy = new LinkedHashMap<>();
+        for (Record record : recordList) {
+            copy.put(Record.makeKey(record.getYear(), record.getMonth()), record.withHeldSketch());
+        }
+
+        return copy;
+    }
+
+    /**
+     * @return if the records are read from columns held off heap
+     */
+    boolean isStored() {
+        return records == null;
+    }
+
+    /**
+     * Returns the records in insertion order as a list so that they can be
+     * accessed by index.
+     *
+     * @return records in insertion order, which cannot be modified
+     */
+    public List<Record> getRecordList() {
+        return recordList;
+    }
+
+    /**
+     * Iterates through all records and returns an ArrayList of distinct years.
+     *
+     * @return distinct years
+     */
+    public ArrayList<Integer> getDistinctYears() {
+
+        ArrayList<Integer> distinctYears = new ArrayList<>();
+
+        RecordCursor cursor = cursor();
+        while (cursor.next()) {
+            int year = cursor.getYear();
+            if (!distinctYears.contains(year)) {
+                distinctYears.add(year);
+            }
+        }
+
+        return distinctYears;
+    }
+
+    /**
+     * Returns the maximum total rainfall of any record, or -1 if there are no
+     * records.
+     *
+     * @return maximum total rainfall
+     */
+    public double getRainfallMax() {
+        return isEmpty() ? -1 : getMonthlyColumns().maxTotal();
+    }
+
+    /**
+     * @return the total rainfall of every record
+     */
+    public double getRainfallTotal() {
+        return getMonthlyColumns().sumTotals();
+    }
+
+    /**
+     * @param selection selection of records, such as from {@link #select}
+     * @return the total rainfall of the selected records
+     */
+    public double getRainfallTotal(Selection selection) {
+        return getMonthlyColumns().sumTotals(selection);
+    }
+
+    /**
+     * @param threshold the threshold in mm
+     * @return the number of records with total rainfall above the threshold
+     */
+    public int countRecordsAbove(double threshold) {
+        return getMonthlyColumns().countTotalsAbove(threshold);
+    }
+
+    /**
+     * @return columns of the records in insertion order
+     */
+    public MonthlyColumns getMonthlyColumns() {
+
+        MonthlyColumns columns = monthlyColumns;
+        if (columns == null) {
+            columns = new MonthlyColumns(recordList);
+            monthlyColumns = columns;
+        }
+
+        return columns;
+    }
+
+    /**
+     * Returns a cursor placed before the first record, which reads the
+     * records in insertion order from the columns without creating a Record
+     * for each.
+     *
+     * @return a cursor over the records
+     */
+    public RecordCursor cursor() {
+        return new RecordCursor(getMonthlyColumns());
+    }
+
+    /**
+     * Returns the total rainfall of each record. The column is copied if it
+     * is held off heap, so scans should use the aggregates of
+     * {@link MonthlyColumns} or a cursor instead.
+     *
+     * @return total rainfall of each record in insertion order, which must not be modified
+     */
+    public double[] getRainfallTotals() {
+        return getMonthlyColumns().getTotals();
+    }
+
+    /**
+     * Evaluates a query over the records.
+     *
+     * @param query the query
+     * @return selection of record indexes in insertion order
+     */
+    public Selection select(Query query) {
+        return query.evaluate(getMonthlyColumns());
+    }
+
+    /**
+     * @return range query over the total rainfall of each record, indexed in insertion order
+     */
+    public RangeQuery getRainfallTotalsQuery() {
+
+        RangeQuery query = rainfallTotalsQuery;
+        if (query == null) {
+            query = new RangeQuery(getRainfallTotals());
+            rainfallTotalsQuery = query;
+        }
+
+        return query;
+    }
+
+    /**
+     * @return rolling statistics over the total rainfall with the default window sizes
+     */
+    public RollingStatistics getRollingStatistics() {
+
+        RollingStatistics statistics = rollingStatistics;
+        if (statistics == null) {
+            statistics = RollingStatistics.of(this, RollingStatistics.DEFAULT_WINDOW_SIZES);
+            rollingStatistics = statistics;
+        }
+
+        return statistics;
+    }
+
+    /**
+     * Returns a sketch of the daily rainfall of a calendar month across every
+     * year. The sketch must not be modified; merge it into a new sketch
+     * instead.
+     *
+     * @param month the calendar month, 1 to 12
+     * @return daily rainfall sketch of the calendar month
+     */
+    public QuantileSketch getCalendarMonthSketch(int month) {
+
+        QuantileSketch[] sketches = calendarMonthSketches;
+        if (sketches == null) {
+
+            sketches = new QuantileSketch[12];
+            for (int i = 0; i < sketches.length; i++) {
+                sketches[i] = getDailyRainfallSketch(Integer.MIN_VALUE, Integer.MAX_VALUE, i + 1);
+            }
+
+            calendarMonthSketches = sketches;
+        }
+
+        return sketches[month - 1];
+    }
+
+    /**
+     * Merges the daily rainfall sketches of the records within a range of
+     * years into a new sketch. Records without daily rainfall are skipped,
+     * so the sketch is empty for stations loaded from analysed csv files.
+     *
+     * @param fromYear first year of the range, inclusive
+     * @param toYear last year of the range, inclusive
+     * @param month the calendar month, 1 to 12, or 0 for every month
+     * @return daily rainfall sketch of the range
+     */
+    public QuantileSketch getDailyRainfallSketch(int fromYear, int toYear, int month) {
+
+        QuantileSketch sketch = new QuantileSketch();
+        for (Record record : recordList) {
+
+            boolean isInRange = record.getYear() >= fromYear && record.getYear() <= toYear &&
+                    (month == 0 || record.getMonth() == month);
+
+            if (isInRange) {
+                sketch.merge(record.readDailyRainfallSketch());
+            }
+        }
+
+        return sketch;
+    }
+
+    /**
+     * @return the spell detector, or null if days are unknown
+     */
+    public SpellDetector getSpellDetector() {
+        return spellDetector;
+    }
+
+    /**
+     * @return the daily series, or null if days are unknown
+     */
+    public DailySeries getDailySeries() {
+        return dailySeries;
+    }
+
+    /**
+     * @return the columns if they have been built, or null
+     */
+    MonthlyColumns getBuiltMonthlyColumns() {
+        return monthlyColumns;
+    }
+
+    /**
+     * RecordViews is the record list of a snapshot held off heap. Each get
+     * reads a new Record from the stored columns, so no records are held.
+     */
+    private static class RecordViews extends AbstractList<Record> implements RandomAccess {
+
+        private final MonthlyColumns columns; // stored columns of the records
+        private final DailySeries dailySeries; // daily readings the sketches are rebuilt from, or null
+
+        RecordViews(MonthlyColumns columns, DailySeries dailySeries) {
+            this.columns = columns;
+            this.dailySeries = dailySeries;
+        }
+
+        @Override
+        public Record get(int index) {
+            return new Record(columns, index, dailySeries);
+        }
+
+        @Override
+        public int size() {
+            return columns.size();
+        }
+    }
+}